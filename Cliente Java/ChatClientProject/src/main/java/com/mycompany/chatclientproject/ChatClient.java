@@ -9,15 +9,21 @@
 package com.mycompany.chatclientproject;
 
 import com.mycompany.databaseproject.DatabaseService;
+import com.mycompany.databaseproject.HistoryRow;
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ChatClient implements MessageObserver {
 
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private InputStream in;
+    private OutputStream out;
     private DatabaseService db;
     private volatile boolean running;
     private ChatGUI gui;
@@ -28,12 +34,26 @@ public class ChatClient implements MessageObserver {
     private Set<String> allChannels = new HashSet<>();
     private boolean isAuthenticated = false;
     private final CryptoService cryptoService = new CryptoService();
+    private boolean binaryRequested;
+    private volatile boolean binary;
+    private final FileTransferManager transfers = new FileTransferManager(this);
+    /** Filas de páginas de historial aún sin HISTORY_PAGE_END, por destino. Solo las toca el hilo receptor. */
+    private final Map<String, List<HistoryEntry>> pendingHistory = new HashMap<>();
+    public static final int HISTORY_PAGE_SIZE = 50;
+    /** Filas por respuesta de GET_*_HISTORY_SINCE (el máximo que acepta el servidor). */
+    private static final int HISTORY_SYNC_SIZE = 200;
+    /** Lecturas del historial local fuera del hilo de Swing y del receptor. */
+    private final ExecutorService historyReader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ClientDB-Reader");
+        t.setDaemon(true);
+        return t;
+    });
 
     public ChatClient(String host, int port, DatabaseService db) {
         try {
             this.socket = new Socket(host, port);
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.out = new PrintWriter(socket.getOutputStream(), true);
+            this.in = socket.getInputStream();
+            this.out = new BufferedOutputStream(socket.getOutputStream());
             this.db = db;
             this.running = true;
             this.gui = new ChatGUI(this);
@@ -45,23 +65,197 @@ public class ChatClient implements MessageObserver {
     }
 
     public void sendMessage(String message) {
-        if (out != null && running) {
-            out.println(cryptoService.encrypt(message));
+        byte[] encrypted = cryptoService.encrypt(message.getBytes(StandardCharsets.UTF_8));
+        writeFrame(binary
+            ? WireProtocol.binaryFrame(WireProtocol.OP_TEXT, encrypted)
+            : WireProtocol.textFrame(encrypted));
+    }
+
+    /**
+     * Envía un archivo entero; con el protocolo binario viaja sin Base64. El
+     * servidor no admite así más de {@link WireProtocol#MAX_INLINE_FILE}.
+     */
+    public void sendFile(String destination, String fileName, byte[] file) {
+        if (binary) {
+            byte[] payload = WireProtocol.filePayload(destination, username, fileName, file);
+            writeFrame(WireProtocol.binaryFrame(WireProtocol.OP_FILE, cryptoService.encrypt(payload)));
+        } else {
+            sendMessage("FILE|" + destination + "|" + username + "|" + fileName + "|" + Base64.getEncoder().encodeToString(file));
+        }
+    }
+
+    /**
+     * Envía un archivo desde disco. Con el protocolo binario se sube por
+     * partes sin cargarlo en memoria; en texto se usa el envío completo, que
+     * solo admite archivos de hasta {@link WireProtocol#MAX_INLINE_FILE}.
+     */
+    public void sendFile(String destination, File file) throws IOException {
+        if (binary) {
+            transfers.upload(destination, file);
+        } else {
+            if (file.length() > WireProtocol.MAX_INLINE_FILE) {
+                throw new IOException("con el protocolo de texto el máximo es "
+                    + WireProtocol.MAX_INLINE_FILE / (1024 * 1024) + " MB");
+            }
+            sendFile(destination, file.getName(), Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    /** Cifra y envía una trama binaria; solo válido tras negociar el protocolo binario. */
+    void sendBinary(byte opcode, byte[] payload) {
+        writeFrame(WireProtocol.binaryFrame(opcode, cryptoService.encrypt(payload)));
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Abre el historial de una conversación: muestra al momento lo que ya hay
+     * guardado en local y pide al servidor solo los mensajes posteriores. Si
+     * no hay nada guardado se pide la última página como siempre.
+     */
+    public void openHistory(String destination) {
+        historyReader.execute(() -> {
+            List<HistoryRow> local = db.loadHistory(conversationKey(destination), 0, HISTORY_PAGE_SIZE);
+            if (local.isEmpty()) {
+                requestServerPage(destination, 0);
+                return;
+            }
+            gui.displayHistoryPage(destination, toEntries(local), local.get(0).getServerId(), true);
+            requestHistorySince(destination, local.get(local.size() - 1).getServerId());
+        });
+    }
+
+    /**
+     * Pide la página anterior al id {@code beforeId}. Si la base de datos
+     * local la tiene completa se sirve de ahí; si no, se pide al servidor.
+     */
+    public void requestHistoryPage(String destination, long beforeId) {
+        if (beforeId <= 0) {
+            requestServerPage(destination, beforeId);
+            return;
+        }
+        historyReader.execute(() -> {
+            List<HistoryRow> local = db.loadHistory(conversationKey(destination), beforeId, HISTORY_PAGE_SIZE);
+            if (local.size() < HISTORY_PAGE_SIZE) {
+                requestServerPage(destination, beforeId);
+                return;
+            }
+            gui.displayHistoryPage(destination, toEntries(local), local.get(0).getServerId(), true);
+        });
+    }
+
+    private void requestHistorySince(String destination, long afterId) {
+        if (destination.startsWith("#")) {
+            sendMessage("GET_CHANNEL_HISTORY_SINCE:" + afterId + ":" + HISTORY_SYNC_SIZE + ":" + destination.substring(1));
+        } else {
+            sendMessage("GET_CHAT_HISTORY_SINCE:" + afterId + ":" + HISTORY_SYNC_SIZE + ":" + destination);
+        }
+    }
+
+    private void requestServerPage(String destination, long beforeId) {
+        if (destination.startsWith("#")) {
+            sendMessage("GET_CHANNEL_HISTORY_PAGE:" + beforeId + ":" + HISTORY_PAGE_SIZE + ":" + destination.substring(1));
+        } else {
+            sendMessage("GET_CHAT_HISTORY_PAGE:" + beforeId + ":" + HISTORY_PAGE_SIZE + ":" + destination);
+        }
+    }
+
+    /** Clave local de la conversación: el canal o los dos usuarios ordenados, igual que en el servidor. */
+    private String conversationKey(String destination) {
+        if (destination.startsWith("#")) return destination;
+        return username.compareTo(destination) <= 0
+            ? username + "|" + destination
+            : destination + "|" + username;
+    }
+
+    private static List<HistoryEntry> toEntries(List<HistoryRow> rows) {
+        List<HistoryEntry> entries = new ArrayList<>(rows.size());
+        for (HistoryRow row : rows) entries.add(HistoryEntry.fromRow(row));
+        return entries;
+    }
+
+    private void saveHistory(String destination, List<HistoryEntry> entries) {
+        if (entries.isEmpty()) return;
+        String conversation = conversationKey(destination);
+        List<HistoryRow> rows = new ArrayList<>(entries.size());
+        for (HistoryEntry entry : entries) rows.add(entry.toRow(conversation));
+        db.saveHistory(rows);
+    }
+
+    /** Descarga un archivo que está en el servidor y lo copia a Descargas al terminar. */
+    public void fetchFile(String hash, long size, String fileName, String destination) {
+        transfers.download(hash, size, fileName, destination, file -> gui.saveToDownloads(fileName, file));
+    }
+
+    CryptoService getCryptoService() {
+        return cryptoService;
+    }
+
+    private void writeFrame(byte[] frame) {
+        if (out == null || !running) return;
+        synchronized (out) {
+            try {
+                out.write(frame);
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Error al enviar al servidor: " + e.getMessage());
+            }
         }
     }
 
+    /** Pide el protocolo binario al conectar; si el servidor no lo conoce se sigue en texto. */
+    public void setBinaryProtocol(boolean binaryRequested) {
+        this.binaryRequested = binaryRequested;
+    }
+
     public void start() {
         if (!running) return;
         Thread receiveThread = new Thread(this::receiveMessages);
         receiveThread.start();
+        if (binaryRequested) {
+            sendMessage(WireProtocol.NEGOTIATE);
+        }
     }
 
     private void receiveMessages() {
+        WireProtocol.FrameDecoder decoder = new WireProtocol.FrameDecoder(new WireProtocol.FrameListener() {
+            @Override
+            public void onTextLine(byte[] base64Line) {
+                byte[] plain = cryptoService.decrypt(Base64.getDecoder().decode(base64Line));
+                onMessageReceived(new String(plain, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void onBinaryFrame(byte opcode, byte[] encryptedPayload) {
+                if (opcode == WireProtocol.OP_RANGE) {
+                    // Solo la cabecera va cifrada aparte; los datos se descifran por bloques
+                    try {
+                        transfers.onRange(WireProtocol.Range.parse(encryptedPayload, cryptoService));
+                    } catch (IOException e) {
+                        System.err.println("Tramo de archivo inválido: " + e.getMessage());
+                    }
+                    return;
+                }
+                byte[] payload = cryptoService.decrypt(encryptedPayload);
+                if (opcode == WireProtocol.OP_TEXT) {
+                    onMessageReceived(new String(payload, StandardCharsets.UTF_8));
+                } else if (opcode == WireProtocol.OP_FILE) {
+                    try {
+                        WireProtocol.FilePayload f = WireProtocol.FilePayload.parse(payload);
+                        onFileReceived(f.destination, f.sender, f.fileName, f.data);
+                    } catch (IOException e) {
+                        System.err.println("Trama de archivo inválida: " + e.getMessage());
+                    }
+                }
+            }
+        });
         try {
-            String message;
-            while (running && (message = in.readLine()) != null) {
-                String decryptedMessage = cryptoService.decrypt(message);
-                onMessageReceived(decryptedMessage);
+            byte[] buf = new byte[8192];
+            int n;
+            while (running && (n = in.read(buf)) != -1) {
+                decoder.feed(buf, 0, n);
             }
         } catch (IOException e) {
             if (running) {
@@ -73,6 +267,8 @@ public class ChatClient implements MessageObserver {
 
     public void stop() {
         running = false;
+        transfers.close();
+        historyReader.shutdownNow();
         try {
             if (in != null) in.close();
             if (out != null) out.close();
@@ -135,7 +331,9 @@ public class ChatClient implements MessageObserver {
 
     @Override
     public void onMessageReceived(String message) {
-        if (message.startsWith("SUCCESS:")) {
+        if (message.equals(WireProtocol.NEGOTIATE_OK)) {
+            binary = true;
+        } else if (message.startsWith("SUCCESS:")) {
             String successMsg = message.substring("SUCCESS:".length());
             if (successMsg.startsWith("Usuario registrado o conectado")) {
                 setAuthenticated(true);
@@ -181,18 +379,24 @@ public class ChatClient implements MessageObserver {
             String sender = parts[2];
             String fileName = parts[3];
             byte[] file = Base64.getDecoder().decode(parts[4]);
-            String displayDestination = destination.startsWith("#") ? destination : sender;
-            if (sender.equals(username)) {
-                displayDestination = destination;
-            }
-            saveFileLocally(file, fileName, displayDestination);
-            if (gui.isTabOpen(displayDestination)) {
-                gui.displayFileMessage(sender, displayDestination, fileName, file);
-            }
-            if (!gui.isChatOpen(displayDestination) && !sender.equals(username)) {
-                gui.notifyNewMessage(displayDestination);
-            }
-            db.saveMessage(sender, "Archivo enviado: " + fileName, file);
+            onFileReceived(destination, sender, fileName, file);
+        } else if (message.startsWith("UPLOAD_OFFSET:")) {
+            String[] parts = message.substring("UPLOAD_OFFSET:".length()).split("\\|", 2);
+            if (parts.length < 2) return;
+            transfers.onUploadOffset(parts[0], Long.parseLong(parts[1]));
+        } else if (message.startsWith("UPLOAD_DONE:")) {
+            transfers.onUploadDone(message.substring("UPLOAD_DONE:".length()));
+        } else if (message.startsWith("FILE_AVAILABLE:")) {
+            // FILE_AVAILABLE:destino|remitente|tamaño|hash|nombre
+            String[] parts = message.substring("FILE_AVAILABLE:".length()).split("\\|", 5);
+            if (parts.length < 5) return;
+            String destination = parts[0];
+            String sender = parts[1];
+            transfers.onFileAvailable(destination, sender, Long.parseLong(parts[2]), parts[3], parts[4],
+                    displayDestination(destination, sender));
+        } else if (message.startsWith("DOWNLOAD_END:")) {
+            String[] parts = message.substring("DOWNLOAD_END:".length()).split("\\|", 2);
+            transfers.onDownloadEnd(parts[0]);
         } else if (message.startsWith("ONLINE_USERS:")) {
             String users = message.substring("ONLINE_USERS:".length());
             onlineUsers.clear();
@@ -247,6 +451,40 @@ public class ChatClient implements MessageObserver {
             saveFileLocally(file, fileName, "#" + destination);
             gui.displayFileMessage(sender, "#" + destination, fileName, file);
             db.saveMessage(sender, "Archivo recibido: " + fileName, file);
+        } else if (message.startsWith("HISTORY_FILE_REF:")) {
+            // HISTORY_FILE_REF:destino|remitente|tamaño|hash|nombre; se descarga solo si se pide
+            String[] parts = message.substring("HISTORY_FILE_REF:".length()).split("\\|", 5);
+            if (parts.length < 5) return;
+            String destination = parts[0];
+            String sender = parts[1];
+            long size = Long.parseLong(parts[2]);
+            String hash = parts[3];
+            String fileName = parts[4];
+            gui.displayRemoteFileMessage(sender, destination, fileName,
+                    () -> fetchFile(hash, size, fileName, destination));
+        } else if (message.startsWith("HISTORY_ROW:")) {
+            String[] fields = message.substring("HISTORY_ROW:".length()).split("\\|", 7);
+            if (fields.length < 7) return;
+            pendingHistory.computeIfAbsent(fields[0], k -> new ArrayList<>()).add(HistoryEntry.parse(fields));
+        } else if (message.startsWith("HISTORY_PAGE_END:")) {
+            // HISTORY_PAGE_END:destino|idMásAntiguo|hayMás
+            String[] parts = message.substring("HISTORY_PAGE_END:".length()).split("\\|", 3);
+            if (parts.length < 3) return;
+            List<HistoryEntry> rows = pendingHistory.remove(parts[0]);
+            if (rows == null) rows = Collections.emptyList();
+            saveHistory(parts[0], rows);
+            gui.displayHistoryPage(parts[0], rows, Long.parseLong(parts[1]), "1".equals(parts[2]));
+        } else if (message.startsWith("HISTORY_SYNC_END:")) {
+            // HISTORY_SYNC_END:destino|idMásNuevo|hayMás; lo que faltaba desde la última sincronización
+            String[] parts = message.substring("HISTORY_SYNC_END:".length()).split("\\|", 3);
+            if (parts.length < 3) return;
+            List<HistoryEntry> rows = pendingHistory.remove(parts[0]);
+            if (rows == null) rows = Collections.emptyList();
+            saveHistory(parts[0], rows);
+            gui.appendHistory(parts[0], rows);
+            if ("1".equals(parts[2])) {
+                requestHistorySince(parts[0], Long.parseLong(parts[1]));
+            }
         } else if (message.startsWith("CHANNEL_REQUEST:")) {
             String[] parts = message.split(":", 3);
             if (parts.length < 3) return;
@@ -269,6 +507,41 @@ public class ChatClient implements MessageObserver {
         }
     }
 
+    private String displayDestination(String destination, String sender) {
+        if (sender.equals(username)) {
+            return destination;
+        }
+        return destination.startsWith("#") ? destination : sender;
+    }
+
+    /** Archivo descargado por partes y ya guardado en received_files. */
+    void onStoredFileReceived(String displayDestination, String sender, String fileName, Path file) {
+        if (gui.isTabOpen(displayDestination)) {
+            gui.displayFileMessage(sender, displayDestination, fileName, file);
+        }
+        if (!gui.isChatOpen(displayDestination) && !sender.equals(username)) {
+            gui.notifyNewMessage(displayDestination);
+        }
+        db.saveMessage(sender, "Archivo enviado: " + fileName, null);
+    }
+
+    void onTransferError(String message) {
+        System.err.println(message);
+        gui.displayMessage(message);
+    }
+
+    private void onFileReceived(String destination, String sender, String fileName, byte[] file) {
+        String displayDestination = displayDestination(destination, sender);
+        saveFileLocally(file, fileName, displayDestination);
+        if (gui.isTabOpen(displayDestination)) {
+            gui.displayFileMessage(sender, displayDestination, fileName, file);
+        }
+        if (!gui.isChatOpen(displayDestination) && !sender.equals(username)) {
+            gui.notifyNewMessage(displayDestination);
+        }
+        db.saveMessage(sender, "Archivo enviado: " + fileName, file);
+    }
+
     private void saveFileLocally(byte[] file, String fileName, String destination) {
         File dir = new File("received_files" + File.separator + destination.replace("#", "channel_"));
         if (!dir.exists()) dir.mkdirs();
@@ -13,6 +13,8 @@ import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import javax.swing.*;
 
@@ -34,6 +36,9 @@ public class ChatGUI {
     private JPanel sidePanel;
     private byte[] userPhoto;
     private Map<String, String> channelAdmins;
+    // Id del mensaje más antiguo cargado por pestaña (0 = no quedan más) y páginas en curso
+    private final Map<String, Long> historyCursors = new HashMap<>();
+    private final Set<String> historyLoading = new HashSet<>();
 
     public ChatGUI(ChatClient client) {
         this.client = client;
@@ -278,10 +283,8 @@ public class ChatGUI {
         if (fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
             try {
-                byte[] fileBytes = Files.readAllBytes(file.toPath());
-                String encodedFile = Base64.getEncoder().encodeToString(fileBytes);
-                client.sendMessage("FILE|" + destination + "|" + client.getUsername() + "|" + file.getName() + "|" + encodedFile);
-                displayFileMessage(client.getUsername(), destination, file.getName(), fileBytes);
+                client.sendFile(destination, file);
+                displayFileMessage(client.getUsername(), destination, file.getName(), file.toPath());
             } catch (IOException e) {
                 displayMessage("Error al enviar archivo: " + e.getMessage());
             }
@@ -377,6 +380,8 @@ public class ChatGUI {
         tabbedPane.removeAll();
         chatPanels.clear();
         displayedMessages.clear();
+        historyCursors.clear();
+        historyLoading.clear();
         unreadMessages.clear();
         tabTitles.clear();
         onlineUsersModel.clear();
@@ -446,6 +451,50 @@ public class ChatGUI {
     }
 
     public void displayFileMessage(String sender, String destination, String fileName, byte[] file) {
+        displayFileMessage(sender, destination, fileName,
+                () -> saveToDownloads(fileName, target -> Files.write(target, file)));
+    }
+
+    /** Archivo ya guardado en disco: "Descargar" lo copia sin cargarlo en memoria. */
+    public void displayFileMessage(String sender, String destination, String fileName, Path file) {
+        displayFileMessage(sender, destination, fileName, () -> saveToDownloads(fileName, file));
+    }
+
+    /** Archivo del historial que aún está solo en el servidor: "Descargar" lanza {@code fetch}. */
+    public void displayRemoteFileMessage(String sender, String destination, String fileName, Runnable fetch) {
+        displayFileMessage(sender, destination, fileName, fetch);
+    }
+
+    /** Copia a Descargas un archivo ya recibido; se puede llamar desde cualquier hilo. */
+    public void saveToDownloads(String fileName, Path file) {
+        SwingUtilities.invokeLater(() -> saveToDownloads(fileName,
+                target -> Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING)));
+    }
+
+    private interface FileSaver {
+        void saveTo(Path target) throws IOException;
+    }
+
+    private void saveToDownloads(String fileName, FileSaver saver) {
+        try {
+            saver.saveTo(new File(System.getProperty("user.home") + "/Downloads/" + fileName).toPath());
+            JOptionPane.showMessageDialog(frame, "Archivo descargado en Descargas");
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, "Error al descargar: " + ex.getMessage());
+        }
+    }
+
+    private JPanel createFilePanel(String sender, String fileName, Runnable onDownload) {
+        JPanel filePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JLabel fileLabel = new JLabel(sender + " envió un archivo: " + fileName);
+        JButton downloadButton = new JButton("Descargar");
+        downloadButton.addActionListener(e -> onDownload.run());
+        filePanel.add(fileLabel);
+        filePanel.add(downloadButton);
+        return filePanel;
+    }
+
+    private void displayFileMessage(String sender, String destination, String fileName, Runnable onDownload) {
         SwingUtilities.invokeLater(() -> {
             if (!chatPanels.containsKey(destination)) {
                 JPanel chatPanel = new JPanel();
@@ -459,20 +508,7 @@ public class ChatGUI {
             String messageKey = sender + " envió un archivo: " + fileName;
             if (!messages.contains(messageKey)) {
                 messages.add(messageKey);
-                JPanel filePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-                JLabel fileLabel = new JLabel(sender + " envió un archivo: " + fileName);
-                JButton downloadButton = new JButton("Descargar");
-                downloadButton.addActionListener(e -> {
-                    try {
-                        Files.write(new File(System.getProperty("user.home") + "/Downloads/" + fileName).toPath(), file);
-                        JOptionPane.showMessageDialog(frame, "Archivo descargado en Descargas");
-                    } catch (IOException ex) {
-                        JOptionPane.showMessageDialog(frame, "Error al descargar: " + ex.getMessage());
-                    }
-                });
-                filePanel.add(fileLabel);
-                filePanel.add(downloadButton);
-                chatPanel.add(filePanel);
+                chatPanel.add(createFilePanel(sender, fileName, onDownload));
                 chatPanel.add(Box.createVerticalStrut(5));
                 if (isTabOpen(destination)) {
                     chatPanel.revalidate();
@@ -581,7 +617,14 @@ public class ChatGUI {
             JPanel tabPanel = new JPanel(new BorderLayout());
             JLabel titleLabel = new JLabel(destination);
             tabPanel.add(titleLabel, BorderLayout.NORTH);
-            tabPanel.add(new JScrollPane(chatPanel), BorderLayout.CENTER);
+            JScrollPane scrollPane = new JScrollPane(chatPanel);
+            // Al llegar arriba se pide la página anterior
+            scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+                if (!e.getValueIsAdjusting() && e.getValue() == 0) {
+                    loadOlderHistory(destination);
+                }
+            });
+            tabPanel.add(scrollPane, BorderLayout.CENTER);
 
             if (destination.startsWith("#") && channelAdmins.getOrDefault(destination.substring(1), "").equals(client.getUsername())) {
                 JButton manageButton = new JButton("Agregar Usuarios");
@@ -607,11 +650,9 @@ public class ChatGUI {
             unreadMessages.putIfAbsent(destination, 0);
             tabbedPane.setTabComponentAt(tabbedPane.getTabCount() - 1, titlePanel);
 
-            if (destination.startsWith("#")) {
-                client.sendMessage("GET_CHANNEL_HISTORY:" + destination.substring(1));
-            } else {
-                client.sendMessage("GET_CHAT_HISTORY:" + destination);
-            }
+            historyCursors.remove(destination);
+            historyLoading.add(destination);
+            client.openHistory(destination);
         }
         tabbedPane.setSelectedIndex(tabbedPane.indexOfTab(destination));
         unreadMessages.put(destination, 0); // Resetear mensajes no leídos al abrir
@@ -620,6 +661,74 @@ public class ChatGUI {
         updateChannels();
     }
 
+    private void loadOlderHistory(String destination) {
+        Long cursor = historyCursors.get(destination);
+        if (cursor == null || cursor <= 0 || !historyLoading.add(destination)) return;
+        client.requestHistoryPage(destination, cursor);
+    }
+
+    /**
+     * Inserta una página de historial encima de lo ya mostrado, conservando
+     * la posición de lectura; la primera página deja la vista abajo.
+     */
+    public void displayHistoryPage(String destination, java.util.List<HistoryEntry> entries, long oldestId, boolean hasMore) {
+        SwingUtilities.invokeLater(() -> {
+            JPanel chatPanel = chatPanels.get(destination);
+            if (chatPanel == null) return;
+            historyLoading.remove(destination);
+            boolean firstPage = !historyCursors.containsKey(destination);
+            historyCursors.put(destination, hasMore ? oldestId : 0L);
+
+            JScrollBar vertical = null;
+            if (chatPanel.getParent() instanceof JViewport) {
+                vertical = ((JScrollPane) chatPanel.getParent().getParent()).getVerticalScrollBar();
+            }
+            int fromBottom = vertical != null ? vertical.getMaximum() - vertical.getValue() : 0;
+
+            addHistoryEntries(destination, chatPanel, entries, 0);
+            chatPanel.revalidate();
+            chatPanel.repaint();
+            if (vertical != null) {
+                JScrollBar bar = vertical;
+                SwingUtilities.invokeLater(() -> bar.setValue(firstPage ? bar.getMaximum() : bar.getMaximum() - fromBottom));
+            }
+        });
+    }
+
+    /** Añade al final los mensajes que trajo la sincronización incremental. */
+    public void appendHistory(String destination, java.util.List<HistoryEntry> entries) {
+        if (entries.isEmpty()) return;
+        SwingUtilities.invokeLater(() -> {
+            JPanel chatPanel = chatPanels.get(destination);
+            if (chatPanel == null) return;
+            addHistoryEntries(destination, chatPanel, entries, chatPanel.getComponentCount());
+            chatPanel.revalidate();
+            chatPanel.repaint();
+            if (chatPanel.getParent() instanceof JViewport) {
+                JScrollBar bar = ((JScrollPane) chatPanel.getParent().getParent()).getVerticalScrollBar();
+                SwingUtilities.invokeLater(() -> bar.setValue(bar.getMaximum()));
+            }
+        });
+    }
+
+    /** Inserta las filas a partir de {@code index} saltándose las que ya se muestran. */
+    private void addHistoryEntries(String destination, JPanel chatPanel, java.util.List<HistoryEntry> entries, int index) {
+        Set<String> messages = displayedMessages.get(destination);
+        for (HistoryEntry entry : entries) {
+            String messageKey = "[" + entry.getTimestamp() + "] " + entry.getMessage();
+            if (!messages.add(messageKey)) continue;
+            chatPanel.add(new JLabel("[" + entry.getTimestamp() + "] " + entry.getSender() + ": " + entry.getMessage()), index++);
+            chatPanel.add(Box.createVerticalStrut(5), index++);
+            if (entry.getFileHash() != null) {
+                String fileName = entry.getFileName();
+                messages.add(entry.getSender() + " envió un archivo: " + fileName);
+                chatPanel.add(createFilePanel(entry.getSender(), fileName,
+                        () -> client.fetchFile(entry.getFileHash(), entry.getFileSize(), fileName, destination)), index++);
+                chatPanel.add(Box.createVerticalStrut(5), index++);
+            }
+        }
+    }
+
     private void updateTabTitle(String destination) {
         SwingUtilities.invokeLater(() -> {
             int index = tabbedPane.indexOfTab(destination);
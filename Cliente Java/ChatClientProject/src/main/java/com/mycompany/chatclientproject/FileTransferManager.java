@@ -0,0 +1,278 @@
+package com.mycompany.chatclientproject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Subidas y descargas por partes (protocolo binario). Los archivos van de
+ * disco a disco: las subidas en fragmentos de {@link WireProtocol#CHUNK_SIZE}
+ * con su CRC32 y las descargas en ventanas de {@code WINDOW} bytes; en
+ * memoria solo está el fragmento o la ventana en curso.
+ *
+ * Subida: UPLOAD_START → el servidor responde UPLOAD_OFFSET con lo que ya
+ * tiene → se envían fragmentos OP_CHUNK desde ahí → UPLOAD_DONE. El id de la
+ * subida se deriva del archivo, así que volver a enviarlo tras un corte
+ * retoma desde el último offset confirmado.
+ *
+ * Descarga: FILE_AVAILABLE → DOWNLOAD por ventanas → tramo OP_RANGE (el
+ * archivo ya cifrado que el servidor envía sin copiarlo) y DOWNLOAD_END. Lo
+ * recibido queda en un {@code .part} que se retoma igual y, al terminar, se
+ * compara con el SHA-256 que identifica al archivo.
+ */
+class FileTransferManager {
+    /** Lo que el servidor sirve como mucho por DOWNLOAD: la trama OP_RANGE cabe en WireProtocol.MAX_FRAME. */
+    private static final long WINDOW = 2L * 1024 * 1024;
+    private static final int MAX_STALLED_WINDOWS = 3;
+
+    private final ChatClient client;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final Map<String, Download> downloads = new ConcurrentHashMap<>();
+    /** Archivos propios ya subidos cuyo FILE_AVAILABLE de vuelta no hay que descargar. */
+    private final Set<String> echoes = ConcurrentHashMap.newKeySet();
+
+    private static final class Upload {
+        final String id;
+        final String destination;
+        final File file;
+        volatile int generation;
+
+        Upload(String id, String destination, File file) {
+            this.id = id;
+            this.destination = destination;
+            this.file = file;
+        }
+    }
+
+    private static final class Download {
+        final String id;
+        final String hash;
+        final String fileName;
+        final long size;
+        final Path partFile;
+        final Consumer<Path> onComplete;
+        FileChannel channel;
+        long offset;
+        long requestedFrom;
+        int stalled;
+
+        Download(String id, String hash, String fileName, long size, Path partFile, Consumer<Path> onComplete) {
+            this.id = id;
+            this.hash = hash;
+            this.fileName = fileName;
+            this.size = size;
+            this.partFile = partFile;
+            this.onComplete = onComplete;
+        }
+    }
+
+    FileTransferManager(ChatClient client) {
+        this.client = client;
+    }
+
+    // ─── Subidas ────────────────────────────────────
+    void upload(String destination, File file) {
+        String key = client.getUsername() + "|" + destination + "|" + file.getAbsolutePath()
+                + "|" + file.length() + "|" + file.lastModified();
+        String id = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+        uploads.put(id, new Upload(id, destination, file));
+        client.sendMessage("UPLOAD_START:" + id + "|" + destination + "|" + file.length() + "|" + file.getName());
+    }
+
+    /** El servidor confirma hasta dónde tiene el archivo: se (re)envía desde ahí. */
+    void onUploadOffset(String id, long offset) {
+        Upload upload = uploads.get(id);
+        if (upload == null) return;
+        int generation = ++upload.generation;
+        Thread sender = new Thread(() -> streamUpload(upload, offset, generation), "Upload-" + upload.file.getName());
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    private void streamUpload(Upload upload, long offset, int generation) {
+        byte[] buf = new byte[WireProtocol.CHUNK_SIZE];
+        try (FileChannel channel = FileChannel.open(upload.file.toPath(), StandardOpenOption.READ)) {
+            long pos = offset;
+            while (client.isRunning() && upload.generation == generation) {
+                int n = channel.read(ByteBuffer.wrap(buf), pos);
+                if (n <= 0) break;
+                client.sendBinary(WireProtocol.OP_CHUNK,
+                        WireProtocol.chunkPayload(WireProtocol.CHUNK_UPLOAD, upload.id, pos, buf, n));
+                pos += n;
+            }
+        } catch (IOException e) {
+            uploads.remove(upload.id);
+            client.onTransferError("Error al enviar " + upload.file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    void onUploadDone(String id) {
+        Upload upload = uploads.remove(id);
+        if (upload != null) {
+            upload.generation++;
+            echoes.add(upload.destination + "|" + upload.file.getName());
+        }
+    }
+
+    // ─── Descargas ──────────────────────────────────
+    void onFileAvailable(String destination, String sender, long size, String hash, String fileName,
+                         String displayDestination) {
+        if (echoes.remove(destination + "|" + fileName)) return;
+        download(hash, size, fileName, displayDestination,
+                file -> client.onStoredFileReceived(displayDestination, sender, fileName, file));
+    }
+
+    /**
+     * Descarga el archivo {@code hash} a received_files y llama a
+     * {@code onComplete} con la ruta final. Si ya está en disco y coincide
+     * el hash no se vuelve a pedir.
+     */
+    void download(String hash, long size, String fileName, String displayDestination, Consumer<Path> onComplete) {
+        Path dir = Paths.get("received_files", displayDestination.replace("#", "channel_"));
+        String safeName = Paths.get(fileName).getFileName().toString();
+        Path target = dir.resolve(safeName);
+        try {
+            if (Files.isRegularFile(target) && Files.size(target) == size && hash.equals(sha256(target))) {
+                onComplete.accept(target);
+                return;
+            }
+        } catch (IOException e) {
+            // Se descarga de nuevo
+        }
+        Download d = new Download(UUID.randomUUID().toString(), hash, safeName, size,
+                dir.resolve(safeName + ".part"), onComplete);
+        try {
+            Files.createDirectories(dir);
+            d.channel = FileChannel.open(d.partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            d.offset = d.channel.size() <= size ? d.channel.size() : 0;
+            d.channel.truncate(d.offset);
+        } catch (IOException e) {
+            client.onTransferError("Error al preparar la descarga de " + fileName + ": " + e.getMessage());
+            return;
+        }
+        downloads.put(d.id, d);
+        requestWindow(d);
+    }
+
+    /**
+     * Tramo OP_RANGE: se descifra por bloques y se escribe en su posición.
+     * Un tramo que empieza más allá de lo ya escrito se descarta y se vuelve
+     * a pedir al final de la ventana.
+     */
+    void onRange(WireProtocol.Range range) {
+        Download d = downloads.get(range.transferId);
+        if (d == null || range.offset > d.offset) return;
+        try {
+            byte[] plain = client.getCryptoService().decryptBlocks(
+                    range.payload, range.dataOffset, range.dataLength, range.isLast());
+            ByteBuffer buf = ByteBuffer.wrap(plain);
+            long pos = range.offset;
+            while (buf.hasRemaining()) {
+                pos += d.channel.write(buf, pos);
+            }
+            d.offset = Math.max(d.offset, pos);
+        } catch (IOException | RuntimeException e) {
+            fail(d, e.getMessage());
+        }
+    }
+
+    /** Fin de una ventana: se pide la siguiente desde lo escrito de verdad. */
+    void onDownloadEnd(String id) {
+        Download d = downloads.get(id);
+        if (d == null) return;
+        if (d.offset >= d.size) {
+            finish(d);
+        } else if (d.offset == d.requestedFrom && ++d.stalled >= MAX_STALLED_WINDOWS) {
+            fail(d, "sin progreso desde el byte " + d.offset);
+        } else {
+            if (d.offset > d.requestedFrom) d.stalled = 0;
+            requestWindow(d);
+        }
+    }
+
+    private void requestWindow(Download d) {
+        if (d.offset >= d.size) {
+            finish(d);
+            return;
+        }
+        d.requestedFrom = d.offset;
+        client.sendMessage("DOWNLOAD:" + d.id + "|" + d.offset + "|" + WINDOW + "|" + d.hash);
+    }
+
+    /** Comprueba el contenido contra su hash (la dirección del archivo en el servidor) y lo deja en su sitio. */
+    private void finish(Download d) {
+        downloads.remove(d.id);
+        try {
+            d.channel.truncate(d.size);
+            d.channel.close();
+            if (!d.hash.equals(sha256(d.partFile))) {
+                Files.deleteIfExists(d.partFile);
+                client.onTransferError("Descarga de " + d.fileName + " corrupta; se ha descartado");
+                return;
+            }
+            Path target = d.partFile.resolveSibling(d.fileName);
+            Files.move(d.partFile, target, StandardCopyOption.REPLACE_EXISTING);
+            d.onComplete.accept(target);
+        } catch (IOException e) {
+            client.onTransferError("Error al guardar " + d.fileName + ": " + e.getMessage());
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buf = new byte[WireProtocol.CHUNK_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private void fail(Download d, String reason) {
+        downloads.remove(d.id);
+        try {
+            d.channel.close();
+        } catch (IOException ignore) {
+        }
+        client.onTransferError("Descarga de " + d.fileName + " interrumpida: " + reason);
+    }
+
+    /** Cierra los archivos abiertos; los .part quedan para reanudar. */
+    void close() {
+        uploads.values().forEach(u -> u.generation++);
+        uploads.clear();
+        for (Download d : downloads.values()) {
+            try {
+                d.channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+        downloads.clear();
+    }
+}
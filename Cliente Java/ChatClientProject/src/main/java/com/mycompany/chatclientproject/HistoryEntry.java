@@ -0,0 +1,82 @@
+package com.mycompany.chatclientproject;
+
+import com.mycompany.databaseproject.HistoryRow;
+import java.sql.Timestamp;
+
+/**
+ * Fila de una página de historial (HISTORY_ROW). Si el mensaje llevaba un
+ * archivo, {@code fileHash} apunta a él en el servidor; si no, es null.
+ */
+public class HistoryEntry {
+    private final long id;
+    private final String timestamp;
+    private final String sender;
+    private final String message;
+    private final String fileHash;
+    private final long fileSize;
+
+    public HistoryEntry(long id, String timestamp, String sender, String message, String fileHash, long fileSize) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.sender = sender;
+        this.message = message;
+        this.fileHash = fileHash;
+        this.fileSize = fileSize;
+    }
+
+    /** Campos de HISTORY_ROW tras el prefijo: destino|id|fecha|remitente|hash|tamaño|mensaje. */
+    static HistoryEntry parse(String[] fields) {
+        String hash = "-".equals(fields[4]) ? null : fields[4];
+        return new HistoryEntry(Long.parseLong(fields[1]), fields[2], fields[3], fields[6], hash, Long.parseLong(fields[5]));
+    }
+
+    /** Fila leída de la base de datos local. */
+    static HistoryEntry fromRow(HistoryRow row) {
+        return new HistoryEntry(row.getServerId(), String.valueOf(row.getTimestamp()), row.getSender(),
+                row.getMessage(), row.getFileHash(), row.getFileSize());
+    }
+
+    /** La fila tal como se guarda en local para {@code conversation}. */
+    HistoryRow toRow(String conversation) {
+        Timestamp ts;
+        try {
+            ts = Timestamp.valueOf(timestamp);
+        } catch (IllegalArgumentException e) {
+            ts = null;
+        }
+        return new HistoryRow(conversation, id, ts, sender, message, fileHash, fileSize);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /** Nombre con el que se guardó el archivo ("Archivo enviado: nombre") o uno derivado del hash. */
+    public String getFileName() {
+        String prefix = "Archivo enviado: ";
+        if (message != null && message.startsWith(prefix)) {
+            return message.substring(prefix.length());
+        }
+        return "file_" + fileHash.substring(0, 12) + ".dat";
+    }
+}
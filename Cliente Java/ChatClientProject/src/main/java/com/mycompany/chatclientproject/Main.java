@@ -11,6 +11,7 @@
 package com.mycompany.chatclientproject;
 
 import com.mycompany.configloaderproject.ConfigLoader;
+import com.mycompany.databaseproject.AsyncDatabase;
 import com.mycompany.databaseproject.Database;
 import com.mycompany.databaseproject.DatabaseService;
 
@@ -43,8 +44,12 @@ public class Main {
                 dbPassword = "";
             }
 
-            DatabaseService db = new Database(dbUrl, dbUser, dbPassword);
+            // Los mensajes se guardan en segundo plano y por lotes; el hilo receptor solo encola
+            String batchSize = config.getProperty("db_batch_size");
+            DatabaseService db = new AsyncDatabase(new Database(dbUrl, dbUser, dbPassword),
+                    batchSize != null && !batchSize.trim().isEmpty() ? Integer.parseInt(batchSize.trim()) : 100);
             ChatClient client = ClientFactory.createClient(host, port, db);
+            client.setBinaryProtocol("binary".equalsIgnoreCase(config.getProperty("protocol")));
 
             if (client.isRunning()) {
                 client.start();
@@ -0,0 +1,370 @@
+package com.mycompany.chatclientproject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.CRC32;
+
+/**
+ * Formato de tramas entre cliente y servidor.
+ *
+ * Texto (protocolo original): {@code Base64(AES(comando)) '\n'}.
+ * Binario (negociado con {@code PROTOCOL:BINARY}):
+ * {@code [opcode:1][longitud:4][AES(payload)]}, sin Base64.
+ *
+ * Los opcodes binarios nunca son caracteres Base64, así que quien lee puede
+ * distinguir cada trama por su primer byte y aceptar ambos formatos a la vez.
+ */
+public final class WireProtocol {
+    /** Payload: comando de texto en UTF-8 (mismos comandos que el protocolo de líneas). */
+    public static final byte OP_TEXT = 0x01;
+    /** Payload: destino, remitente y nombre (writeUTF) seguidos de los bytes del archivo. */
+    public static final byte OP_FILE = 0x02;
+    /** Payload: fragmento de una transferencia por partes (ver {@link Chunk}). */
+    public static final byte OP_CHUNK = 0x03;
+    /**
+     * Payload: [longitud:2][AES(cabecera)] seguido de un tramo del archivo tal
+     * como está cifrado en el almacén del servidor (ver {@link Range}). El
+     * tramo no se vuelve a cifrar, así que el servidor lo envía sin copiarlo.
+     */
+    public static final byte OP_RANGE = 0x04;
+
+    /** Tamaño de fragmento en las transferencias por partes. */
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final byte CHUNK_UPLOAD = 0;
+
+    public static final String NEGOTIATE = "PROTOCOL:BINARY";
+    public static final String NEGOTIATE_OK = "PROTOCOL_OK:BINARY";
+
+    /** Tamaño máximo de una trama (línea de texto o payload binario cifrado). */
+    public static final int MAX_FRAME = 4 * 1024 * 1024;
+    /**
+     * Límite de trama antes de iniciar sesión: basta para un REGISTER con la
+     * foto de perfil más grande que admite la columna (BLOB, 64 KB).
+     */
+    public static final int MAX_FRAME_BEFORE_LOGIN = 128 * 1024;
+    /** Límite de trama binaria antes de negociar el protocolo binario: ningún cliente la envía. */
+    public static final int MAX_FRAME_BEFORE_NEGOTIATE = 4 * 1024;
+    /**
+     * Archivo más grande que se envía entero (FILE| u OP_FILE); con el cifrado
+     * y el Base64 del protocolo de texto aún cabe en {@link #MAX_FRAME}. Los
+     * mayores van por partes (OP_CHUNK y DOWNLOAD).
+     */
+    public static final int MAX_INLINE_FILE = 2 * 1024 * 1024;
+    /** Tamaño inicial del payload de una trama binaria; crece según llegan los datos. */
+    private static final int INITIAL_PAYLOAD = 8 * 1024;
+
+    private WireProtocol() {}
+
+    /** Trama de texto a partir del texto cifrado en bruto. */
+    public static byte[] textFrame(byte[] encrypted) {
+        byte[] frame = new byte[4 * ((encrypted.length + 2) / 3) + 1];
+        int n = Base64.getEncoder().encode(encrypted, frame);
+        frame[n] = '\n';
+        return frame;
+    }
+
+    /** Trama binaria: opcode, longitud y texto cifrado. */
+    public static byte[] binaryFrame(byte opcode, byte[] encrypted) {
+        byte[] frame = new byte[5 + encrypted.length];
+        frame[0] = opcode;
+        frame[1] = (byte) (encrypted.length >>> 24);
+        frame[2] = (byte) (encrypted.length >>> 16);
+        frame[3] = (byte) (encrypted.length >>> 8);
+        frame[4] = (byte) encrypted.length;
+        System.arraycopy(encrypted, 0, frame, 5, encrypted.length);
+        return frame;
+    }
+
+    /** Payload (sin cifrar) de una trama OP_FILE. */
+    public static byte[] filePayload(String destination, String sender, String fileName, byte[] file) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(file.length + 64);
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeUTF(destination);
+            dos.writeUTF(sender);
+            dos.writeUTF(fileName);
+            dos.write(file);
+            dos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Archivo recibido en una trama OP_FILE. */
+    public static final class FilePayload {
+        public final String destination;
+        public final String sender;
+        public final String fileName;
+        public final byte[] data;
+
+        private FilePayload(String destination, String sender, String fileName, byte[] data) {
+            this.destination = destination;
+            this.sender = sender;
+            this.fileName = fileName;
+            this.data = data;
+        }
+
+        public static FilePayload parse(byte[] payload) throws IOException {
+            ByteArrayInputStream bin = new ByteArrayInputStream(payload);
+            DataInputStream in = new DataInputStream(bin);
+            String destination = in.readUTF();
+            String sender = in.readUTF();
+            String fileName = in.readUTF();
+            byte[] data = Arrays.copyOfRange(payload, payload.length - bin.available(), payload.length);
+            return new FilePayload(destination, sender, fileName, data);
+        }
+    }
+
+    /** Payload (sin cifrar) de una trama OP_CHUNK; el CRC32 se calcula aquí. */
+    public static byte[] chunkPayload(byte kind, String transferId, long offset, byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(length + 64);
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeByte(kind);
+            dos.writeUTF(transferId);
+            dos.writeLong(offset);
+            dos.writeInt((int) crc.getValue());
+            dos.write(data, 0, length);
+            dos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Fragmento de una subida o descarga por partes. */
+    public static final class Chunk {
+        public final byte kind;
+        public final String transferId;
+        public final long offset;
+        public final int checksum;
+        public final byte[] data;
+
+        private Chunk(byte kind, String transferId, long offset, int checksum, byte[] data) {
+            this.kind = kind;
+            this.transferId = transferId;
+            this.offset = offset;
+            this.checksum = checksum;
+            this.data = data;
+        }
+
+        public static Chunk parse(byte[] payload) throws IOException {
+            ByteArrayInputStream bin = new ByteArrayInputStream(payload);
+            DataInputStream in = new DataInputStream(bin);
+            byte kind = in.readByte();
+            String transferId = in.readUTF();
+            long offset = in.readLong();
+            int checksum = in.readInt();
+            byte[] data = Arrays.copyOfRange(payload, payload.length - bin.available(), payload.length);
+            return new Chunk(kind, transferId, offset, checksum, data);
+        }
+
+        /** true si los datos coinciden con el CRC32 enviado. */
+        public boolean isValid() {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            return (int) crc.getValue() == checksum;
+        }
+    }
+
+    /** Cabecera (sin cifrar) de una trama OP_RANGE. */
+    public static byte[] rangeHeader(String transferId, long offset, long total) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeUTF(transferId);
+            dos.writeLong(offset);
+            dos.writeLong(total);
+            dos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Inicio de una trama OP_RANGE (opcode, longitud y cabecera cifrada); a
+     * continuación van {@code dataLength} bytes del archivo cifrado.
+     */
+    public static byte[] rangeFramePrefix(byte[] encryptedHeader, long dataLength) {
+        long length = 2 + encryptedHeader.length + dataLength;
+        if (length > MAX_FRAME) {
+            throw new IllegalArgumentException("Tramo demasiado grande: " + dataLength);
+        }
+        byte[] frame = new byte[7 + encryptedHeader.length];
+        frame[0] = OP_RANGE;
+        frame[1] = (byte) (length >>> 24);
+        frame[2] = (byte) (length >>> 16);
+        frame[3] = (byte) (length >>> 8);
+        frame[4] = (byte) length;
+        frame[5] = (byte) (encryptedHeader.length >>> 8);
+        frame[6] = (byte) encryptedHeader.length;
+        System.arraycopy(encryptedHeader, 0, frame, 7, encryptedHeader.length);
+        return frame;
+    }
+
+    /**
+     * Tramo de un archivo cifrado con AES/ECB de una sola pasada. Como ECB
+     * cifra cada bloque de 16 bytes por separado, cualquier tramo alineado se
+     * descifra solo; el último bloque del archivo lleva el relleno PKCS5.
+     */
+    public static final class Range {
+        public final String transferId;
+        /** Posición del tramo en el archivo cifrado (y en el original): múltiplo de 16. */
+        public final long offset;
+        /** Tamaño total del archivo cifrado. */
+        public final long total;
+        public final byte[] payload;
+        public final int dataOffset;
+        public final int dataLength;
+
+        private Range(String transferId, long offset, long total, byte[] payload, int dataOffset) {
+            this.transferId = transferId;
+            this.offset = offset;
+            this.total = total;
+            this.payload = payload;
+            this.dataOffset = dataOffset;
+            this.dataLength = payload.length - dataOffset;
+        }
+
+        /** Descifra solo la cabecera; los datos quedan en {@code payload} a partir de {@code dataOffset}. */
+        public static Range parse(byte[] payload, CryptoService crypto) throws IOException {
+            if (payload.length < 2) throw new IOException("Trama OP_RANGE incompleta");
+            int headerLength = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+            if (2 + headerLength > payload.length) throw new IOException("Cabecera OP_RANGE inválida");
+            byte[] header = crypto.decrypt(Arrays.copyOfRange(payload, 2, 2 + headerLength));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            return new Range(in.readUTF(), in.readLong(), in.readLong(), payload, 2 + headerLength);
+        }
+
+        /** true si el tramo incluye el último bloque (con relleno) del archivo. */
+        public boolean isLast() {
+            return offset + dataLength == total;
+        }
+    }
+
+    /** Receptor de tramas decodificadas. */
+    public interface FrameListener {
+        /** Línea del protocolo de texto (Base64, sin el '\n'). */
+        void onTextLine(byte[] base64Line);
+
+        /** Trama binaria con su payload aún cifrado. */
+        void onBinaryFrame(byte opcode, byte[] encryptedPayload);
+
+        /** Longitud máxima de la siguiente línea de texto; se consulta según llega. */
+        default int maxTextLine() {
+            return MAX_FRAME;
+        }
+
+        /** Longitud máxima del payload de la siguiente trama binaria. */
+        default int maxBinaryPayload() {
+            return MAX_FRAME;
+        }
+    }
+
+    /**
+     * Decodificador incremental que acepta tramas de texto y binarias
+     * mezcladas. Se alimenta con lo que llegue del socket, en trozos de
+     * cualquier tamaño. Las tramas que superan el límite del listener cortan
+     * la conexión con IOException; el payload se reserva según llegan los
+     * datos, no por la longitud anunciada.
+     */
+    public static final class FrameDecoder {
+        private enum State { START, TEXT, LENGTH, PAYLOAD }
+
+        private final FrameListener listener;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private State state = State.START;
+        private byte opcode;
+        private int lengthBytes;
+        private int length;
+        private byte[] payload;
+        private int payloadPos;
+
+        public FrameDecoder(FrameListener listener) {
+            this.listener = listener;
+        }
+
+        public void feed(byte[] buf, int off, int len) throws IOException {
+            int end = off + len;
+            int i = off;
+            while (i < end) {
+                switch (state) {
+                    case START: {
+                        byte b = buf[i++];
+                        if (b == OP_TEXT || b == OP_FILE || b == OP_CHUNK || b == OP_RANGE) {
+                            opcode = b;
+                            length = 0;
+                            lengthBytes = 0;
+                            state = State.LENGTH;
+                        } else if (b != '\n' && b != '\r') {
+                            line.write(b);
+                            state = State.TEXT;
+                        }
+                        break;
+                    }
+                    case TEXT: {
+                        int start = i;
+                        while (i < end && buf[i] != '\n') i++;
+                        if (line.size() + (i - start) > listener.maxTextLine()) {
+                            throw new IOException("Línea de texto demasiado larga");
+                        }
+                        line.write(buf, start, i - start);
+                        if (i < end) {
+                            i++; // '\n'
+                            byte[] text = line.toByteArray();
+                            line.reset();
+                            if (text.length > 0 && text[text.length - 1] == '\r') {
+                                text = Arrays.copyOf(text, text.length - 1);
+                            }
+                            state = State.START;
+                            listener.onTextLine(text);
+                        }
+                        break;
+                    }
+                    case LENGTH: {
+                        length = (length << 8) | (buf[i++] & 0xFF);
+                        if (++lengthBytes == 4) {
+                            if (length < 0 || length > listener.maxBinaryPayload()) {
+                                throw new IOException("Trama binaria demasiado grande: " + length);
+                            }
+                            payload = new byte[Math.min(length, INITIAL_PAYLOAD)];
+                            payloadPos = 0;
+                            state = State.PAYLOAD;
+                            if (length == 0) deliver();
+                        }
+                        break;
+                    }
+                    case PAYLOAD: {
+                        int n = Math.min(end - i, length - payloadPos);
+                        if (payloadPos + n > payload.length) {
+                            payload = Arrays.copyOf(payload, Math.min(length, Math.max(payload.length * 2, payloadPos + n)));
+                        }
+                        System.arraycopy(buf, i, payload, payloadPos, n);
+                        payloadPos += n;
+                        i += n;
+                        if (payloadPos == length) deliver();
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException();
+                }
+            }
+        }
+
+        private void deliver() {
+            byte[] p = payload;
+            payload = null;
+            state = State.START;
+            listener.onBinaryFrame(opcode, p);
+        }
+    }
+}
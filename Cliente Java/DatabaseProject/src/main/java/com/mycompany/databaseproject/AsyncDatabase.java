@@ -0,0 +1,216 @@
+package com.mycompany.databaseproject;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DatabaseService} asíncrono: {@link #saveMessage} y {@link #saveHistory}
+ * solo encolan y un hilo propio los guarda en {@link Database} por lotes JDBC.
+ * Así el hilo que lee del socket nunca espera a la base de datos local. La
+ * cola se limita por bytes (los adjuntos van enteros en {@link LocalMessage}):
+ * si pasa de {@link #MAX_QUEUED_BYTES}, quien guarda espera a que el escritor
+ * libere sitio. Las lecturas van directas a {@link Database}.
+ */
+public class AsyncDatabase implements DatabaseService {
+    private static final long MAX_QUEUED_BYTES = 64L * 1024 * 1024;
+    /** Peso estimado de un mensaje o fila de historial, sin contar su adjunto. */
+    private static final int ITEM_BYTES = 256;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Database database;
+    private final int batchSize;
+    /** {@link LocalMessage} sueltos o páginas de historial ({@code List<HistoryRow>}). */
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    /** Monitor de {@link #queuedBytes}; el escritor avisa por él al liberar sitio. */
+    private final Object space = new Object();
+    private long queuedBytes;
+    private final Thread writer;
+    private volatile boolean closing;
+    // Protegidos por this: quién cierra la base de datos al final
+    private boolean writerDone;
+    private boolean closeAbandoned;
+
+    public AsyncDatabase(Database database, int batchSize) {
+        this.database = database;
+        this.batchSize = Math.max(1, batchSize);
+        this.writer = new Thread(this::writeLoop, "ClientDB-Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void saveMessage(String sender, String message, byte[] file) {
+        LocalMessage pending = new LocalMessage(sender, message, file, new Timestamp(System.currentTimeMillis()));
+        if (closing) {
+            database.saveMessage(sender, message, file);
+            return;
+        }
+        enqueue(pending);
+    }
+
+    @Override
+    public void saveHistory(List<HistoryRow> rows) {
+        if (rows.isEmpty()) return;
+        if (closing) {
+            database.saveHistory(rows);
+            return;
+        }
+        enqueue(new ArrayList<>(rows));
+    }
+
+    @Override
+    public List<HistoryRow> loadHistory(String conversation, long beforeId, int limit) {
+        return database.loadHistory(conversation, beforeId, limit);
+    }
+
+    @Override
+    public long latestHistoryId(String conversation) {
+        return database.latestHistoryId(conversation);
+    }
+
+    private void enqueue(Object pending) {
+        long bytes = weight(pending);
+        synchronized (space) {
+            // Un adjunto mayor que el límite entra en cuanto la cola se vacía
+            while (queuedBytes > 0 && queuedBytes + bytes > MAX_QUEUED_BYTES) {
+                try {
+                    space.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            queuedBytes += bytes;
+        }
+        queue.add(pending);
+    }
+
+    private static long weight(Object item) {
+        if (item instanceof LocalMessage) {
+            byte[] file = ((LocalMessage) item).getFile();
+            return ITEM_BYTES + (file != null ? file.length : 0);
+        }
+        return (long) ITEM_BYTES * ((List<?>) item).size();
+    }
+
+    private void release(List<Object> batch) {
+        if (batch.isEmpty()) return;
+        long bytes = 0;
+        for (Object item : batch) bytes += weight(item);
+        synchronized (space) {
+            queuedBytes -= bytes;
+            space.notifyAll();
+        }
+    }
+
+    /** Mensajes y páginas de historial aún sin guardar. */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Solo termina al cerrar y con la cola vacía: si saliera antes, quien
+     * guarda se quedaría esperando sitio para siempre. Si {@link #close()}
+     * ya dejó de esperarlo, cierra él la base de datos al acabar.
+     */
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        try {
+            while (!closing || !queue.isEmpty()) {
+                try {
+                    Object first = queue.poll(200, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    writeBatch(batch);
+                } catch (InterruptedException e) {
+                    // Nadie más vacía la cola: se sigue hasta el cierre
+                } catch (RuntimeException e) {
+                    System.err.println("Error en el escritor de la base de datos local: " + e.getMessage());
+                } finally {
+                    release(batch);
+                    batch.clear();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                writerDone = true;
+                if (closeAbandoned) database.close();
+            }
+        }
+    }
+
+    private void writeBatch(List<Object> batch) throws InterruptedException {
+        List<LocalMessage> messages = new ArrayList<>(batch.size());
+        List<HistoryRow> history = new ArrayList<>();
+        for (Object item : batch) {
+            if (item instanceof LocalMessage) {
+                messages.add((LocalMessage) item);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<HistoryRow> rows = (List<HistoryRow>) item;
+                history.addAll(rows);
+            }
+        }
+        if (!messages.isEmpty()) write(() -> database.saveMessages(messages), messages.size());
+        if (!history.isEmpty()) write(() -> database.insertHistory(history), history.size());
+    }
+
+    private interface Write {
+        void run() throws SQLException;
+    }
+
+    private void write(Write write, int count) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write.run();
+                return;
+            } catch (SQLException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    System.err.println("Se descartan " + count + " mensajes que no se pudieron guardar: " + e.getMessage());
+                    return;
+                }
+                Thread.sleep(200L * attempt);
+            }
+        }
+    }
+
+    /**
+     * Guarda lo pendiente (espera hasta 5 s) y cierra la base de datos. Si el
+     * escritor sigue con un lote no se le cierra el pool a medias: lo cierra
+     * él al terminar.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!writerDone) {
+                closeAbandoned = true;
+                System.err.println("La base de datos local se cerrará al terminar de guardar " + queue.size() + " pendientes");
+                return;
+            }
+        }
+        // Lo que se encoló mientras el escritor salía se guarda aquí
+        List<Object> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            try {
+                writeBatch(rest);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                release(rest);
+            }
+        }
+        database.close();
+    }
+}
@@ -10,18 +10,33 @@
 package com.mycompany.databaseproject;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.dbcp2.BasicDataSource;
 
 public class Database implements DatabaseService {
-    private Connection conn;
+    private final BasicDataSource dataSource;
 
     public Database(String dbUrl, String dbUser, String dbPassword) {
-        try {
-            detectAndRegisterDriver(dbUrl);
-            conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-            createTableIfNotExists();
-        } catch (SQLException e) {
-            throw new RuntimeException("Error al conectar con la base de datos del cliente", e);
-        }
+        detectAndRegisterDriver(dbUrl);
+        // Pool pequeño: el escritor de AsyncDatabase y las lecturas no se bloquean entre sí
+        dataSource = new BasicDataSource();
+        dataSource.setUrl(dbUrl);
+        dataSource.setUsername(dbUser);
+        dataSource.setPassword(dbPassword);
+        dataSource.setMinIdle(1);
+        dataSource.setMaxIdle(2);
+        dataSource.setMaxTotal(4);
+        dataSource.setPoolPreparedStatements(true);
+        dataSource.setMaxOpenPreparedStatements(20);
+        createTableIfNotExists();
+    }
+
+    public Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
     }
 
     private void detectAndRegisterDriver(String dbUrl) {
@@ -48,8 +63,13 @@ public class Database implements DatabaseService {
 
     private void createTableIfNotExists() {
         String sql = "CREATE TABLE IF NOT EXISTS messages (id INT AUTO_INCREMENT PRIMARY KEY, sender VARCHAR(50), message TEXT, file BLOB, timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP)";
-        try (Statement stmt = conn.createStatement()) {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
+            // Copia local del historial del servidor; la clave primaria es también el índice de lectura
+            stmt.execute("CREATE TABLE IF NOT EXISTS history (conversation VARCHAR(255) NOT NULL, server_id BIGINT NOT NULL, "
+                + "sender VARCHAR(50), message TEXT, file_hash VARCHAR(64), file_size BIGINT, timestamp TIMESTAMP NULL, "
+                + "PRIMARY KEY (conversation, server_id))");
             System.out.println("Tabla 'messages' verificada/creada en la base de datos del cliente.");
         } catch (SQLException e) {
             throw new RuntimeException("Error al crear la tabla 'messages' en el cliente", e);
@@ -59,7 +79,8 @@ public class Database implements DatabaseService {
     @Override
     public void saveMessage(String sender, String message, byte[] file) {
         String sql = "INSERT INTO messages (sender, message, file) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, sender);
             stmt.setString(2, message);
             stmt.setBytes(3, file);
@@ -69,12 +90,139 @@ public class Database implements DatabaseService {
         }
     }
 
+    /** Inserta los mensajes en un solo lote JDBC y una sola transacción. */
+    public void saveMessages(List<LocalMessage> messages) throws SQLException {
+        String sql = "INSERT INTO messages (sender, message, file, timestamp) VALUES (?, ?, ?, ?)";
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (LocalMessage m : messages) {
+                    stmt.setString(1, m.getSender());
+                    stmt.setString(2, m.getMessage());
+                    stmt.setBytes(3, m.getFile());
+                    stmt.setTimestamp(4, m.getTimestamp());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
     @Override
-    public void close() {
+    public void saveHistory(List<HistoryRow> rows) {
         try {
-            if (conn != null && !conn.isClosed()) {
-                conn.close();
+            insertHistory(rows);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Inserta en una sola transacción las filas que aún no estén guardadas.
+     * Solo escribe un hilo (el de {@link AsyncDatabase}), así que basta con
+     * mirar antes qué ids ya existen.
+     */
+    public void insertHistory(List<HistoryRow> rows) throws SQLException {
+        if (rows.isEmpty()) return;
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement existing = conn.prepareStatement(
+                    "SELECT server_id FROM history WHERE conversation = ? AND server_id BETWEEN ? AND ?");
+                 PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO history (conversation, server_id, sender, message, file_hash, file_size, timestamp) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                Set<String> skip = new HashSet<>();
+                for (String conversation : conversations(rows)) {
+                    long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+                    for (HistoryRow row : rows) {
+                        if (!row.getConversation().equals(conversation)) continue;
+                        min = Math.min(min, row.getServerId());
+                        max = Math.max(max, row.getServerId());
+                    }
+                    existing.setString(1, conversation);
+                    existing.setLong(2, min);
+                    existing.setLong(3, max);
+                    try (ResultSet rs = existing.executeQuery()) {
+                        while (rs.next()) skip.add(conversation + "|" + rs.getLong(1));
+                    }
+                }
+                int pending = 0;
+                for (HistoryRow row : rows) {
+                    if (!skip.add(row.getConversation() + "|" + row.getServerId())) continue;
+                    insert.setString(1, row.getConversation());
+                    insert.setLong(2, row.getServerId());
+                    insert.setString(3, row.getSender());
+                    insert.setString(4, row.getMessage());
+                    insert.setString(5, row.getFileHash());
+                    insert.setLong(6, row.getFileSize());
+                    insert.setTimestamp(7, row.getTimestamp());
+                    insert.addBatch();
+                    pending++;
+                }
+                if (pending > 0) insert.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
+        }
+    }
+
+    private static Set<String> conversations(List<HistoryRow> rows) {
+        Set<String> conversations = new HashSet<>();
+        for (HistoryRow row : rows) conversations.add(row.getConversation());
+        return conversations;
+    }
+
+    @Override
+    public List<HistoryRow> loadHistory(String conversation, long beforeId, int limit) {
+        List<HistoryRow> rows = new ArrayList<>();
+        String sql = "SELECT server_id, timestamp, sender, message, file_hash, file_size FROM history "
+            + "WHERE conversation = ? AND server_id < ? ORDER BY server_id DESC LIMIT ?";
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, conversation);
+            stmt.setLong(2, beforeId > 0 ? beforeId : Long.MAX_VALUE);
+            stmt.setInt(3, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new HistoryRow(conversation, rs.getLong(1), rs.getTimestamp(2), rs.getString(3),
+                        rs.getString(4), rs.getString(5), rs.getLong(6)));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        Collections.reverse(rows);
+        return rows;
+    }
+
+    @Override
+    public long latestHistoryId(String conversation) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT MAX(server_id) FROM history WHERE conversation = ?")) {
+            stmt.setString(1, conversation);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            dataSource.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -9,7 +9,19 @@
  */
 package com.mycompany.databaseproject;
 
+import java.util.List;
+
 public interface DatabaseService {
     void saveMessage(String sender, String message, byte[] file);
+
+    /** Guarda filas del historial del servidor; las que ya estaban se ignoran. */
+    void saveHistory(List<HistoryRow> rows);
+
+    /** Hasta {@code limit} filas anteriores a {@code beforeId} (0 = las últimas), en orden cronológico. */
+    List<HistoryRow> loadHistory(String conversation, long beforeId, int limit);
+
+    /** Id de servidor del último mensaje guardado de la conversación, o 0 si no hay ninguno. */
+    long latestHistoryId(String conversation);
+
     void close();
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package com.mycompany.databaseproject;
+
+import java.sql.Timestamp;
+
+/**
+ * Mensaje del historial del servidor guardado en local. {@code serverId} es
+ * su id en el servidor: ordena la conversación y es el cursor con el que se
+ * piden solo los mensajes nuevos.
+ */
+public class HistoryRow {
+    private final String conversation;
+    private final long serverId;
+    private final Timestamp timestamp;
+    private final String sender;
+    private final String message;
+    private final String fileHash;
+    private final long fileSize;
+
+    public HistoryRow(String conversation, long serverId, Timestamp timestamp, String sender, String message,
+                      String fileHash, long fileSize) {
+        this.conversation = conversation;
+        this.serverId = serverId;
+        this.timestamp = timestamp;
+        this.sender = sender;
+        this.message = message;
+        this.fileHash = fileHash;
+        this.fileSize = fileSize;
+    }
+
+    public String getConversation() {
+        return conversation;
+    }
+
+    public long getServerId() {
+        return serverId;
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /** Hash del archivo en el servidor o null si el mensaje no lleva archivo. */
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+}
@@ -0,0 +1,34 @@
+package com.mycompany.databaseproject;
+
+import java.sql.Timestamp;
+
+/** Mensaje pendiente de guardar en la base de datos local, con la hora en que llegó. */
+public class LocalMessage {
+    private final String sender;
+    private final String message;
+    private final byte[] file;
+    private final Timestamp timestamp;
+
+    public LocalMessage(String sender, String message, byte[] file, Timestamp timestamp) {
+        this.sender = sender;
+        this.message = message;
+        this.file = file;
+        this.timestamp = timestamp;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public byte[] getFile() {
+        return file;
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+}
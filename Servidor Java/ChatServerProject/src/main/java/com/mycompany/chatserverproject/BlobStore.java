@@ -0,0 +1,147 @@
+package com.mycompany.chatserverproject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Almacén de archivos direccionado por contenido: cada archivo se guarda una
+ * sola vez en {@code server_files/blobs/<ab>/<hash>} sin importar cuántos
+ * mensajes o destinatarios lo referencien. Los mensajes guardan el hash en
+ * {@code messages.file}. Los blobs no se borran nunca: el servidor no tiene
+ * forma de eliminar mensajes, así que todos siguen referenciados.
+ */
+public class BlobStore {
+    private final Path root;
+
+    public BlobStore(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /** Guarda los bytes si no existían ya y devuelve su hash. */
+    public String put(byte[] data) throws IOException {
+        String hash = computeChecksum(data);
+        Path target = path(hash);
+        if (!Files.exists(target)) {
+            Path tmp = Files.createTempFile(tmpDir(), "blob", ".tmp");
+            try {
+                Files.write(tmp, data);
+                moveIntoPlace(tmp, target);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Incorpora un archivo ya escrito en disco (p. ej. una subida por partes):
+     * se mueve al almacén o, si el contenido ya estaba, simplemente se borra.
+     */
+    public String putFile(Path file) throws IOException {
+        String hash = computeChecksum(file);
+        Path target = path(hash);
+        if (Files.exists(target)) {
+            Files.delete(file);
+        } else {
+            moveIntoPlace(file, target);
+        }
+        return hash;
+    }
+
+    public Path path(String hash) throws IOException {
+        if (!isHash(hash)) {
+            throw new IOException("Hash de archivo inválido: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    public boolean contains(String hash) {
+        try {
+            return Files.exists(path(hash));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copia cifrada del blob, tal como viaja en las tramas OP_RANGE. Se crea
+     * la primera vez que alguien lo descarga y se reutiliza para todos los
+     * demás, de modo que servir el archivo no vuelve a cifrar ni a copiar.
+     */
+    public Path encrypted(String hash, CryptoService crypto) throws IOException {
+        Path target = path(hash).resolveSibling(hash + ".aes");
+        if (!Files.exists(target)) {
+            Path tmp = Files.createTempFile(tmpDir(), "blob", ".aes");
+            try {
+                crypto.encryptFile(path(hash), tmp);
+                moveIntoPlace(tmp, target);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return target;
+    }
+
+    public byte[] read(String hash) throws IOException {
+        return Files.readAllBytes(path(hash));
+    }
+
+    /** true si el valor de {@code messages.file} es un puntero a este almacén. */
+    public static boolean isHash(String value) {
+        return value != null && value.matches("[0-9a-f]{64}");
+    }
+
+    /** SHA-256 en hexadecimal. */
+    static String computeChecksum(byte[] data) {
+        MessageDigest md = sha256();
+        return toHex(md.digest(data));
+    }
+
+    static String computeChecksum(Path file) throws IOException {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[WireProtocol.CHUNK_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private Path tmpDir() throws IOException {
+        return Files.createDirectories(root.resolve("tmp"));
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Otro hilo guardó el mismo contenido a la vez
+            Files.deleteIfExists(source);
+        }
+    }
+}
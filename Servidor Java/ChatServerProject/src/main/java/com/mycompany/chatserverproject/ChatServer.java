@@ -1,21 +1,28 @@
 package com.mycompany.chatserverproject;
 
 import com.mycompany.databaseconnectorproject.DatabaseConnection;
+import com.mycompany.databaseconnectorproject.SchemaMigrations;
 import com.mycompany.chatserverproject.distributed.UserFileRegistry;
 import com.mycompany.chatserverproject.distributed.StateSyncService;
 import com.mycompany.chatserverproject.distributed.Diff;
 import com.mycompany.chatserverproject.distributed.UserInfo;
 import com.mycompany.chatserverproject.distributed.HeartbeatReceiver;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 
 import java.io.*;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.*;
 import java.util.Base64;
 
@@ -24,9 +31,20 @@ public class ChatServer {
     private final int maxConnections;
     private final DatabaseConnection db;
     private ServerUI ui;
-    private final Map<String, PrintWriter> clients = new ConcurrentHashMap<>();
-    private final Map<String, Set<PrintWriter>> channels = new ConcurrentHashMap<>();
+    // Sin monitor global: los mapas son concurrentes, el reparto en un canal se
+    // serializa sobre el Set de ese canal y cada conexión tiene su propia cola de salida.
+    private final Map<String, ClientConnection> clients = new ConcurrentHashMap<>();
+    private final Map<ClientConnection, String> usernames = new ConcurrentHashMap<>();
+    /** Hashes que cada conexión puede descargar por DOWNLOAD (ver canDownload). */
+    private final Map<ClientConnection, Set<String>> offeredFiles = new ConcurrentHashMap<>();
+    private final Map<String, Set<ClientConnection>> channels = new ConcurrentHashMap<>();
+    private final Object presenceLock = new Object();
     private final CryptoService cryptoService = new CryptoService();
+    private final BlobStore blobs;
+    private final FileTransferService fileTransfers;
+    private final MessageJournal messageJournal;
+    private final HistoryCache historyCache = new HistoryCache();
+    private final IdCache ids = new IdCache();
     private final Logger logger;
 
     // ► Inyectados desde Main
@@ -35,14 +53,36 @@ public class ChatServer {
     private StateSyncService syncService;
     private HeartbeatReceiver hbReceiver;
     private int chatPort;
+    private String transport = "blocking";
+    private int nioWorkers = 4;
+    private int nioCommandThreads = 16;
+    private boolean virtualThreads;
+    private int outboundQueueSize = 4096;
+    private ClientConnection.SlowConsumerPolicy slowConsumerPolicy = ClientConnection.SlowConsumerPolicy.COALESCE;
 
     public ChatServer(int port, int maxConnections, DatabaseConnection db, ServerUI ui) {
         this.port = port;
         this.maxConnections = maxConnections;
         this.db = db;
         this.ui = ui;
+        this.blobs = new BlobStore(Paths.get("server_files", "blobs"));
+        this.fileTransfers = new FileTransferService(Paths.get("server_files", ".uploads"), blobs);
         this.logger = Logger.getLogger(ChatServer.class.getName());
         setupLogger();
+        migrateInlineFiles();
+        try {
+            this.messageJournal = new MessageJournal(Paths.get("server_files", "journal"), db, ids, this::log);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir el diario de mensajes", e);
+        }
+        // Lo que se va guardando mantiene al día la caché de historial de los canales
+        messageJournal.setPersistListener((id, entry) -> {
+            if (entry.destination.startsWith("#")) {
+                historyCache.append(entry.destination, new HistoryCache.Row(id, new Timestamp(entry.timestamp),
+                    entry.sender, entry.message, entry.fileHash));
+            }
+        });
+        messageJournal.start();
     }
 
     private void setupLogger() {
@@ -76,6 +116,50 @@ public class ChatServer {
     public void setUI(ServerUI ui) {
         this.ui = ui;
     }
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+    public void setNioWorkers(int nioWorkers) {
+        this.nioWorkers = nioWorkers;
+    }
+    public void setNioCommandThreads(int nioCommandThreads) {
+        this.nioCommandThreads = nioCommandThreads;
+    }
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+    public void setOutboundQueueSize(int outboundQueueSize) {
+        this.outboundQueueSize = outboundQueueSize;
+    }
+    public void setSlowConsumerPolicy(ClientConnection.SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+    public void setJournalBatchSize(int batchSize) {
+        messageJournal.setBatchSize(batchSize);
+    }
+    public void setJournalFlushMillis(long flushMillis) {
+        messageJournal.setFlushMillis(flushMillis);
+    }
+    public void setHistoryCacheSize(int messagesPerChannel) {
+        historyCache.setCapacity(messagesPerChannel);
+    }
+    public void setHistoryCacheChannels(int maxChannels) {
+        historyCache.setMaxChannels(maxChannels);
+    }
+    public void setHistoryCacheMaxBytes(long maxBytes) {
+        historyCache.setMaxBytes(maxBytes);
+    }
+
+    /** Vuelca a la base de datos lo que quede en el diario (con un límite de espera). */
+    public void shutdown() {
+        messageJournal.close(5_000);
+        if (syncService != null) syncService.close();
+    }
+
+    /** Estado de los enlaces de sincronización con otros servidores. */
+    public String getPeerLinkStats() {
+        return syncService != null ? syncService.getLinkStats() : "Sin sincronización distribuida";
+    }
 
     private void log(String msg) {
         logger.info(msg);
@@ -83,12 +167,18 @@ public class ChatServer {
     }
 
     public void start() {
-        try (ServerSocket ss = new ServerSocket(port)) {
+        if ("nio".equalsIgnoreCase(transport)) {
+            startNio();
+            return;
+        }
+        // Aceptado vía ServerSocketChannel para que cada Socket tenga su canal (envío de archivos con transferTo)
+        try (ServerSocketChannel ss = ServerSocketChannel.open()) {
+            ss.bind(new InetSocketAddress(port));
             log("Servidor iniciado en puerto " + port);
             while (true) {
-                if (clients.size() < maxConnections) {
-                    Socket sock = ss.accept();
-                    new Thread(new ClientHandler(sock, this)).start();
+                if (acceptsMoreClients()) {
+                    Socket sock = ss.accept().socket();
+                    startThread(new ClientHandler(sock, this));
                     log("Nuevo cliente conectado: " + sock.getInetAddress());
                 }
             }
@@ -97,14 +187,66 @@ public class ChatServer {
         }
     }
 
+    private void startNio() {
+        ExecutorService commands = newCommandExecutor();
+        try {
+            log("Servidor iniciado en puerto " + port + " (NIO, " + nioWorkers + " event loops, "
+                + (virtualThreads ? "comandos en hilos virtuales" : nioCommandThreads + " hilos de comandos") + ")");
+            new NioChatTransport(port, nioWorkers, commands, this).start();
+        } catch (IOException e) {
+            log("Error servidor: " + e.getMessage());
+        } finally {
+            commands.shutdown();
+        }
+    }
+
+    /**
+     * Hilos donde el transporte NIO ejecuta los comandos (login, historial,
+     * canales...), que casi todos van a la base de datos: así un event loop
+     * nunca espera a JDBC. Un hilo virtual por comando si virtual_threads.
+     */
+    private ExecutorService newCommandExecutor() {
+        if (virtualThreads) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, nioCommandThreads), task -> {
+            Thread t = new Thread(task, "NioCommand-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Lanza la tarea en un hilo virtual o de plataforma según virtual_threads. */
+    void startThread(Runnable task) {
+        if (virtualThreads) {
+            Thread.ofVirtual().start(task);
+        } else {
+            new Thread(task).start();
+        }
+    }
+
+    ClientConnection newClientConnection() {
+        return new ClientConnection(outboundQueueSize, slowConsumerPolicy, cryptoService);
+    }
+
+    boolean acceptsMoreClients() {
+        return clients.size() < maxConnections;
+    }
+
+    void logConnection(String address) {
+        log("Nuevo cliente conectado: " + address);
+    }
+
     // ─── Alta / Baja de clientes ────────────────────
-    public synchronized void addClient(String username, PrintWriter out) {
-        clients.put(username, out);
+    public void addClient(String username, ClientConnection out) {
+        ClientConnection previous = clients.put(username, out);
+        if (previous != null && previous != out) usernames.remove(previous);
+        usernames.put(out, username);
 
         if (registry != null && syncService != null && serverId != null) {
             Diff diff = new Diff(Diff.Type.USER_ADDED, new UserInfo(username, serverId));
-            registry.applyDiff(diff);
-            syncService.broadcastDiff(diff);
+            publishDiff(diff);
         }
 
         sendOnlineUsersToAll();
@@ -112,18 +254,27 @@ public class ChatServer {
         log("Cliente " + username + " conectado.");
     }
 
-    public synchronized void removeClient(PrintWriter out) {
-        String user = null;
-        for (var e : clients.entrySet()) {
-            if (e.getValue().equals(out)) { user = e.getKey(); break; }
+    /**
+     * Aplica el diff al registro local y, si cambió algo, lo propaga. Bajo el
+     * lock del registro para que los peers reciban los cambios en el mismo
+     * orden en que se aplicaron (altas y bajas alternas por usuario).
+     */
+    private void publishDiff(Diff diff) {
+        synchronized (registry) {
+            if (registry.applyDiff(diff)) syncService.broadcastDiff(diff);
         }
+    }
+
+    public void removeClient(ClientConnection out) {
+        String user = out != null ? usernames.remove(out) : null;
         if (user != null) {
-            clients.remove(user);
+            clients.remove(user, out);
             channels.values().forEach(set -> set.remove(out));
+            offeredFiles.remove(out);
+            fileTransfers.release(user);
             if (registry != null && syncService != null && serverId != null) {
                 Diff diff = new Diff(Diff.Type.USER_REMOVED, new UserInfo(user, serverId));
-                registry.applyDiff(diff);
-                syncService.broadcastDiff(diff);
+                publishDiff(diff);
             }
             sendOnlineUsersToAll();
             log("Cliente " + user + " desconectado.");
@@ -131,19 +282,18 @@ public class ChatServer {
     }
 
     // ─── Envío mensajes ─────────────────────────────
-    public synchronized void sendToUser(String username, String message, byte[] file) {
+    public void sendToUser(String username, String message, byte[] file) {
         // 1) Intento local
-        PrintWriter out = clients.get(username);
+        ClientConnection out = clients.get(username);
         if (out != null) {
             String[] parts = message.split(":", 2);
             String sender = parts[0], body = parts.length>1?parts[1]:parts[0];
             String fmt = "MSG:" + username + ":" + sender + ":" + body;
-            out.println(cryptoService.encrypt(fmt));
+            out.send(fmt);
             if (file != null) {
                 String fn = "file_"+System.currentTimeMillis()+".dat";
                 saveFileOnServer(file, fn, username);
-                String fmsg = "FILE|" + username+"|"+sender+"|"+fn+"|"+Base64.getEncoder().encodeToString(file);
-                out.println(cryptoService.encrypt(fmsg));
+                out.send(WireMessage.file(cryptoService, username, sender, fn, file));
             }
             log("Sent to "+username+" from "+sender+": "+body);
             return;
@@ -151,75 +301,103 @@ public class ChatServer {
 
         // 2) Reenvío remoto
         if (registry!=null && hbReceiver!=null) {
-            UserInfo ui = registry.getAllUsers().stream()
-                               .filter(u->u.getUsername().equals(username))
-                               .findFirst().orElse(null);
+            UserInfo ui = registry.findUser(username);
             if (ui!=null) {
                 String peerIp = hbReceiver.getLiveServers().get(ui.getServerId());
                 if (peerIp!=null) {
-                    try (Socket sock = new Socket(peerIp, chatPort);
-                         PrintWriter pw = new PrintWriter(sock.getOutputStream(),true)) {
-                        String[] parts = message.split(":",2);
-                        String sender = parts[0], body = parts.length>1?parts[1]:parts[0];
-                        String fwd = "FORWARD:"+username+":"+sender+":"+body;
-                        pw.println(cryptoService.encrypt(fwd));
-                        log("Forward "+username+"->"+ui.getServerId());
-                    } catch(IOException ex) {
-                        log("Error forward a "+username+"@"+ui.getServerId()+": "+ex);
+                    String[] parts = message.split(":",2);
+                    String sender = parts[0], body = parts.length>1?parts[1]:parts[0];
+                    String fwd = "FORWARD:"+username+":"+sender+":"+body;
+                    String peerId = ui.getServerId();
+                    if (virtualThreads) {
+                        // El reenvío abre un socket: no debe bloquear a quien envía
+                        startThread(() -> forwardToPeer(peerIp, peerId, username, fwd));
+                    } else {
+                        forwardToPeer(peerIp, peerId, username, fwd);
                     }
                 }
             }
         }
     }
 
-    public synchronized void sendToChannel(String channel, String message, String sender, byte[] file) {
-        Set<PrintWriter> channelClients = channels.getOrDefault(channel, new HashSet<>());
+    private void forwardToPeer(String peerIp, String peerId, String username, String fwd) {
+        try (Socket sock = new Socket(peerIp, chatPort);
+             PrintWriter pw = new PrintWriter(sock.getOutputStream(),true)) {
+            pw.println(cryptoService.encrypt(fwd));
+            log("Forward "+username+"->"+peerId);
+        } catch(IOException ex) {
+            log("Error forward a "+username+"@"+peerId+": "+ex);
+        }
+    }
+
+    public void sendToChannel(String channel, String message, String sender, byte[] file) {
+        Set<ClientConnection> channelClients = channels.get(channel);
         String formattedMessage = "MSG:#" + channel + ":" + sender + ":" + message;
         System.out.println("Enviando mensaje al canal #" + channel + ": " + formattedMessage);
         
-        // Enviar mensaje a todos los clientes del canal
-        for (PrintWriter client : channelClients) {
-            client.println(cryptoService.encrypt(formattedMessage));
-            if (file != null) {
-                String fileName = "file_" + System.currentTimeMillis() + ".dat";
-                saveFileOnServer(file, fileName, "#" + channel);
-                String fileMessage = "FILE|#" + channel + "|" + sender + "|" + fileName + "|" + Base64.getEncoder().encodeToString(file);
-                client.println(cryptoService.encrypt(fileMessage));
-            }
+        // Las tramas se construyen una sola vez y se comparten entre todos los miembros
+        WireMessage messageFrame = WireMessage.text(cryptoService, formattedMessage);
+        WireMessage fileFrame = null;
+        String fileHash = null;
+        if (file != null) {
+            String fileName = "file_" + System.currentTimeMillis() + ".dat";
+            fileHash = saveFileOnServer(file, fileName, "#" + channel);
+            fileFrame = WireMessage.file(cryptoService, "#" + channel, sender, fileName, file);
         }
-        
-        // Notificar a todos los clientes que están en el canal sobre el nuevo mensaje
-        String notification = "NEW_MESSAGE_IN_CHANNEL:" + channel;
-        for (PrintWriter client : channelClients) {
-            client.println(cryptoService.encrypt(notification));
+        WireMessage notificationFrame = WireMessage.text(cryptoService, "NEW_MESSAGE_IN_CHANNEL:" + channel);
+
+        // Solo se bloquea este canal: mantiene el orden entre emisores del mismo canal.
+        // Un canal sin miembros conectados no tiene a quién enviar, pero el mensaje se guarda igual.
+        if (channelClients != null) {
+            synchronized (channelClients) {
+                // Enviar mensaje a todos los clientes del canal
+                for (ClientConnection client : channelClients) {
+                    client.send(messageFrame);
+                    if (fileFrame != null) {
+                        client.send(fileFrame);
+                    }
+                }
+
+                // Notificar a todos los clientes que están en el canal sobre el nuevo mensaje
+                for (ClientConnection client : channelClients) {
+                    client.send(notificationFrame);
+                }
+            }
         }
         
-        logMessage(sender, "#" + channel, message, file);
+        logMessage(sender, "#" + channel, message, fileHash);
         log("Mensaje enviado al canal #" + channel + " desde " + sender + ": " + message);
     }
 
-    public synchronized void createChannel(String channelName, String creator) {
-        channels.putIfAbsent(channelName, new HashSet<>());
-        PrintWriter creatorOut = clients.get(creator);
+    public void createChannel(String channelName, String creator) {
+        Set<ClientConnection> members = channels.computeIfAbsent(channelName, k -> ConcurrentHashMap.newKeySet());
+        ClientConnection creatorOut = clients.get(creator);
         if (creatorOut != null) {
-            channels.get(channelName).add(creatorOut);
-            creatorOut.println(cryptoService.encrypt("SUCCESS:Te has unido al canal: " + channelName));
+            members.add(creatorOut);
+            creatorOut.send("SUCCESS:Te has unido al canal: " + channelName);
         }
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement stmt = conn.prepareStatement(
-                 "INSERT INTO channels (name, creator_id) SELECT ?, id FROM users WHERE username = ?", 
-                 Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, channelName);
-            stmt.setString(2, creator);
-            stmt.executeUpdate();
-            ResultSet rs = stmt.getGeneratedKeys();
-            if (rs.next()) {
-                int channelId = rs.getInt(1);
-                try (PreparedStatement memberStmt = conn.prepareStatement(
-                    "INSERT INTO channel_members (channel_id, user_id) SELECT ?, id FROM users WHERE username = ?")) {
-                    memberStmt.setInt(1, channelId);
-                    memberStmt.setString(2, creator);
-                    memberStmt.executeUpdate();
+        try (Connection conn = db.getConnection()) {
+            Integer creatorId = ids.userId(conn, creator);
+            if (creatorId == null) {
+                log("Error al crear canal: usuario " + creator + " no encontrado");
+                return;
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                     "INSERT INTO channels (name, creator_id) VALUES (?, ?)", 
+                     Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, channelName);
+                stmt.setInt(2, creatorId);
+                stmt.executeUpdate();
+                ResultSet rs = stmt.getGeneratedKeys();
+                if (rs.next()) {
+                    int channelId = rs.getInt(1);
+                    ids.putChannel(channelName, channelId, creator);
+                    try (PreparedStatement memberStmt = conn.prepareStatement(
+                        "INSERT INTO channel_members (channel_id, user_id) VALUES (?, ?)")) {
+                        memberStmt.setInt(1, channelId);
+                        memberStmt.setInt(2, creatorId);
+                        memberStmt.executeUpdate();
+                    }
                 }
             }
             sendAllChannelsToAll();
@@ -229,17 +407,13 @@ public class ChatServer {
         }
     }
 
-    public synchronized void addToChannel(String channel, String username) {
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO channel_members (channel_id, user_id) SELECT c.id, u.id FROM channels c, users u WHERE c.name = ? AND u.username = ?")) {
-            stmt.setString(1, channel);
-            stmt.setString(2, username);
-            stmt.executeUpdate();
-            PrintWriter userOut = clients.get(username);
+    public void addToChannel(String channel, String username) {
+        try (Connection conn = db.getConnection()) {
+            insertMember(conn, channel, username);
+            ClientConnection userOut = clients.get(username);
             if (userOut != null && channels.containsKey(channel)) {
                 channels.get(channel).add(userOut);
-                userOut.println(cryptoService.encrypt("SUCCESS:Te has unido al canal: " + channel));
+                userOut.send("SUCCESS:Te has unido al canal: " + channel);
             }
             log("Usuario " + username + " agregado al canal " + channel);
         } catch (SQLException e) {
@@ -247,48 +421,39 @@ public class ChatServer {
         }
     }
 
-    public synchronized void requestJoin(String channel, String username) {
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO channel_requests (channel_id, user_id) SELECT c.id, u.id FROM channels c, users u WHERE c.name = ? AND u.username = ? ON DUPLICATE KEY UPDATE status = 'PENDING'")) {
-            stmt.setString(1, channel);
-            stmt.setString(2, username);
-            stmt.executeUpdate();
-            try (PreparedStatement creatorStmt = conn.prepareStatement(
-                "SELECT u.username FROM channels c JOIN users u ON c.creator_id = u.id WHERE c.name = ?")) {
-                creatorStmt.setString(1, channel);
-                ResultSet rs = creatorStmt.executeQuery();
-                if (rs.next()) {
-                    String creator = rs.getString("username");
-                    PrintWriter creatorOut = clients.get(creator);
-                    if (creatorOut != null) {
-                        creatorOut.println(cryptoService.encrypt("CHANNEL_REQUEST:" + channel + ":" + username));
-                    }
-                    log("Solicitud de unión al canal " + channel + " por " + username + " enviada al creador " + creator);
+    public void requestJoin(String channel, String username) {
+        try (Connection conn = db.getConnection()) {
+            Integer channelId = ids.channelId(conn, channel);
+            Integer userId = ids.userId(conn, username);
+            if (channelId != null && userId != null) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO channel_requests (channel_id, user_id) VALUES (?, ?) ON DUPLICATE KEY UPDATE status = 'PENDING'")) {
+                    stmt.setInt(1, channelId);
+                    stmt.setInt(2, userId);
+                    stmt.executeUpdate();
+                }
+            }
+            String creator = ids.channelCreator(conn, channel);
+            if (creator != null) {
+                ClientConnection creatorOut = clients.get(creator);
+                if (creatorOut != null) {
+                    creatorOut.send("CHANNEL_REQUEST:" + channel + ":" + username);
                 }
+                log("Solicitud de unión al canal " + channel + " por " + username + " enviada al creador " + creator);
             }
         } catch (SQLException e) {
             log("Error al enviar solicitud de unión al canal: " + e.getMessage());
         }
     }
 
-    public synchronized void approveJoin(String channel, String username) {
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement stmt = conn.prepareStatement(
-                "UPDATE channel_requests SET status = 'APPROVED' WHERE channel_id = (SELECT id FROM channels WHERE name = ?) AND user_id = (SELECT id FROM users WHERE username = ?)")) {
-            stmt.setString(1, channel);
-            stmt.setString(2, username);
-            stmt.executeUpdate();
-            PrintWriter userOut = clients.get(username);
+    public void approveJoin(String channel, String username) {
+        try (Connection conn = db.getConnection()) {
+            updateRequest(conn, channel, username, "APPROVED");
+            ClientConnection userOut = clients.get(username);
             if (userOut != null && channels.containsKey(channel)) {
                 channels.get(channel).add(userOut);
-                userOut.println(cryptoService.encrypt("SUCCESS:Te has unido al canal: " + channel));
-                try (PreparedStatement memberStmt = conn.prepareStatement(
-                    "INSERT INTO channel_members (channel_id, user_id) SELECT c.id, u.id FROM channels c, users u WHERE c.name = ? AND u.username = ?")) {
-                    memberStmt.setString(1, channel);
-                    memberStmt.setString(2, username);
-                    memberStmt.executeUpdate();
-                }
+                userOut.send("SUCCESS:Te has unido al canal: " + channel);
+                insertMember(conn, channel, username);
             }
             log("Solicitud de unión al canal " + channel + " por " + username + " aprobada");
         } catch (SQLException e) {
@@ -296,16 +461,12 @@ public class ChatServer {
         }
     }
 
-    public synchronized void rejectJoin(String channel, String username) {
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement stmt = conn.prepareStatement(
-                "UPDATE channel_requests SET status = 'REJECTED' WHERE channel_id = (SELECT id FROM channels WHERE name = ?) AND user_id = (SELECT id FROM users WHERE username = ?)")) {
-            stmt.setString(1, channel);
-            stmt.setString(2, username);
-            stmt.executeUpdate();
-            PrintWriter userOut = clients.get(username);
+    public void rejectJoin(String channel, String username) {
+        try (Connection conn = db.getConnection()) {
+            updateRequest(conn, channel, username, "REJECTED");
+            ClientConnection userOut = clients.get(username);
             if (userOut != null) {
-                userOut.println(cryptoService.encrypt("ERROR:Tu solicitud para unirte al canal " + channel + " fue rechazada"));
+                userOut.send("ERROR:Tu solicitud para unirte al canal " + channel + " fue rechazada");
             }
             log("Solicitud de unión al canal " + channel + " por " + username + " rechazada");
         } catch (SQLException e) {
@@ -313,8 +474,40 @@ public class ChatServer {
         }
     }
 
-    public synchronized void sendRegisteredUsers(PrintWriter out) {
-        try (Connection conn = db.getConnection(); 
+    private void insertMember(Connection conn, String channel, String username) throws SQLException {
+        Integer channelId = ids.channelId(conn, channel);
+        Integer userId = ids.userId(conn, username);
+        if (channelId == null || userId == null) return;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO channel_members (channel_id, user_id) VALUES (?, ?)")) {
+            stmt.setInt(1, channelId);
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void updateRequest(Connection conn, String channel, String username, String status) throws SQLException {
+        Integer channelId = ids.channelId(conn, channel);
+        Integer userId = ids.userId(conn, username);
+        if (channelId == null || userId == null) return;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE channel_requests SET status = ? WHERE channel_id = ? AND user_id = ?")) {
+            stmt.setString(1, status);
+            stmt.setInt(2, channelId);
+            stmt.setInt(3, userId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /** Creador del canal (de la {@link IdCache}); null si el canal no existe. */
+    public String getChannelCreator(String channel) throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            return ids.channelCreator(conn, channel);
+        }
+    }
+
+    public void sendRegisteredUsers(ClientConnection out) {
+        try (Connection conn = db.getReadConnection(); 
              Statement stmt = conn.createStatement(); 
              ResultSet rs = stmt.executeQuery("SELECT username FROM users")) {
             StringBuilder users = new StringBuilder("REGISTERED_USERS:");
@@ -322,30 +515,33 @@ public class ChatServer {
                 users.append(rs.getString("username")).append(",");
             }
             String usersStr = users.length() > "REGISTERED_USERS:".length() ? users.substring(0, users.length() - 1) : "REGISTERED_USERS:none";
-            out.println(cryptoService.encrypt(usersStr));
+            out.send(usersStr);
             log("Lista de usuarios registrados enviada a " + getUsername(out));
         } catch (SQLException e) {
-            out.println(cryptoService.encrypt("ERROR:No se pudo obtener usuarios registrados"));
+            out.send("ERROR:No se pudo obtener usuarios registrados");
             log("Error al obtener usuarios registrados: " + e.getMessage());
         }
     }
 
-    public synchronized void sendOnlineUsers(PrintWriter out) {
+    public void sendOnlineUsers(ClientConnection out) {
         String users = clients.isEmpty() ? "none" : String.join(",", clients.keySet());
-        out.println(cryptoService.encrypt("ONLINE_USERS:" + users));
+        out.sendPresence("ONLINE_USERS:" + users);
         log("Lista de usuarios en línea enviada a " + getUsername(out));
     }
 
-    public synchronized void sendOnlineUsersToAll() {
-        String users = clients.isEmpty() ? "none" : String.join(",", clients.keySet());
-        String encrypted = cryptoService.encrypt("ONLINE_USERS:" + users);
-        for (PrintWriter client : clients.values()) {
-            client.println(encrypted);
+    public void sendOnlineUsersToAll() {
+        // Lock propio de presencia: evita que una lista vieja llegue después de una nueva
+        synchronized (presenceLock) {
+            String users = clients.isEmpty() ? "none" : String.join(",", clients.keySet());
+            WireMessage frame = WireMessage.text(cryptoService, "ONLINE_USERS:" + users);
+            for (ClientConnection client : clients.values()) {
+                client.sendPresence(frame);
+            }
         }
         log("Lista de usuarios en línea actualizada para todos los clientes");
     }
 
-    public synchronized void sendJoinedChannels(PrintWriter out) {
+    public void sendJoinedChannels(ClientConnection out) {
         try (Connection conn = db.getConnection(); 
              PreparedStatement stmt = conn.prepareStatement(
                 "SELECT c.name FROM channels c JOIN channel_members cm ON c.id = cm.channel_id JOIN users u ON cm.user_id = u.id WHERE u.username = ?")) {
@@ -356,16 +552,16 @@ public class ChatServer {
                 channelsList.append(rs.getString("name")).append(",");
             }
             String channelsStr = channelsList.length() > "JOINED_CHANNELS:".length() ? channelsList.substring(0, channelsList.length() - 1) : "JOINED_CHANNELS:none";
-            out.println(cryptoService.encrypt(channelsStr));
+            out.send(channelsStr);
             log("Lista de canales unidos enviada a " + getUsername(out));
         } catch (SQLException e) {
-            out.println(cryptoService.encrypt("ERROR:No se pudo obtener los canales unidos"));
+            out.send("ERROR:No se pudo obtener los canales unidos");
             log("Error al obtener canales unidos: " + e.getMessage());
         }
     }
 
-    public synchronized void sendAllChannels(PrintWriter out) {
-        try (Connection conn = db.getConnection(); 
+    public void sendAllChannels(ClientConnection out) {
+        try (Connection conn = db.getReadConnection(); 
              Statement stmt = conn.createStatement(); 
              ResultSet rs = stmt.executeQuery("SELECT name FROM channels")) {
             StringBuilder channels = new StringBuilder("ALL_CHANNELS:");
@@ -373,15 +569,15 @@ public class ChatServer {
                 channels.append(rs.getString("name")).append(",");
             }
             String channelsStr = channels.length() > "ALL_CHANNELS:".length() ? channels.substring(0, channels.length() - 1) : "ALL_CHANNELS:none";
-            out.println(cryptoService.encrypt(channelsStr));
+            out.send(channelsStr);
             log("Lista de todos los canales enviada a " + getUsername(out));
         } catch (SQLException e) {
-            out.println(cryptoService.encrypt("ERROR:No se pudo obtener la lista de canales"));
+            out.send("ERROR:No se pudo obtener la lista de canales");
             log("Error al obtener la lista de canales: " + e.getMessage());
         }
     }
 
-    public synchronized void sendAllChannelsToAll() {
+    public void sendAllChannelsToAll() {
         try (Connection conn = db.getConnection(); 
              Statement stmt = conn.createStatement(); 
              ResultSet rs = stmt.executeQuery("SELECT name FROM channels")) {
@@ -390,9 +586,9 @@ public class ChatServer {
                 channels.append(rs.getString("name")).append(",");
             }
             String channelsStr = channels.length() > "ALL_CHANNELS:".length() ? channels.substring(0, channels.length() - 1) : "ALL_CHANNELS:none";
-            String encrypted = cryptoService.encrypt(channelsStr);
-            for (PrintWriter client : clients.values()) {
-                client.println(encrypted);
+            WireMessage frame = WireMessage.text(cryptoService, channelsStr);
+            for (ClientConnection client : clients.values()) {
+                client.send(frame);
             }
             log("Lista de todos los canales actualizada para todos los clientes");
         } catch (SQLException e) {
@@ -400,57 +596,257 @@ public class ChatServer {
         }
     }
 
-    public synchronized void sendChannelHistory(String channel, PrintWriter out) {
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement stmt = conn.prepareStatement(
-                "SELECT u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id WHERE m.destination = ? ORDER BY m.timestamp")) {
-            stmt.setString(1, "#" + channel);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                String sender = rs.getString("sender");
-                String msg = rs.getString("message");
-                byte[] file = rs.getBytes("file");
-                String timestamp = rs.getTimestamp("timestamp").toString();
-                out.println(cryptoService.encrypt("HISTORY:" + channel + ":" + sender + ":" + msg + ":" + timestamp));
-                if (file != null) {
-                    out.println(cryptoService.encrypt("HISTORY_FILE:" + channel + ":" + sender + ":" + Base64.getEncoder().encodeToString(file)));
+    public void sendChannelHistory(String channel, ClientConnection out) {
+        try {
+            // Entero desde la caché si cabe; si no, de la base de datos como siempre
+            List<HistoryCache.Row> rows = historyCache.all("#" + channel, this::loadLatestRows);
+            if (rows == null) {
+                try (Connection conn = db.getReadConnection(); 
+                     PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT m.id, u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id WHERE m.destination = ? ORDER BY m.id")) {
+                    stmt.setString(1, "#" + channel);
+                    rows = readRows(stmt);
                 }
             }
+            for (HistoryCache.Row row : rows) {
+                out.send("HISTORY:" + channel + ":" + row.sender + ":" + row.message + ":" + row.timestamp);
+                sendHistoryFile(out, channel, "#" + channel, row);
+            }
             log("Historial del canal #" + channel + " enviado a " + getUsername(out));
         } catch (SQLException e) {
-            out.println(cryptoService.encrypt("ERROR:No se pudo obtener el historial del canal"));
+            out.send("ERROR:No se pudo obtener el historial del canal");
             log("Error al obtener historial del canal: " + e.getMessage());
         }
     }
 
-    public synchronized void sendChatHistory(String user, PrintWriter out) {
-        try (Connection conn = db.getConnection(); 
+    public void sendChatHistory(String user, ClientConnection out) {
+        try (Connection conn = db.getReadConnection(); 
              PreparedStatement stmt = conn.prepareStatement(
-                "SELECT u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id WHERE (m.destination = ? AND u.username = ?) OR (m.destination = ? AND u.username = ?) ORDER BY m.timestamp")) {
-            String currentUser = getUsername(out);
-            stmt.setString(1, user);
-            stmt.setString(2, currentUser);
-            stmt.setString(3, currentUser);
-            stmt.setString(4, user);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                String sender = rs.getString("sender");
-                String msg = rs.getString("message");
-                byte[] file = rs.getBytes("file");
-                String timestamp = rs.getTimestamp("timestamp").toString();
-                out.println(cryptoService.encrypt("CHAT_HISTORY:" + user + ":" + sender + ":" + msg + ":" + timestamp));
-                if (file != null) {
-                    out.println(cryptoService.encrypt("HISTORY_FILE:" + user + ":" + sender + ":" + Base64.getEncoder().encodeToString(file)));
-                }
+                "SELECT m.id, u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id WHERE m.conversation = ? ORDER BY m.id")) {
+            stmt.setString(1, SchemaMigrations.conversationKey(getUsername(out), user));
+            for (HistoryCache.Row row : readRows(stmt)) {
+                out.send("CHAT_HISTORY:" + user + ":" + row.sender + ":" + row.message + ":" + row.timestamp);
+                sendHistoryFile(out, user, user, row);
             }
             log("Historial del chat con " + user + " enviado a " + getUsername(out));
         } catch (SQLException e) {
-            out.println(cryptoService.encrypt("ERROR:No se pudo obtener el historial del chat"));
+            out.send("ERROR:No se pudo obtener el historial del chat");
             log("Error al obtener historial del chat: " + e.getMessage());
         }
     }
 
-    public synchronized void sendProfilePhoto(String username, PrintWriter out) {
+    /**
+     * Archivo de una fila de historial. Con protocolo binario solo se envía
+     * la referencia (HISTORY_FILE_REF) y el cliente lo descarga si lo pide;
+     * en texto se envía entero como antes.
+     */
+    private void sendHistoryFile(ClientConnection out, String key, String destination, HistoryCache.Row row) {
+        String file = row.file;
+        if (file == null) return;
+        byte[] bytes;
+        if (!BlobStore.isHash(file)) {
+            bytes = file.getBytes(StandardCharsets.UTF_8);
+        } else {
+            try {
+                if (out.isBinary()) {
+                    String prefix = "Archivo enviado: ";
+                    String fileName = row.message != null && row.message.startsWith(prefix)
+                        ? row.message.substring(prefix.length()) : "file_" + file.substring(0, 12) + ".dat";
+                    out.send("HISTORY_FILE_REF:" + destination + "|" + row.sender + "|"
+                        + Files.size(blobs.path(file)) + "|" + file + "|" + fileName);
+                    return;
+                }
+                if (Files.size(blobs.path(file)) > WireProtocol.MAX_INLINE_FILE) {
+                    out.send("ERROR:Archivo " + file + " demasiado grande para el protocolo de texto");
+                    return;
+                }
+                bytes = blobs.read(file);
+            } catch (IOException e) {
+                log("Archivo " + file + " no disponible: " + e.getMessage());
+                return;
+            }
+        }
+        out.send("HISTORY_FILE:" + key + ":" + row.sender + ":" + Base64.getEncoder().encodeToString(bytes));
+    }
+
+    // ─── Historial paginado ─────────────────────────
+    /** Tamaño de página por defecto y máximo de GET_*_HISTORY_PAGE. */
+    public static final int DEFAULT_HISTORY_PAGE = 50;
+    public static final int MAX_HISTORY_PAGE = 200;
+
+    /**
+     * Página de historial de un canal: los {@code limit} mensajes anteriores
+     * al id {@code beforeId} (0 = los más recientes), en orden cronológico.
+     * Se sirve desde la {@link HistoryCache} y solo las páginas que quedan
+     * más atrás de lo que guarda van a la base de datos.
+     */
+    public void sendChannelHistoryPage(String channel, long beforeId, int limit, ClientConnection out) {
+        int pageSize = clampPage(limit);
+        try {
+            HistoryCache.Page page = historyCache.page("#" + channel, beforeId, pageSize, this::loadLatestRows);
+            if (page == null) {
+                try (Connection conn = db.getReadConnection();
+                     PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT m.id, u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id "
+                        + "WHERE m.destination = ? AND m.id < ? ORDER BY m.id DESC LIMIT ?")) {
+                    stmt.setString(1, "#" + channel);
+                    stmt.setLong(2, beforeId > 0 ? beforeId : Long.MAX_VALUE);
+                    stmt.setInt(3, pageSize + 1);
+                    page = toPage(readRows(stmt), pageSize);
+                }
+            }
+            sendHistoryPage("#" + channel, page, out);
+        } catch (SQLException e) {
+            out.send("ERROR:No se pudo obtener el historial del canal");
+            log("Error al obtener historial del canal: " + e.getMessage());
+        }
+    }
+
+    /** Página del chat privado entre quien pide y {@code user}; mismo formato que la de canal. */
+    public void sendChatHistoryPage(String user, long beforeId, int limit, ClientConnection out) {
+        int pageSize = clampPage(limit);
+        String currentUser = getUsername(out);
+        try (Connection conn = db.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT m.id, u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id "
+                + "WHERE m.conversation = ? AND m.id < ? ORDER BY m.id DESC LIMIT ?")) {
+            // Un solo rango de idx_messages_conversation
+            stmt.setString(1, SchemaMigrations.conversationKey(currentUser, user));
+            stmt.setLong(2, beforeId > 0 ? beforeId : Long.MAX_VALUE);
+            stmt.setInt(3, pageSize + 1);
+            sendHistoryPage(user, toPage(readRows(stmt), pageSize), out);
+        } catch (SQLException e) {
+            out.send("ERROR:No se pudo obtener el historial del chat");
+            log("Error al obtener historial del chat: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sincronización incremental de un canal: hasta {@code limit} mensajes
+     * con id mayor que {@code afterId}, del más antiguo al más nuevo. El
+     * cliente pasa el último id que ya tiene guardado en local.
+     */
+    public void sendChannelHistorySince(String channel, long afterId, int limit, ClientConnection out) {
+        int pageSize = clampPage(limit);
+        try {
+            HistoryCache.Page page = historyCache.since("#" + channel, afterId, pageSize, this::loadLatestRows);
+            if (page == null) {
+                try (Connection conn = db.getReadConnection();
+                     PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT m.id, u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id "
+                        + "WHERE m.destination = ? AND m.id > ? ORDER BY m.id LIMIT ?")) {
+                    stmt.setString(1, "#" + channel);
+                    stmt.setLong(2, afterId);
+                    stmt.setInt(3, pageSize + 1);
+                    page = toSincePage(readRows(stmt), pageSize);
+                }
+            }
+            sendHistorySince("#" + channel, page, out);
+        } catch (SQLException e) {
+            out.send("ERROR:No se pudo obtener el historial del canal");
+            log("Error al sincronizar historial del canal: " + e.getMessage());
+        }
+    }
+
+    /** Sincronización incremental del chat privado con {@code user}. */
+    public void sendChatHistorySince(String user, long afterId, int limit, ClientConnection out) {
+        int pageSize = clampPage(limit);
+        String currentUser = getUsername(out);
+        try (Connection conn = db.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT m.id, u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id "
+                + "WHERE m.conversation = ? AND m.id > ? ORDER BY m.id LIMIT ?")) {
+            stmt.setString(1, SchemaMigrations.conversationKey(currentUser, user));
+            stmt.setLong(2, afterId);
+            stmt.setInt(3, pageSize + 1);
+            sendHistorySince(user, toSincePage(readRows(stmt), pageSize), out);
+        } catch (SQLException e) {
+            out.send("ERROR:No se pudo obtener el historial del chat");
+            log("Error al sincronizar historial del chat: " + e.getMessage());
+        }
+    }
+
+    private static int clampPage(int limit) {
+        return limit <= 0 ? DEFAULT_HISTORY_PAGE : Math.min(limit, MAX_HISTORY_PAGE);
+    }
+
+    /** Carga de la {@link HistoryCache}: los últimos {@code limit} mensajes de un canal, del más nuevo al más antiguo. */
+    private List<HistoryCache.Row> loadLatestRows(String destination, int limit) throws SQLException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT m.id, u.username AS sender, m.message, m.file, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id "
+                + "WHERE m.destination = ? ORDER BY m.id DESC LIMIT ?")) {
+            stmt.setString(1, destination);
+            stmt.setInt(2, limit);
+            return readRows(stmt);
+        }
+    }
+
+    private static List<HistoryCache.Row> readRows(PreparedStatement stmt) throws SQLException {
+        List<HistoryCache.Row> rows = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new HistoryCache.Row(rs.getLong("id"), rs.getTimestamp("timestamp"),
+                    rs.getString("sender"), rs.getString("message"), rs.getString("file")));
+            }
+        }
+        return rows;
+    }
+
+    /** Filas de una consulta LIMIT pageSize+1 (de más nuevo a más antiguo) como página cronológica. */
+    private static HistoryCache.Page toPage(List<HistoryCache.Row> newestFirst, int pageSize) {
+        boolean hasMore = newestFirst.size() > pageSize;
+        List<HistoryCache.Row> rows = new ArrayList<>(newestFirst.subList(0, Math.min(pageSize, newestFirst.size())));
+        Collections.reverse(rows);
+        return new HistoryCache.Page(rows, hasMore);
+    }
+
+    /** Filas de una consulta LIMIT pageSize+1 ya en orden cronológico. */
+    private static HistoryCache.Page toSincePage(List<HistoryCache.Row> oldestFirst, int pageSize) {
+        boolean hasMore = oldestFirst.size() > pageSize;
+        return new HistoryCache.Page(new ArrayList<>(oldestFirst.subList(0, Math.min(pageSize, oldestFirst.size()))), hasMore);
+    }
+
+    /**
+     * Envía las filas como HISTORY_ROW:destino|id|fecha|remitente|hash|tamaño|mensaje
+     * (hash "-" si no hay archivo) y cierra con
+     * HISTORY_PAGE_END:destino|idMásAntiguo|hayMás. Los archivos van solo como referencia.
+     */
+    private void sendHistoryPage(String destination, HistoryCache.Page page, ClientConnection out) {
+        sendHistoryRows(destination, page, out);
+        long oldestId = page.rows.isEmpty() ? 0 : page.rows.get(0).id;
+        out.send("HISTORY_PAGE_END:" + destination + "|" + oldestId + "|" + (page.hasMore ? 1 : 0));
+    }
+
+    /** Como {@link #sendHistoryPage} pero cierra con HISTORY_SYNC_END:destino|idMásNuevo|hayMás. */
+    private void sendHistorySince(String destination, HistoryCache.Page page, ClientConnection out) {
+        sendHistoryRows(destination, page, out);
+        long newestId = page.rows.isEmpty() ? 0 : page.rows.get(page.rows.size() - 1).id;
+        out.send("HISTORY_SYNC_END:" + destination + "|" + newestId + "|" + (page.hasMore ? 1 : 0));
+    }
+
+    private void sendHistoryRows(String destination, HistoryCache.Page page, ClientConnection out) {
+        for (HistoryCache.Row row : page.rows) {
+            String hash = BlobStore.isHash(row.file) ? row.file : "-";
+            long size = 0;
+            if (!"-".equals(hash)) {
+                try {
+                    size = Files.size(blobs.path(hash));
+                } catch (IOException e) {
+                    hash = "-";
+                }
+            }
+            out.send("HISTORY_ROW:" + destination + "|" + row.id + "|" + row.timestamp + "|"
+                + row.sender + "|" + hash + "|" + size + "|" + row.message);
+        }
+    }
+
+    /** Métricas de la caché de historial para los informes. */
+    public HistoryCache getHistoryCache() {
+        return historyCache;
+    }
+
+    public void sendProfilePhoto(String username, ClientConnection out) {
         try (Connection conn = db.getConnection(); 
              PreparedStatement stmt = conn.prepareStatement("SELECT photo FROM users WHERE username = ?")) {
             stmt.setString(1, username);
@@ -458,14 +854,14 @@ public class ChatServer {
             if (rs.next()) {
                 String photo = rs.getString("photo");
                 String response = photo != null && !photo.isEmpty() ? "PROFILE_PHOTO:" + photo : "PROFILE_PHOTO:none";
-                out.println(cryptoService.encrypt(response));
+                out.send(response);
                 log("Foto de perfil enviada a " + username);
             } else {
-                out.println(cryptoService.encrypt("PROFILE_PHOTO:none"));
+                out.send("PROFILE_PHOTO:none");
                 log("No se encontró foto de perfil para " + username);
             }
         } catch (SQLException e) {
-            out.println(cryptoService.encrypt("PROFILE_PHOTO:none"));
+            out.send("PROFILE_PHOTO:none");
             log("Error al obtener foto de perfil: " + e.getMessage());
         }
     }
@@ -489,13 +885,20 @@ public class ChatServer {
 
     public boolean registerUser(String username, String email, String password, String photo, String ipAddress) {
         try (Connection conn = db.getConnection(); 
-             PreparedStatement stmt = conn.prepareStatement("INSERT INTO users (username, email, password, photo, ip_address) VALUES (?, ?, ?, ?, ?)")) {
+             PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO users (username, email, password, photo, ip_address) VALUES (?, ?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
             stmt.setString(1, username);
             stmt.setString(2, email);
             stmt.setString(3, password);
             stmt.setString(4, photo);
             stmt.setString(5, ipAddress);
             boolean success = stmt.executeUpdate() > 0;
+            if (success) {
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (keys.next()) ids.putUser(username, keys.getInt(1));
+                }
+            }
             log("Registro de usuario " + username + ": " + (success ? "Éxito" : "Fallido"));
             return success;
         } catch (SQLException e) {
@@ -504,20 +907,42 @@ public class ChatServer {
         }
     }
 
-    private void logMessage(String sender, String destination, String message, byte[] file) {
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO messages (sender_id, destination, message, file) SELECT id, ?, ?, ? FROM users WHERE username = ?")) {
-            stmt.setString(1, destination);
-            stmt.setString(2, message);
-            stmt.setBytes(3, file);
-            stmt.setString(4, sender);
-            int rowsAffected = stmt.executeUpdate();
-            if (rowsAffected == 0) {
-                log("Error: No se pudo registrar el mensaje, usuario " + sender + " no encontrado.");
-            }
+    /**
+     * Migración 100: los adjuntos que versiones antiguas guardaban en línea
+     * en {@code messages.file} pasan al {@link BlobStore} y la columna se
+     * queda con su hash, como los mensajes nuevos.
+     */
+    private void migrateInlineFiles() {
+        try (Connection conn = db.getConnection()) {
+            SchemaMigrations.apply(conn, 100, "Adjuntos en línea al almacén de archivos", c -> {
+                try (PreparedStatement select = c.prepareStatement(
+                        "SELECT id, file FROM messages WHERE file IS NOT NULL");
+                     PreparedStatement update = c.prepareStatement("UPDATE messages SET file = ? WHERE id = ?");
+                     ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        if (BlobStore.isHash(rs.getString("file"))) continue;
+                        String hash = blobs.put(rs.getBytes("file"));
+                        update.setString(1, hash);
+                        update.setLong(2, rs.getLong("id"));
+                        update.executeUpdate();
+                    }
+                } catch (IOException e) {
+                    throw new SQLException("No se pudo mover un adjunto al almacén: " + e.getMessage(), e);
+                }
+            });
         } catch (SQLException e) {
-            log("Error al guardar mensaje: " + e.getMessage());
+            log("Error al migrar adjuntos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Guarda el mensaje a través del {@link MessageJournal}: aquí solo se
+     * escribe en el diario local y la inserción (con la referencia al
+     * archivo {@code fileHash}, si hay) la hace su escritor por lotes.
+     */
+    private void logMessage(String sender, String destination, String message, String fileHash) {
+        if (!messageJournal.append(sender, destination, message, fileHash)) {
+            log("Error al guardar mensaje de " + sender + " para " + destination);
         }
     }
     // Método público que llama a saveFileOnServer
@@ -525,44 +950,206 @@ public class ChatServer {
     saveFileOnServer(file, fileName, destination);
     }
     
-    public synchronized void sendFileToUser(String username, String sender, String originalFileName, byte[] file) {
-    PrintWriter out = clients.get(username);
+    public void sendFileToUser(String username, String sender, String originalFileName, byte[] file) {
+    ClientConnection out = clients.get(username);
     if (out != null) {
-        // No generamos un nuevo nombre, usamos el original
-        saveFileOnServer(file, originalFileName, username);
-        String fileMessage = "FILE|" + username + "|" + sender + "|" + originalFileName + "|" 
-                             + Base64.getEncoder().encodeToString(file);
-        out.println(cryptoService.encrypt(fileMessage));
-        logMessage(sender, username, "Archivo enviado: " + originalFileName, file);
+        String fileHash = saveFileOnServer(file, originalFileName, username);
+        out.send(WireMessage.file(cryptoService, username, sender, originalFileName, file));
+        logMessage(sender, username, "Archivo enviado: " + originalFileName, fileHash);
         log("Archivo " + originalFileName + " enviado a " + username + " desde " + sender);
     }
     }
 
-    public synchronized void sendFileToChannel(String channel, String sender, String originalFileName, byte[] file) {
-        Set<PrintWriter> channelClients = channels.getOrDefault(channel, new HashSet<>());
-        String fileMessage = "FILE|#" + channel + "|" + sender + "|" + originalFileName + "|" 
-                             + Base64.getEncoder().encodeToString(file);
-        // Guardamos el archivo usando el nombre original
-        saveFileOnServer(file, originalFileName, "#" + channel);
-        for (PrintWriter client : channelClients) {
-            client.println(cryptoService.encrypt(fileMessage));
+    public void sendFileToChannel(String channel, String sender, String originalFileName, byte[] file) {
+        Set<ClientConnection> channelClients = channels.get(channel);
+        // Una sola copia en disco, compartida por todo el canal
+        String fileHash = saveFileOnServer(file, originalFileName, "#" + channel);
+        WireMessage fileFrame = WireMessage.file(cryptoService, "#" + channel, sender, originalFileName, file);
+        if (channelClients != null) {
+            synchronized (channelClients) {
+                for (ClientConnection client : channelClients) {
+                    client.send(fileFrame);
+                }
+            }
         }
-        logMessage(sender, "#" + channel, "Archivo enviado: " + originalFileName, file);
+        logMessage(sender, "#" + channel, "Archivo enviado: " + originalFileName, fileHash);
         log("Archivo " + originalFileName + " enviado al canal #" + channel + " desde " + sender);
     }
 
 
+    // ─── Transferencias por partes ──────────────────
+    /** UPLOAD_START: responde con el offset desde el que el cliente debe enviar. */
+    public void startUpload(String sender, String uploadId, String destination, String fileName, long size, ClientConnection out) {
+        FileTransferService.Upload upload;
+        try {
+            upload = fileTransfers.startUpload(sender, uploadId, destination, fileName, size);
+        } catch (IOException | IllegalArgumentException e) {
+            log("Error al iniciar subida de " + sender + ": " + e.getMessage());
+            out.send("ERROR:No se pudo iniciar la subida de " + fileName);
+            return;
+        }
+        out.send("UPLOAD_OFFSET:" + uploadId + "|" + upload.getOffset());
+        if (fileTransfers.isComplete(upload)) completeUpload(upload, out);
+    }
 
-    private void saveFileOnServer(byte[] file, String fileName, String destination) {
-        File dir = new File("server_files" + File.separator + destination.replace("#", "channel_"));
-        if (!dir.exists()) {
-            dir.mkdirs();
+    /** Fragmento OP_CHUNK de una subida: se escribe directo al .part. */
+    public void receiveUploadChunk(String sender, WireProtocol.Chunk chunk, ClientConnection out) {
+        FileTransferService.Upload upload = fileTransfers.getUpload(sender, chunk.transferId);
+        if (upload == null) {
+            out.send("ERROR:Subida desconocida " + chunk.transferId);
+            return;
         }
-        try (FileOutputStream fos = new FileOutputStream(new File(dir, fileName))) {
-            fos.write(file);
-            log("Archivo " + fileName + " guardado en el servidor para " + destination);
+        try {
+            switch (fileTransfers.append(upload, chunk)) {
+                case RESYNC:
+                    out.send("UPLOAD_OFFSET:" + upload.id + "|" + upload.getOffset());
+                    break;
+                case WRITTEN:
+                    if (fileTransfers.isComplete(upload)) completeUpload(upload, out);
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException e) {
+            log("Error al escribir subida " + upload.id + ": " + e.getMessage());
+            out.send("ERROR:Error al guardar " + upload.fileName);
+        }
+    }
+
+    private void completeUpload(FileTransferService.Upload upload, ClientConnection out) {
+        String hash;
+        try {
+            hash = fileTransfers.complete(upload);
+        } catch (IOException e) {
+            log("Error al completar subida " + upload.id + ": " + e.getMessage());
+            out.send("ERROR:Error al guardar " + upload.fileName);
+            return;
+        }
+        out.send("UPLOAD_DONE:" + upload.id);
+        deliverStoredFile(upload.destination, upload.sender, upload.fileName, hash, upload.size);
+        logMessage(upload.sender, upload.destination, "Archivo enviado: " + upload.fileName, hash);
+        log("Archivo " + upload.fileName + " (" + upload.size + " bytes) recibido por partes de " + upload.sender + " para " + upload.destination);
+    }
+
+    /**
+     * Avisa a los destinatarios de un archivo ya guardado. Los clientes con
+     * protocolo binario lo descargan por partes; a los de texto se les envía
+     * entero como antes, leyéndolo una sola vez y solo si hace falta (y si
+     * no pasa de {@link WireProtocol#MAX_INLINE_FILE}).
+     */
+    private void deliverStoredFile(String destination, String sender, String fileName, String hash, long size) {
+        WireMessage available = WireMessage.text(cryptoService,
+                "FILE_AVAILABLE:" + destination + "|" + sender + "|" + size + "|" + hash + "|" + fileName);
+        if (destination.startsWith("#")) {
+            Set<ClientConnection> channelClients = channels.get(destination.substring(1));
+            if (channelClients == null) return;
+            synchronized (channelClients) {
+                deliverStoredFile(channelClients, available, destination, sender, fileName, hash, size);
+            }
+        } else {
+            // Un único destinatario: no hay orden entre miembros que proteger
+            ClientConnection target = clients.get(destination);
+            if (target == null) return;
+            deliverStoredFile(Collections.singletonList(target), available, destination, sender, fileName, hash, size);
+        }
+    }
+
+    private void deliverStoredFile(Collection<ClientConnection> recipients, WireMessage available,
+                                   String destination, String sender, String fileName, String hash, long size) {
+        WireMessage legacy = null;
+        for (ClientConnection client : recipients) {
+            if (client.isBinary()) {
+                offeredFiles.computeIfAbsent(client, c -> ConcurrentHashMap.newKeySet()).add(hash);
+                client.send(available);
+                continue;
+            }
+            if (legacy == null && size > WireProtocol.MAX_INLINE_FILE) {
+                // Entero no cabe en una trama: solo se puede descargar por partes
+                legacy = WireMessage.text(cryptoService, "ERROR:Archivo " + fileName + " demasiado grande para el protocolo de texto");
+            }
+            if (legacy == null) {
+                try {
+                    legacy = WireMessage.file(cryptoService, destination, sender, fileName, blobs.read(hash));
+                } catch (IOException e) {
+                    // Los clientes binarios siguen recibiendo el aviso; los de texto, el error
+                    log("Error al leer " + hash + ": " + e.getMessage());
+                    legacy = WireMessage.text(cryptoService, "ERROR:Archivo no disponible " + fileName);
+                }
+            }
+            client.send(legacy);
+        }
+    }
+
+    /**
+     * DOWNLOAD: envía un tramo del archivo en una trama OP_RANGE y cierra con
+     * DOWNLOAD_END indicando el siguiente offset y el tamaño total. El tramo
+     * sale de la copia cifrada del blob directamente al socket.
+     */
+    public void sendFileRange(String transferId, String hash, long offset, long length, ClientConnection out) {
+        if (!out.isBinary()) {
+            out.send("ERROR:La descarga por partes requiere el protocolo binario");
+            return;
+        }
+        if (!canDownload(hash, out)) {
+            log("Descarga de " + hash + " denegada a " + getUsername(out));
+            out.send("ERROR:Archivo no disponible " + hash);
+            return;
+        }
+        try {
+            long size = Files.size(blobs.path(hash));
+            Path encrypted = blobs.encrypted(hash, cryptoService);
+            long total = CryptoService.encryptedLength(size);
+            // ECB: cada bloque de 16 bytes se descifra por separado
+            long start = Math.min(Math.max(0, offset) & ~15L, total);
+            long end = Math.min(total, (start + Math.min(Math.max(0, length), FileTransferService.MAX_WINDOW) + 15) & ~15L);
+            byte[] header = cryptoService.encrypt(WireProtocol.rangeHeader(transferId, start, total));
+            out.sendFileRegion(WireProtocol.rangeFramePrefix(header, end - start), encrypted, start, end - start);
+            out.send("DOWNLOAD_END:" + transferId + "|" + Math.min(end, size) + "|" + size);
+        } catch (IOException e) {
+            log("Error al servir " + hash + ": " + e.getMessage());
+            out.send("ERROR:Archivo no disponible " + hash);
+        }
+    }
+
+    /**
+     * Solo puede descargar un archivo quien lo envió, el destinatario del
+     * privado o un miembro del canal. Lo recién anunciado con FILE_AVAILABLE
+     * aún puede no estar en la BD (el diario inserta por lotes), así que se
+     * acepta por {@link #offeredFiles}; lo aprobado por la BD se apunta ahí
+     * también para no repetir la consulta en cada tramo.
+     */
+    private boolean canDownload(String hash, ClientConnection out) {
+        Set<String> offered = offeredFiles.get(out);
+        if (offered != null && offered.contains(hash)) return true;
+        String user = getUsername(out);
+        try (Connection conn = db.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT 1 FROM messages m JOIN users s ON m.sender_id = s.id WHERE m.file = ? AND (s.username = ? OR m.destination = ? OR m.destination IN "
+                + "(SELECT CONCAT('#', c.name) FROM channels c JOIN channel_members cm ON c.id = cm.channel_id JOIN users u ON cm.user_id = u.id WHERE u.username = ?)) LIMIT 1")) {
+            stmt.setString(1, hash);
+            stmt.setString(2, user);
+            stmt.setString(3, user);
+            stmt.setString(4, user);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) return false;
+            }
+        } catch (SQLException e) {
+            log("Error al comprobar permisos de " + hash + ": " + e.getMessage());
+            return false;
+        }
+        offeredFiles.computeIfAbsent(out, c -> ConcurrentHashMap.newKeySet()).add(hash);
+        return true;
+    }
+
+    /** Guarda el archivo en el {@link BlobStore} (una vez por contenido) y devuelve su hash, o null si falla. */
+    private String saveFileOnServer(byte[] file, String fileName, String destination) {
+        try {
+            String hash = blobs.put(file);
+            log("Archivo " + fileName + " guardado en el servidor para " + destination + " (" + hash + ")");
+            return hash;
         } catch (IOException e) {
             log("Error al guardar archivo en el servidor: " + e.getMessage());
+            return null;
         }
     }
 
@@ -574,33 +1161,25 @@ public class ChatServer {
         return cryptoService.decrypt(encryptedData);
     }
 
-    private String getUsername(PrintWriter out) {
-        for (Map.Entry<String, PrintWriter> entry : clients.entrySet()) {
-            if (entry.getValue().equals(out)) {
-                return entry.getKey();
-            }
-        }
-        return null;
+    /** Descifra una línea Base64 en bytes, tal como llega del transporte. */
+    String decryptLine(byte[] base64Line) {
+        return new String(cryptoService.decrypt(Base64.getDecoder().decode(base64Line)), StandardCharsets.UTF_8);
+    }
+
+    /** Descifra el payload de una trama binaria. */
+    byte[] decrypt(byte[] encrypted) {
+        return cryptoService.decrypt(encrypted);
+    }
+
+    private String getUsername(ClientConnection out) {
+        return usernames.get(out);
     }
 
     public DatabaseConnection getDb() {
         return db;
     }
 
-    public Map<String, PrintWriter> getClients() {
+    public Map<String, ClientConnection> getClients() {
         return clients;
     }
-    private String computeChecksum(byte[] data) {
-    try {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        byte[] digest = md.digest(data);
-        StringBuilder sb = new StringBuilder();
-        for (byte b : digest) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
-    } catch (NoSuchAlgorithmException e) {
-        return "";
-    }
 }
-}
\ No newline at end of file
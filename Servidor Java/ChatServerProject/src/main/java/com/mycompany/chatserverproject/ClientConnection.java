@@ -0,0 +1,221 @@
+package com.mycompany.chatserverproject;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de salida acotada de una conexión de cliente. Quien envía solo encola;
+ * un escritor propio de la conexión (hilo dedicado en modo bloqueante, event
+ * loop en modo NIO) la vacía hacia el socket. Si el cliente no da abasto se
+ * aplica la {@link SlowConsumerPolicy} configurada, sin frenar al resto.
+ */
+public class ClientConnection {
+
+    public enum SlowConsumerPolicy {
+        /** Descarta la trama más antigua de la cola. */
+        DROP_OLDEST,
+        /** Cierra la conexión del cliente lento. */
+        DISCONNECT,
+        /** Conserva solo la última lista de presencia y, si aún no cabe, descarta la más antigua. */
+        COALESCE
+    }
+
+    /** Trama encolada; si trae {@code region}, ese tramo de archivo va justo después de {@code data}. */
+    static final class Frame {
+        final byte[] data;
+        final boolean presence;
+        final FileRegion region;
+
+        Frame(byte[] data, boolean presence, FileRegion region) {
+            this.data = data;
+            this.presence = presence;
+            this.region = region;
+        }
+    }
+
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final CryptoService crypto;
+    private volatile boolean binary;
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile Runnable readyListener;
+    private boolean closed;
+    private long dropped;
+
+    public ClientConnection(int capacity, SlowConsumerPolicy policy, CryptoService crypto) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.crypto = crypto;
+    }
+
+    /** Cifra el mensaje y lo encola con el formato de trama de esta conexión. */
+    public void send(String message) {
+        enqueue(encode(message), false);
+    }
+
+    /** Encola una lista de presencia (ONLINE_USERS), que puede fusionarse con la anterior. */
+    public void sendPresence(String message) {
+        enqueue(encode(message), true);
+    }
+
+    /**
+     * Encola un mensaje compartido por varios destinatarios: la trama se
+     * cifra y construye una sola vez y el mismo array se reutiliza.
+     */
+    public void send(WireMessage message) {
+        enqueue(message.frame(binary), false);
+    }
+
+    public void sendPresence(WireMessage message) {
+        enqueue(message.frame(binary), true);
+    }
+
+    /** Cifra y encola una trama binaria; solo válido tras negociar el protocolo binario. */
+    public void sendBinary(byte opcode, byte[] payload) {
+        enqueue(WireProtocol.binaryFrame(opcode, crypto.encrypt(payload)), false);
+    }
+
+    /**
+     * Encola {@code prefix} seguido de {@code count} bytes de {@code file}
+     * desde {@code position}; el escritor los envía sin pasar por el heap.
+     */
+    public void sendFileRegion(byte[] prefix, Path file, long position, long count) {
+        enqueue(new Frame(prefix, false, new FileRegion(file, position, count)));
+    }
+
+    private byte[] encode(String message) {
+        byte[] encrypted = crypto.encrypt(message.getBytes(StandardCharsets.UTF_8));
+        return binary
+            ? WireProtocol.binaryFrame(WireProtocol.OP_TEXT, encrypted)
+            : WireProtocol.textFrame(encrypted);
+    }
+
+    /** A partir de aquí las tramas salientes usan el protocolo binario negociado. */
+    void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    private void enqueue(byte[] data, boolean presence) {
+        enqueue(new Frame(data, presence, null));
+    }
+
+    private void enqueue(Frame frame) {
+        boolean presence = frame.presence;
+        lock.lock();
+        try {
+            if (closed) return;
+            if (presence && policy == SlowConsumerPolicy.COALESCE) {
+                removeQueuedPresence();
+            }
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DISCONNECT:
+                        closed = true;
+                        queue.clear();
+                        notEmpty.signalAll();
+                        break;
+                    case COALESCE:
+                    case DROP_OLDEST:
+                    default:
+                        queue.pollFirst();
+                        dropped++;
+                        break;
+                }
+            }
+            if (!closed) {
+                queue.addLast(frame);
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        Runnable listener = readyListener;
+        if (listener != null) listener.run();
+    }
+
+    private void removeQueuedPresence() {
+        Iterator<Frame> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().presence) {
+                it.remove();
+                dropped++;
+            }
+        }
+    }
+
+    /** Siguiente trama o null si la cola está vacía. No bloquea. */
+    Frame poll() {
+        lock.lock();
+        try {
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Espera la siguiente trama; devuelve null cuando la conexión se ha cerrado. */
+    Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Aviso para el escritor NIO de que hay tramas o un cierre pendiente. */
+    void setReadyListener(Runnable readyListener) {
+        this.readyListener = readyListener;
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Tramas descartadas por la política de cliente lento. */
+    public long getDroppedFrames() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
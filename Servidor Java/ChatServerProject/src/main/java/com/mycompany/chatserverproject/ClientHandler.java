@@ -10,37 +10,67 @@ package com.mycompany.chatserverproject;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.Base64;
 
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, WireProtocol.FrameListener {
 
     private final Socket socket;
     private final ChatServer server;
-    private BufferedReader in;
-    private PrintWriter out;
-    private String username;
+    private final String remoteAddress;
+    private final Closeable connection;
+    private InputStream in;
+    private OutputStream socketOut;
+    private WritableByteChannel socketChannel;
+    private final ClientConnection out;
+    // Los lee el event loop NIO para fijar el límite de trama; los escribe el hilo de comandos
+    private volatile String username;
+    private volatile boolean negotiated;
     private volatile boolean running = true;
 
     public ClientHandler(Socket socket, ChatServer server) {
         this.socket = socket;
         this.server = server;
+        this.remoteAddress = socket.getInetAddress().getHostAddress();
+        this.connection = null;
+        this.out = server.newClientConnection();
         try {
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.out = new PrintWriter(socket.getOutputStream(), true);
+            this.in = socket.getInputStream();
+            this.socketOut = new BufferedOutputStream(socket.getOutputStream());
+            // Con SocketChannel, transferTo usa el envío directo del sistema operativo
+            this.socketChannel = socket.getChannel() != null
+                ? socket.getChannel()
+                : Channels.newChannel(socket.getOutputStream());
         } catch (IOException e) {
             System.err.println("Error al inicializar ClientHandler: " + e.getMessage());
         }
     }
 
+    /**
+     * Handler para transportes sin socket bloqueante (p. ej. NIO): las tramas
+     * llegan por {@link WireProtocol.FrameListener} y el transporte vacía
+     * {@code out}. Al detenerse se cierra {@code connection}.
+     */
+    ClientHandler(ChatServer server, ClientConnection out, String remoteAddress, Closeable connection) {
+        this.socket = null;
+        this.server = server;
+        this.out = out;
+        this.remoteAddress = remoteAddress;
+        this.connection = connection;
+    }
+
     @Override
     public void run() {
+        server.startThread(this::writeLoop);
+        WireProtocol.FrameDecoder decoder = new WireProtocol.FrameDecoder(this);
+        byte[] buf = new byte[8192];
         try {
-            String message;
-            while (running && (message = in.readLine()) != null) {
-                String decryptedMessage = server.decrypt(message);
-                System.out.println("Mensaje recibido de " + (username != null ? username : "cliente") + ": " + decryptedMessage);
-                handleMessage(decryptedMessage);
+            int n;
+            while (running && (n = in.read(buf)) != -1) {
+                decoder.feed(buf, 0, n);
             }
         } catch (IOException e) {
             if (running) {
@@ -51,19 +81,91 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /** Escritor dedicado: vacía la cola de salida hacia el socket. */
+    private void writeLoop() {
+        try {
+            ClientConnection.Frame frame;
+            while ((frame = out.take()) != null) {
+                socketOut.write(frame.data);
+                if (frame.region != null) {
+                    socketOut.flush();
+                    try {
+                        frame.region.transferTo(socketChannel);
+                    } finally {
+                        frame.region.close();
+                    }
+                }
+                if (out.isEmpty()) socketOut.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            if (running) {
+                System.err.println("Error al escribir a " + (username != null ? username : "cliente") + ": " + e.getMessage());
+            }
+        } finally {
+            // Cola cerrada por la política DISCONNECT o por stop()
+            stop();
+        }
+    }
+
     public void sendMessage(String message) {
-        if (out != null) {
-            out.println(server.encrypt(message));
+        out.send(message);
+    }
+
+    /** Línea del protocolo de texto: Base64 del comando cifrado. */
+    @Override
+    public void onTextLine(byte[] base64Line) {
+        if (!running) return;
+        handleDecrypted(server.decryptLine(base64Line));
+    }
+
+    /** Trama del protocolo binario negociado. */
+    @Override
+    public void onBinaryFrame(byte opcode, byte[] encryptedPayload) {
+        if (!running) return;
+        byte[] payload = server.decrypt(encryptedPayload);
+        if (opcode == WireProtocol.OP_TEXT) {
+            handleDecrypted(new String(payload, StandardCharsets.UTF_8));
+        } else if (opcode == WireProtocol.OP_CHUNK) {
+            if (username == null) return;
+            try {
+                server.receiveUploadChunk(username, WireProtocol.Chunk.parse(payload), out);
+            } catch (IOException e) {
+                System.err.println("Fragmento inválido de " + username + ": " + e.getMessage());
+            }
+        } else if (opcode == WireProtocol.OP_FILE) {
+            try {
+                WireProtocol.FilePayload f = WireProtocol.FilePayload.parse(payload);
+                handleFile(f.destination, f.sender, f.fileName, f.data);
+            } catch (IOException e) {
+                System.err.println("Trama de archivo inválida de " + username + ": " + e.getMessage());
+            }
         }
     }
 
+    /** Hasta iniciar sesión solo se aceptan tramas pequeñas (ver {@link WireProtocol#MAX_FRAME_BEFORE_LOGIN}). */
+    @Override
+    public int maxTextLine() {
+        return username != null ? WireProtocol.MAX_FRAME : WireProtocol.MAX_FRAME_BEFORE_LOGIN;
+    }
+
+    @Override
+    public int maxBinaryPayload() {
+        return negotiated ? maxTextLine() : WireProtocol.MAX_FRAME_BEFORE_NEGOTIATE;
+    }
+
+    private void handleDecrypted(String decryptedMessage) {
+        System.out.println("Mensaje recibido de " + (username != null ? username : "cliente") + ": " + decryptedMessage);
+        handleMessage(decryptedMessage);
+    }
+
     public void stop() {
         running = false;
         server.removeClient(out);
+        out.close();
         try {
             if (in != null) in.close();
-            if (out != null) out.close();
             if (socket != null && !socket.isClosed()) socket.close();
+            if (connection != null) connection.close();
         } catch (IOException e) {
             System.err.println("Error al cerrar ClientHandler: " + e.getMessage());
         }
@@ -77,7 +179,7 @@ public class ClientHandler implements Runnable {
             String email = parts[2];
             String password = parts[3];
             String photo = parts[4];
-            String ipAddress = socket.getInetAddress().getHostAddress();
+            String ipAddress = remoteAddress;
             if (server.registerUser(username, email, password, photo, ipAddress)) {
                 this.username = username;
                 server.addClient(username, out);
@@ -119,13 +221,31 @@ public class ClientHandler implements Runnable {
             String fileName = parts[3]; // Aquí se conserva el nombre original
             String encodedFile = parts[4];
             byte[] file = Base64.getDecoder().decode(encodedFile);
-
-            if (destination.startsWith("#")) {
-                String channel = destination.substring(1);
-                server.sendFileToChannel(channel, sender, fileName, file);
-            } else {
-                server.sendFileToUser(destination, sender, fileName, file);
+            handleFile(destination, sender, fileName, file);
+        } else if (message.startsWith("UPLOAD_START:")) {
+            // UPLOAD_START:id|destino|tamaño|nombre
+            String[] parts = message.substring("UPLOAD_START:".length()).split("\\|", 4);
+            if (parts.length < 4 || username == null) return;
+            try {
+                server.startUpload(username, parts[0], parts[1], parts[3], Long.parseLong(parts[2]), out);
+            } catch (NumberFormatException e) {
+                sendMessage("ERROR:Tamaño de archivo inválido");
+            }
+        } else if (message.startsWith("DOWNLOAD:")) {
+            // DOWNLOAD:id|offset|longitud|hash
+            String[] parts = message.substring("DOWNLOAD:".length()).split("\\|", 4);
+            if (parts.length < 4 || username == null) return;
+            try {
+                server.sendFileRange(parts[0], parts[3], Long.parseLong(parts[1]), Long.parseLong(parts[2]), out);
+            } catch (NumberFormatException e) {
+                sendMessage("ERROR:Rango de descarga inválido");
             }
+        } else if (message.equals(WireProtocol.NEGOTIATE)) {
+            // El acuse viaja aún en texto; después, todo lo saliente es binario.
+            // Los límites se suben antes del acuse: el cliente no envía tramas binarias hasta verlo
+            negotiated = true;
+            sendMessage(WireProtocol.NEGOTIATE_OK);
+            out.setBinary(true);
         } else if (message.startsWith("GET_ONLINE_USERS")) {
             server.sendOnlineUsers(out);
         } else if (message.startsWith("GET_REGISTERED_USERS")) {
@@ -144,12 +264,8 @@ public class ClientHandler implements Runnable {
             if (parts.length < 3) return;
             String channelName = parts[1];
             String targetUser = parts[2];
-            try (Connection conn = server.getDb().getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(
-                    "SELECT u.username FROM channels c JOIN users u ON c.creator_id = u.id WHERE c.name = ?")) {
-                stmt.setString(1, channelName);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next() && rs.getString("username").equals(username)) {
+            try {
+                if (username != null && username.equals(server.getChannelCreator(channelName))) {
                     server.addToChannel(channelName, targetUser);
                 } else {
                     sendMessage("ERROR:No eres administrador del canal");
@@ -175,6 +291,42 @@ public class ClientHandler implements Runnable {
             String channelName = parts[1];
             String requester = parts[2];
             server.rejectJoin(channelName, requester);
+        } else if (message.startsWith("GET_CHANNEL_HISTORY_PAGE:")) {
+            // GET_CHANNEL_HISTORY_PAGE:antesDeId:tamaño:canal
+            String[] parts = message.split(":", 4);
+            if (parts.length < 4) return;
+            try {
+                server.sendChannelHistoryPage(parts[3], Long.parseLong(parts[1]), Integer.parseInt(parts[2]), out);
+            } catch (NumberFormatException e) {
+                sendMessage("ERROR:Cursor de historial inválido");
+            }
+        } else if (message.startsWith("GET_CHAT_HISTORY_PAGE:")) {
+            // GET_CHAT_HISTORY_PAGE:antesDeId:tamaño:usuario
+            String[] parts = message.split(":", 4);
+            if (parts.length < 4) return;
+            try {
+                server.sendChatHistoryPage(parts[3], Long.parseLong(parts[1]), Integer.parseInt(parts[2]), out);
+            } catch (NumberFormatException e) {
+                sendMessage("ERROR:Cursor de historial inválido");
+            }
+        } else if (message.startsWith("GET_CHANNEL_HISTORY_SINCE:")) {
+            // GET_CHANNEL_HISTORY_SINCE:despuésDeId:tamaño:canal
+            String[] parts = message.split(":", 4);
+            if (parts.length < 4) return;
+            try {
+                server.sendChannelHistorySince(parts[3], Long.parseLong(parts[1]), Integer.parseInt(parts[2]), out);
+            } catch (NumberFormatException e) {
+                sendMessage("ERROR:Cursor de historial inválido");
+            }
+        } else if (message.startsWith("GET_CHAT_HISTORY_SINCE:")) {
+            // GET_CHAT_HISTORY_SINCE:despuésDeId:tamaño:usuario
+            String[] parts = message.split(":", 4);
+            if (parts.length < 4) return;
+            try {
+                server.sendChatHistorySince(parts[3], Long.parseLong(parts[1]), Integer.parseInt(parts[2]), out);
+            } catch (NumberFormatException e) {
+                sendMessage("ERROR:Cursor de historial inválido");
+            }
         } else if (message.startsWith("GET_CHANNEL_HISTORY:")) {
             String[] parts = message.split(":", 2);
             if (parts.length < 2) return;
@@ -192,4 +344,17 @@ public class ClientHandler implements Runnable {
             server.sendProfilePhoto(targetUser, out);
         }
     }
+
+    private void handleFile(String destination, String sender, String fileName, byte[] file) {
+        if (file.length > WireProtocol.MAX_INLINE_FILE) {
+            sendMessage("ERROR:Archivo demasiado grande para enviarlo entero; use la subida por partes");
+            return;
+        }
+        if (destination.startsWith("#")) {
+            String channel = destination.substring(1);
+            server.sendFileToChannel(channel, sender, fileName, file);
+        } else {
+            server.sendFileToUser(destination, sender, fileName, file);
+        }
+    }
 }
\ No newline at end of file
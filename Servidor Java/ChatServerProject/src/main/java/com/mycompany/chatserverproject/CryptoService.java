@@ -11,33 +11,141 @@ package com.mycompany.chatserverproject;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Base64;
 
 public class CryptoService {
     private static final String AES_KEY = "MySecretKey12345";
+    private static final SecretKeySpec KEY =
+        new SecretKeySpec(AES_KEY.getBytes(StandardCharsets.UTF_8), "AES");
 
-    public String encrypt(String data) {
+    // Cipher no es thread-safe: cada hilo reutiliza sus instancias ya inicializadas.
+    // En modo ECB doFinal deja el cipher listo para la siguiente operación; tras un
+    // error se descarta por si quedó en un estado inconsistente.
+    private static final ThreadLocal<Cipher> ENCRYPTOR = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+    private static final ThreadLocal<Cipher> DECRYPTOR = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
+    private static final ThreadLocal<Cipher> BLOCK_DECRYPTOR =
+        ThreadLocal.withInitial(() -> newCipher("AES/ECB/NoPadding", Cipher.DECRYPT_MODE));
+
+    private static Cipher newCipher(int mode) {
+        return newCipher("AES", mode);
+    }
+
+    private static Cipher newCipher(String transformation, int mode) {
         try {
-            SecretKeySpec key = new SecretKeySpec(AES_KEY.getBytes(StandardCharsets.UTF_8), "AES");
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            byte[] encrypted = cipher.doFinal(data.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(encrypted);
+            Cipher cipher = Cipher.getInstance(transformation);
+            cipher.init(mode, KEY);
+            return cipher;
         } catch (Exception e) {
+            throw new RuntimeException("Error al inicializar AES: " + e.getMessage());
+        }
+    }
+
+    public byte[] encrypt(byte[] data) {
+        try {
+            return ENCRYPTOR.get().doFinal(data);
+        } catch (Exception e) {
+            ENCRYPTOR.remove();
             throw new RuntimeException("Error al encriptar: " + e.getMessage());
         }
     }
 
-    public String decrypt(String encryptedData) {
+    public byte[] decrypt(byte[] encryptedData) {
         try {
-            SecretKeySpec key = new SecretKeySpec(AES_KEY.getBytes(StandardCharsets.UTF_8), "AES");
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, key);
-            byte[] decoded = Base64.getDecoder().decode(encryptedData);
-            return new String(cipher.doFinal(decoded), StandardCharsets.UTF_8);
+            return DECRYPTOR.get().doFinal(encryptedData);
         } catch (Exception e) {
+            DECRYPTOR.remove();
             throw new RuntimeException("Error al desencriptar: " + e.getMessage());
         }
     }
+
+    /**
+     * Cifra de {@code input} a {@code output} sin copias intermedias.
+     * {@code output} debe tener al menos {@link #encryptedSize(int)} bytes libres.
+     * @return bytes escritos en {@code output}
+     */
+    public int encrypt(ByteBuffer input, ByteBuffer output) {
+        try {
+            return ENCRYPTOR.get().doFinal(input, output);
+        } catch (Exception e) {
+            ENCRYPTOR.remove();
+            throw new RuntimeException("Error al encriptar: " + e.getMessage());
+        }
+    }
+
+    /** @return bytes escritos en {@code output} */
+    public int decrypt(ByteBuffer input, ByteBuffer output) {
+        try {
+            return DECRYPTOR.get().doFinal(input, output);
+        } catch (Exception e) {
+            DECRYPTOR.remove();
+            throw new RuntimeException("Error al desencriptar: " + e.getMessage());
+        }
+    }
+
+    /** Tamaño del texto cifrado para {@code plainLength} bytes (relleno PKCS5 incluido). */
+    public int encryptedSize(int plainLength) {
+        return ENCRYPTOR.get().getOutputSize(plainLength);
+    }
+
+    /**
+     * Cifra un archivo entero por bloques, sin cargarlo en memoria. El
+     * resultado es idéntico a {@link #encrypt(byte[])} sobre todo el contenido.
+     */
+    public void encryptFile(Path source, Path target) throws IOException {
+        Cipher cipher = newCipher(Cipher.ENCRYPT_MODE);
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = Files.newOutputStream(target)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                byte[] enc = cipher.update(buf, 0, n);
+                if (enc != null) out.write(enc);
+            }
+            out.write(cipher.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error al encriptar " + source + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Descifra un tramo alineado a 16 bytes de un texto cifrado con
+     * {@link #encrypt(byte[])}; si {@code last}, el tramo acaba en el bloque
+     * con relleno y éste se quita.
+     */
+    public byte[] decryptBlocks(byte[] data, int offset, int length, boolean last) {
+        try {
+            byte[] plain = BLOCK_DECRYPTOR.get().doFinal(data, offset, length);
+            if (!last || plain.length == 0) return plain;
+            int pad = plain[plain.length - 1] & 0xFF;
+            if (pad < 1 || pad > 16 || pad > plain.length) {
+                throw new IllegalStateException("Relleno inválido");
+            }
+            return Arrays.copyOf(plain, plain.length - pad);
+        } catch (Exception e) {
+            BLOCK_DECRYPTOR.remove();
+            throw new RuntimeException("Error al desencriptar: " + e.getMessage());
+        }
+    }
+
+    /** Tamaño cifrado de {@code plainLength} bytes con relleno PKCS5. */
+    public static long encryptedLength(long plainLength) {
+        return (plainLength / 16 + 1) * 16;
+    }
+
+    public String encrypt(String data) {
+        return Base64.getEncoder().encodeToString(encrypt(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public String decrypt(String encryptedData) {
+        return new String(decrypt(Base64.getDecoder().decode(encryptedData)), StandardCharsets.UTF_8);
+    }
 }
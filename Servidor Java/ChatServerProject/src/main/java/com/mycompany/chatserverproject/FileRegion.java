@@ -0,0 +1,57 @@
+package com.mycompany.chatserverproject;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tramo de un archivo encolado para enviarse tal cual al socket con
+ * {@link FileChannel#transferTo}: los bytes no pasan por el heap. Lo
+ * consume el escritor de la conexión, en una o varias llamadas.
+ */
+final class FileRegion {
+    private final Path file;
+    private final long end;
+    private long position;
+    private FileChannel channel;
+
+    FileRegion(Path file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    /**
+     * Envía lo que admita {@code target}; en un canal no bloqueante puede
+     * quedarse a medias y se retoma en la siguiente llamada.
+     */
+    void transferTo(WritableByteChannel target) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        while (position < end) {
+            long n = channel.transferTo(position, end - position, target);
+            if (n <= 0) {
+                if (position >= channel.size()) throw new IOException("Archivo truncado: " + file);
+                break; // Socket lleno
+            }
+            position += n;
+        }
+        if (position >= end) close();
+    }
+
+    boolean isDone() {
+        return position >= end;
+    }
+
+    void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,164 @@
+package com.mycompany.chatserverproject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subidas y descargas de archivos por partes. Cada subida se escribe en un
+ * archivo {@code .part} bajo {@code server_files/.uploads/<remitente>/}; su
+ * tamaño es el offset confirmado, así que una subida interrumpida se reanuda
+ * desde ahí aunque el servidor se haya reiniciado. Al completarse, el archivo
+ * pasa al {@link BlobStore}. En memoria solo vive el fragmento en curso.
+ */
+public class FileTransferService {
+    /** Máximo servido por cada petición DOWNLOAD; la trama OP_RANGE debe caber en WireProtocol.MAX_FRAME. */
+    public static final int MAX_WINDOW = 2 * 1024 * 1024;
+
+    private final Path uploadsDir;
+    private final BlobStore blobs;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    /** Subida en curso de un remitente. */
+    public static final class Upload {
+        public final String sender;
+        public final String id;
+        public final String destination;
+        public final String fileName;
+        public final long size;
+        private final Path partFile;
+        private FileChannel channel;
+        private long offset;
+        private boolean resyncSent;
+
+        private Upload(String sender, String id, String destination, String fileName, long size, Path partFile) {
+            this.sender = sender;
+            this.id = id;
+            this.destination = destination;
+            this.fileName = fileName;
+            this.size = size;
+            this.partFile = partFile;
+        }
+
+        public synchronized long getOffset() {
+            return offset;
+        }
+    }
+
+    public FileTransferService(Path uploadsDir, BlobStore blobs) {
+        this.uploadsDir = uploadsDir.toAbsolutePath().normalize();
+        this.blobs = blobs;
+    }
+
+    /**
+     * Registra (o retoma) una subida; su {@link Upload#getOffset()} indica
+     * desde dónde debe continuar el cliente.
+     */
+    public Upload startUpload(String sender, String id, String destination, String fileName, long size) throws IOException {
+        if (!id.matches("[A-Za-z0-9-]{1,64}") || size < 0) {
+            throw new IOException("Subida inválida: " + id);
+        }
+        String key = sender + "/" + id;
+        Upload previous = uploads.remove(key);
+        if (previous != null) closeQuietly(previous);
+
+        Path dir = uploadsDir.resolve(safeName(sender));
+        Files.createDirectories(dir);
+        Path partFile = dir.resolve(id + ".part");
+        Upload upload = new Upload(sender, id, destination, safeName(fileName), size, partFile);
+        upload.channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        long existing = upload.channel.size();
+        if (existing > size) {
+            upload.channel.truncate(0);
+            existing = 0;
+        }
+        upload.offset = existing;
+        uploads.put(key, upload);
+        return upload;
+    }
+
+    public Upload getUpload(String sender, String id) {
+        return uploads.get(sender + "/" + id);
+    }
+
+    /** Resultado de {@link #append}. */
+    public enum AppendResult {
+        WRITTEN,
+        /** Desajuste: hay que pedir al cliente que retome desde {@link Upload#getOffset()}. */
+        RESYNC,
+        /** Fragmento en vuelo tras un RESYNC ya enviado; se descarta sin avisar otra vez. */
+        IGNORED
+    }
+
+    /** Escribe un fragmento si es válido y llega en el offset esperado. */
+    public AppendResult append(Upload upload, WireProtocol.Chunk chunk) throws IOException {
+        synchronized (upload) {
+            if (upload.channel == null) return AppendResult.IGNORED;
+            if (chunk.offset != upload.offset || !chunk.isValid()
+                    || upload.offset + chunk.data.length > upload.size) {
+                if (upload.resyncSent) return AppendResult.IGNORED;
+                upload.resyncSent = true;
+                return AppendResult.RESYNC;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(chunk.data);
+            long pos = upload.offset;
+            while (buf.hasRemaining()) {
+                pos += upload.channel.write(buf, pos);
+            }
+            upload.offset = pos;
+            upload.resyncSent = false;
+            return AppendResult.WRITTEN;
+        }
+    }
+
+    /** true si ya se recibió todo el archivo. */
+    public boolean isComplete(Upload upload) {
+        synchronized (upload) {
+            return upload.channel != null && upload.offset == upload.size;
+        }
+    }
+
+    /** Cierra la subida y pasa el archivo al almacén; devuelve su hash. */
+    public String complete(Upload upload) throws IOException {
+        synchronized (upload) {
+            uploads.remove(upload.sender + "/" + upload.id, upload);
+            upload.channel.force(false);
+            upload.channel.close();
+            upload.channel = null;
+            return blobs.putFile(upload.partFile);
+        }
+    }
+
+    /** Libera los archivos abiertos de un remitente; los .part quedan para reanudar. */
+    public void release(String sender) {
+        uploads.values().removeIf(u -> {
+            if (!u.sender.equals(sender)) return false;
+            closeQuietly(u);
+            return true;
+        });
+    }
+
+    private static String safeName(String name) {
+        Path p = Paths.get(name).getFileName();
+        if (p == null || p.toString().equals("..")) {
+            throw new IllegalArgumentException("Nombre de archivo inválido: " + name);
+        }
+        return p.toString();
+    }
+
+    private static void closeQuietly(Upload upload) {
+        synchronized (upload) {
+            try {
+                if (upload.channel != null) upload.channel.close();
+            } catch (IOException ignore) {
+            }
+            upload.channel = null;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.mycompany.chatserverproject;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché en memoria de los mensajes recientes de cada canal. Cada canal tiene
+ * un búfer circular con sus últimos {@code capacity} mensajes ya guardados
+ * (con su id de la base de datos, que es el cursor de las páginas). Se llena
+ * desde la base de datos la primera vez que alguien pide el historial del
+ * canal y luego se mantiene con lo que va guardando el {@link MessageJournal}.
+ *
+ * Lo que el búfer no cubre (páginas más antiguas) se sigue pidiendo a la
+ * base de datos. Los canales se desalojan por LRU al superar el número de
+ * canales o la memoria estimada configurados.
+ */
+public class HistoryCache {
+
+    /** Mensaje guardado, tal como sale de {@code messages}. */
+    public static final class Row {
+        final long id;
+        final Timestamp timestamp;
+        final String sender;
+        final String message;
+        final String file;
+
+        public Row(long id, Timestamp timestamp, String sender, String message, String file) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.sender = sender;
+            this.message = message;
+            this.file = file;
+        }
+
+        /** Memoria aproximada que ocupa en la caché. */
+        long footprint() {
+            return 96 + 2L * (length(sender) + length(message) + length(file));
+        }
+
+        private static int length(String s) {
+            return s != null ? s.length() : 0;
+        }
+    }
+
+    /** Página servida: filas en orden cronológico. */
+    public static final class Page {
+        final List<Row> rows;
+        final boolean hasMore;
+
+        Page(List<Row> rows, boolean hasMore) {
+            this.rows = rows;
+            this.hasMore = hasMore;
+        }
+    }
+
+    /** Carga los {@code limit} mensajes más recientes de un destino, del más nuevo al más antiguo. */
+    public interface Loader {
+        List<Row> loadLatest(String destination, int limit) throws SQLException;
+    }
+
+    private static final class Ring {
+        final ArrayDeque<Row> rows = new ArrayDeque<>();
+        boolean loaded;
+        /** true si el búfer tiene todos los mensajes del canal (no hay más antiguos en la BD). */
+        boolean complete;
+        long bytes;
+        /** Fuera del mapa: lo que aún lo use ya no cuenta para la memoria total. */
+        boolean evicted;
+    }
+
+    private volatile int capacity = 200;
+    private volatile int maxChannels = 512;
+    private volatile long maxBytes = 32L * 1024 * 1024;
+    private final LinkedHashMap<String, Ring> rings = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    public void setMaxChannels(int maxChannels) {
+        this.maxChannels = Math.max(1, maxChannels);
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    /**
+     * Hasta {@code pageSize} mensajes anteriores a {@code beforeId} (0 = los
+     * más recientes), o null si el búfer no alcanza y hay que ir a la base
+     * de datos. Si el canal no está en caché se carga con {@code loader}; las
+     * peticiones simultáneas del mismo canal esperan a esa única carga.
+     */
+    public Page page(String destination, long beforeId, int pageSize, Loader loader) throws SQLException {
+        Ring ring = ring(destination);
+        boolean loadedNow;
+        Page page = null;
+        synchronized (ring) {
+            loadedNow = ensureLoaded(destination, ring, loader);
+            long before = beforeId > 0 ? beforeId : Long.MAX_VALUE;
+            ArrayList<Row> older = new ArrayList<>(pageSize + 1);
+            Iterator<Row> it = ring.rows.descendingIterator();
+            while (it.hasNext() && older.size() <= pageSize) {
+                Row row = it.next();
+                if (row.id < before) older.add(row);
+            }
+            if (older.size() > pageSize) {
+                older.remove(older.size() - 1);
+                Collections.reverse(older);
+                page = new Page(older, true);
+            } else if (ring.complete) {
+                Collections.reverse(older);
+                page = new Page(older, false);
+            }
+        }
+        (loadedNow || page == null ? misses : hits).incrementAndGet();
+        evictIfNeeded(destination);
+        return page;
+    }
+
+    /**
+     * Hasta {@code limit} mensajes posteriores a {@code afterId}, en orden
+     * cronológico, o null si el búfer ya no llega tan atrás. Es la sincronización
+     * incremental de los clientes que guardan el historial en local.
+     */
+    public Page since(String destination, long afterId, int limit, Loader loader) throws SQLException {
+        Ring ring = ring(destination);
+        boolean loadedNow;
+        Page page = null;
+        synchronized (ring) {
+            loadedNow = ensureLoaded(destination, ring, loader);
+            Row first = ring.rows.peekFirst();
+            if (ring.complete || (first != null && first.id <= afterId)) {
+                ArrayList<Row> newer = new ArrayList<>(Math.min(limit + 1, ring.rows.size()));
+                for (Row row : ring.rows) {
+                    if (row.id <= afterId) continue;
+                    if (newer.size() == limit) {
+                        page = new Page(newer, true);
+                        break;
+                    }
+                    newer.add(row);
+                }
+                if (page == null) page = new Page(newer, false);
+            }
+        }
+        (loadedNow || page == null ? misses : hits).incrementAndGet();
+        evictIfNeeded(destination);
+        return page;
+    }
+
+    /** Todo el historial del canal si cabe entero en el búfer; si no, null. */
+    public List<Row> all(String destination, Loader loader) throws SQLException {
+        Ring ring = ring(destination);
+        boolean loadedNow;
+        List<Row> rows = null;
+        synchronized (ring) {
+            loadedNow = ensureLoaded(destination, ring, loader);
+            if (ring.complete) rows = new ArrayList<>(ring.rows);
+        }
+        (loadedNow || rows == null ? misses : hits).incrementAndGet();
+        evictIfNeeded(destination);
+        return rows;
+    }
+
+    /**
+     * Mensaje recién guardado. Solo se añade a canales ya en caché; si la
+     * base de datos no devolvió su id ({@code row.id <= 0}) el canal se
+     * descarta para que la próxima lectura lo recargue.
+     */
+    public void append(String destination, Row row) {
+        Ring ring;
+        synchronized (this) {
+            ring = rings.get(destination);
+        }
+        if (ring == null) return;
+        if (row.id <= 0) {
+            invalidate(destination);
+            return;
+        }
+        synchronized (ring) {
+            if (!ring.loaded) return;
+            if (!ring.rows.isEmpty() && ring.rows.peekLast().id >= row.id) return;
+            add(ring, row);
+            while (ring.rows.size() > capacity) {
+                removeOldest(ring);
+            }
+        }
+        evictIfNeeded(destination);
+    }
+
+    public void invalidate(String destination) {
+        Ring ring;
+        synchronized (this) {
+            ring = rings.remove(destination);
+        }
+        if (ring != null) release(ring);
+    }
+
+    private synchronized Ring ring(String destination) {
+        return rings.computeIfAbsent(destination, k -> new Ring());
+    }
+
+    private boolean ensureLoaded(String destination, Ring ring, Loader loader) throws SQLException {
+        if (ring.loaded) return false;
+        int limit = capacity;
+        List<Row> latest = loader.loadLatest(destination, limit + 1);
+        clear(ring);
+        ring.complete = latest.size() <= limit;
+        for (int i = Math.min(latest.size(), limit) - 1; i >= 0; i--) {
+            add(ring, latest.get(i));
+        }
+        ring.loaded = true;
+        return true;
+    }
+
+    private void add(Ring ring, Row row) {
+        ring.rows.addLast(row);
+        ring.bytes += row.footprint();
+        if (!ring.evicted) totalBytes.addAndGet(row.footprint());
+    }
+
+    private void removeOldest(Ring ring) {
+        Row oldest = ring.rows.pollFirst();
+        ring.bytes -= oldest.footprint();
+        if (!ring.evicted) totalBytes.addAndGet(-oldest.footprint());
+        ring.complete = false;
+    }
+
+    private void clear(Ring ring) {
+        if (!ring.evicted) totalBytes.addAndGet(-ring.bytes);
+        ring.rows.clear();
+        ring.bytes = 0;
+    }
+
+    private void release(Ring ring) {
+        synchronized (ring) {
+            clear(ring);
+            ring.loaded = false;
+            ring.evicted = true;
+        }
+    }
+
+    /** Desaloja los canales menos usados (sin tocar el que se acaba de usar). */
+    private void evictIfNeeded(String current) {
+        while (true) {
+            Ring victim;
+            synchronized (this) {
+                if (rings.size() <= maxChannels && totalBytes.get() <= maxBytes) return;
+                Iterator<Map.Entry<String, Ring>> it = rings.entrySet().iterator();
+                Map.Entry<String, Ring> eldest = it.hasNext() ? it.next() : null;
+                if (eldest == null || eldest.getKey().equals(current)) return;
+                it.remove();
+                victim = eldest.getValue();
+            }
+            release(victim);
+            evictions.incrementAndGet();
+        }
+    }
+
+    // ─── Métricas ───────────────────────────────────
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getEstimatedBytes() {
+        return totalBytes.get();
+    }
+
+    public synchronized int getChannelCount() {
+        return rings.size();
+    }
+
+    /** Resumen legible para los informes del servidor. */
+    public String getStats() {
+        long h = hits.get(), m = misses.get();
+        double rate = h + m == 0 ? 0 : 100.0 * h / (h + m);
+        return String.format("Canales en caché: %d, Memoria estimada: %d KB, Aciertos: %d, Fallos: %d (%.1f%% de acierto), Desalojos: %d",
+            getChannelCount(), totalBytes.get() / 1024, h, m, rate, evictions.get());
+    }
+}
@@ -0,0 +1,77 @@
+package com.mycompany.chatserverproject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ids de usuarios y canales (y creador de cada canal) resueltos una sola vez
+ * por proceso, para que las sentencias del camino caliente liguen enteros en
+ * lugar de repetir {@code SELECT id FROM users WHERE username = ?}. Nombres
+ * e ids no cambian una vez creados, así que basta con alimentarla al
+ * registrar usuarios y crear canales; lo que no esté se busca en la base de
+ * datos la primera vez. Los nombres que no existen no se guardan.
+ */
+public class IdCache {
+    private final Map<String, Integer> userIds = new ConcurrentHashMap<>();
+    private final Map<String, Integer> channelIds = new ConcurrentHashMap<>();
+    private final Map<String, String> channelCreators = new ConcurrentHashMap<>();
+
+    /** Id del usuario o null si no existe. */
+    public Integer userId(Connection conn, String username) throws SQLException {
+        Integer id = userIds.get(username);
+        if (id != null || username == null) return id;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM users WHERE username = ?")) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) return null;
+                id = rs.getInt(1);
+            }
+        }
+        userIds.put(username, id);
+        return id;
+    }
+
+    /** Id del canal o null si no existe. */
+    public Integer channelId(Connection conn, String channel) throws SQLException {
+        Integer id = channelIds.get(channel);
+        if (id != null || channel == null) return id;
+        loadChannel(conn, channel);
+        return channelIds.get(channel);
+    }
+
+    /** Usuario que creó el canal o null si no existe. */
+    public String channelCreator(Connection conn, String channel) throws SQLException {
+        String creator = channelCreators.get(channel);
+        if (creator != null || channel == null) return creator;
+        loadChannel(conn, channel);
+        return channelCreators.get(channel);
+    }
+
+    private void loadChannel(Connection conn, String channel) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT c.id, u.username FROM channels c LEFT JOIN users u ON c.creator_id = u.id WHERE c.name = ?")) {
+            stmt.setString(1, channel);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) return;
+                channelIds.put(channel, rs.getInt(1));
+                String creator = rs.getString(2);
+                if (creator != null) channelCreators.put(channel, creator);
+            }
+        }
+    }
+
+    /** Usuario recién registrado. */
+    public void putUser(String username, int id) {
+        userIds.put(username, id);
+    }
+
+    /** Canal recién creado. */
+    public void putChannel(String channel, int id, String creator) {
+        channelIds.put(channel, id);
+        if (creator != null) channelCreators.put(channel, creator);
+    }
+}
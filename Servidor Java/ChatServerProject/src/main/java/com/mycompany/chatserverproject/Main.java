@@ -2,12 +2,15 @@ package com.mycompany.chatserverproject;
 
 import com.mycompany.configloaderproject.ConfigLoader;
 import com.mycompany.databaseconnectorproject.DatabaseConnector;
-import com.mycompany.databaseconnectorproject.DatabaseConnection;
+import com.mycompany.databaseconnectorproject.PoolSettings;
 import com.mycompany.chatserverproject.distributed.HeartbeatSender;
 import com.mycompany.chatserverproject.distributed.HeartbeatReceiver;
 import com.mycompany.chatserverproject.distributed.UserFileRegistry;
 import com.mycompany.chatserverproject.distributed.StateSyncService;
 
+import java.nio.file.Paths;
+import java.util.Map;
+
 
 public class Main {
     public static void main(String[] args) {
@@ -29,7 +32,22 @@ public class Main {
             if (dbPass == null) dbPass = "";
 
             System.out.println("[DEBUG] Conectando a la BD y creando ChatServer");
-            DatabaseConnection dbConn = new DatabaseConnector(dbUrl, dbUser, dbPass);
+            DatabaseConnector dbConn = new DatabaseConnector(dbUrl, dbUser, dbPass,
+                PoolSettings.fromConfig(config::getProperty));
+            // Listados, historial e informes van a su propio pool (o a la réplica si hay db_replica_url)
+            String replicaUrl = config.getProperty("db_replica_url");
+            String readPoolSize = config.getProperty("db_read_pool_max_total");
+            int readPoolMax = readPoolSize != null && !readPoolSize.trim().isEmpty()
+                ? Integer.parseInt(readPoolSize.trim())
+                : (replicaUrl != null && !replicaUrl.trim().isEmpty() ? 10 : 0);
+            if (readPoolMax > 0) {
+                PoolSettings readPool = PoolSettings.fromConfig(config::getProperty);
+                readPool.setMaxTotal(readPoolMax);
+                readPool.setMaxIdle(Math.min(readPool.getMaxIdle(), readPoolMax));
+                readPool.setMinIdle(Math.min(readPool.getMinIdle(), readPoolMax));
+                dbConn.setReadReplica(replicaUrl, config.getProperty("db_replica_user"),
+                    config.getProperty("db_replica_pass"), readPool);
+            }
             ChatServer server = ServerFactory.createServer(port, maxConnections, dbConn, null);
 
             System.out.println("[DEBUG] Configurando IDs y puertos distribuidos");
@@ -37,17 +55,77 @@ public class Main {
             int    syncPort = Integer.parseInt(config.getProperty("sync_port"));
 
             System.out.println("[DEBUG] Arrancando Heartbeats");
+            String syncCodec = config.getProperty("sync_codec");
+            boolean binarySync = syncCodec == null || !syncCodec.trim().equalsIgnoreCase("json");
             HeartbeatSender hbSender = new HeartbeatSender(serverId);
+            hbSender.setBinarySync(binarySync);
             hbSender.start();
             HeartbeatReceiver hbReceiver = new HeartbeatReceiver();
             hbReceiver.start();
             server.setHeartbeatReceiver(hbReceiver);
             server.setChatPort(port);
 
+            String transport = config.getProperty("transport");
+            if (transport != null && !transport.trim().isEmpty()) {
+                server.setTransport(transport.trim());
+            }
+            String nioWorkers = config.getProperty("nio_workers");
+            if (nioWorkers != null && !nioWorkers.trim().isEmpty()) {
+                server.setNioWorkers(Integer.parseInt(nioWorkers.trim()));
+            }
+            String nioCommandThreads = config.getProperty("nio_command_threads");
+            if (nioCommandThreads != null && !nioCommandThreads.trim().isEmpty()) {
+                server.setNioCommandThreads(Integer.parseInt(nioCommandThreads.trim()));
+            }
+            boolean virtualThreads = Boolean.parseBoolean(config.getProperty("virtual_threads"));
+            server.setVirtualThreads(virtualThreads);
+            String queueSize = config.getProperty("outbound_queue_size");
+            if (queueSize != null && !queueSize.trim().isEmpty()) {
+                server.setOutboundQueueSize(Integer.parseInt(queueSize.trim()));
+            }
+            String slowPolicy = config.getProperty("slow_consumer_policy");
+            if (slowPolicy != null && !slowPolicy.trim().isEmpty()) {
+                server.setSlowConsumerPolicy(
+                    ClientConnection.SlowConsumerPolicy.valueOf(slowPolicy.trim().toUpperCase()));
+            }
+
+            String journalBatch = config.getProperty("journal_batch_size");
+            if (journalBatch != null && !journalBatch.trim().isEmpty()) {
+                server.setJournalBatchSize(Integer.parseInt(journalBatch.trim()));
+            }
+            String journalFlush = config.getProperty("journal_flush_ms");
+            if (journalFlush != null && !journalFlush.trim().isEmpty()) {
+                server.setJournalFlushMillis(Long.parseLong(journalFlush.trim()));
+            }
+            String cacheSize = config.getProperty("history_cache_size");
+            if (cacheSize != null && !cacheSize.trim().isEmpty()) {
+                server.setHistoryCacheSize(Integer.parseInt(cacheSize.trim()));
+            }
+            String cacheChannels = config.getProperty("history_cache_channels");
+            if (cacheChannels != null && !cacheChannels.trim().isEmpty()) {
+                server.setHistoryCacheChannels(Integer.parseInt(cacheChannels.trim()));
+            }
+            String cacheMb = config.getProperty("history_cache_max_mb");
+            if (cacheMb != null && !cacheMb.trim().isEmpty()) {
+                server.setHistoryCacheMaxBytes(Long.parseLong(cacheMb.trim()) * 1024 * 1024);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "ChatServer-shutdown"));
+
             System.out.println("[DEBUG] Arrancando StateSyncService");
             UserFileRegistry registry = new UserFileRegistry();
             StateSyncService syncService =
-                new StateSyncService(syncPort, registry, hbReceiver);
+                new StateSyncService(syncPort, registry, hbReceiver, virtualThreads);
+            String syncBatch = config.getProperty("sync_batch_ms");
+            if (syncBatch != null && !syncBatch.trim().isEmpty()) {
+                syncService.setBatchWindowMillis(Long.parseLong(syncBatch.trim()));
+            }
+            String syncLog = config.getProperty("sync_log_size");
+            if (syncLog != null && !syncLog.trim().isEmpty()) {
+                syncService.setLogSize(Integer.parseInt(syncLog.trim()));
+            }
+            syncService.setServerId(serverId);
+            syncService.setBinaryCodec(binarySync);
+            syncService.setStateFile(Paths.get("server_files", "sync_state.json"));
             syncService.start();
 
             System.out.println("[DEBUG] Montando UI distribuida");
@@ -68,17 +146,19 @@ public class Main {
             }
 
             if (hbReceiver.getLiveServers().isEmpty()) {
-                System.err.println("[WARN] No se descubrió ningún peer vivo en 10s; salto full-dump inicial");
+                System.err.println("[WARN] No se descubrió ningún peer vivo en 10s; salto la puesta al día inicial");
             } else {
                 Thread.sleep(500);  // margen para que el peer arranque su listener
 
-                System.out.println("[DEBUG] Lanzando full-dump inicial a peers: "
-                                   + hbReceiver.getLiveServers().values());
-                for (String peerHost : hbReceiver.getLiveServers().values()) {
+                // Cada peer manda solo lo suyo posterior a lo que ya teníamos guardado
+                System.out.println("[DEBUG] Poniéndose al día con peers: "
+                                   + hbReceiver.getLiveServers());
+                for (Map.Entry<String, String> peer : hbReceiver.getLiveServers().entrySet()) {
+                    if (peer.getKey().equals(serverId)) continue;
                     try {
-                        syncService.requestFullDump(peerHost, syncPort);
+                        syncService.catchUp(peer.getKey(), peer.getValue(), syncPort);
                     } catch (Exception ex) {
-                        System.err.println("[ERROR] sync con " + peerHost + ": " + ex.getMessage());
+                        System.err.println("[ERROR] sync con " + peer.getValue() + ": " + ex.getMessage());
                     }
                 }
             }
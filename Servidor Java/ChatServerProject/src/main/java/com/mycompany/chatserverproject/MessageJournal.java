@@ -0,0 +1,559 @@
+package com.mycompany.chatserverproject;
+
+import com.mycompany.databaseconnectorproject.DatabaseConnection;
+import com.mycompany.databaseconnectorproject.SchemaMigrations;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Persistencia diferida de mensajes. {@link #append} solo escribe el mensaje
+ * en un diario local de solo-añadir y lo encola; un hilo propio lo inserta
+ * en {@code messages} por lotes JDBC. Así la entrega nunca espera a la base
+ * de datos.
+ *
+ * El diario se parte en segmentos {@code journal-<n>.log} que empiezan con
+ * el siguiente número de secuencia. Cada lote guarda en la misma transacción
+ * la última secuencia insertada ({@code journal_checkpoint}); al arrancar se
+ * reinsertan solo las entradas posteriores, de modo que un corte no pierde
+ * ni duplica mensajes. Los segmentos ya confirmados se borran.
+ *
+ * En memoria hay como mucho {@link #MAX_QUEUED} entradas: si la base de
+ * datos no da abasto (o está caída), lo que no cabe queda solo en el diario
+ * y el escritor lo relee por tandas, igual que lo pendiente al arrancar.
+ *
+ * La fila del checkpoint es propia de cada diario ({@code journal.id}, un
+ * UUID creado con el directorio): los servidores del clúster pueden
+ * compartir la base de datos sin moverse el checkpoint unos a otros.
+ */
+public class MessageJournal {
+    /** Fila única de versiones anteriores, compartida por todos los servidores. */
+    private static final String LEGACY_CHECKPOINT = "messages";
+    private static final long SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    /** Entradas pendientes en memoria como mucho; el resto se relee del diario. */
+    private static final int MAX_QUEUED = 10_000;
+
+    /** Mensaje pendiente de guardar. */
+    static final class Entry {
+        final long seq;
+        final long timestamp;
+        final String sender;
+        final String destination;
+        final String message;
+        final String fileHash;
+
+        Entry(long seq, long timestamp, String sender, String destination, String message, String fileHash) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.sender = sender;
+            this.destination = destination;
+            this.message = message;
+            this.fileHash = fileHash;
+        }
+    }
+
+    private final Path dir;
+    private final DatabaseConnection db;
+    /** Fila de este diario en {@code journal_checkpoint}. */
+    private final String checkpointName;
+    /** Diario anterior a journal.id: su checkpoint aún está en la fila compartida. */
+    private final boolean legacyCheckpoint;
+    private final IdCache ids;
+    private final Consumer<String> log;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+    /** Segmentos cerrados: número → última secuencia que contienen. */
+    private final TreeMap<Long, Long> closedSegments = new TreeMap<>();
+    private volatile int batchSize = 200;
+    private volatile long flushMillis = 50;
+
+    // Protegidos por this
+    private long seq;
+    private long segment;
+    private long segmentBytes;
+    private FileChannel channel;
+    private long committedSeq;
+    /** Primera secuencia que solo está en el diario, no en la cola (0 si no hay). */
+    private long spillFrom;
+    private boolean closed;
+
+    private Thread writer;
+    private volatile PersistListener listener;
+
+    /** Aviso tras cada lote confirmado, con el id que la base de datos dio a cada mensaje (0 si no se supo). */
+    public interface PersistListener {
+        void persisted(long id, Entry entry);
+    }
+
+    public MessageJournal(Path dir, DatabaseConnection db, IdCache ids,
+                          Consumer<String> log) throws IOException {
+        this.dir = dir.toAbsolutePath().normalize();
+        this.db = db;
+        this.ids = ids;
+        this.log = log;
+        Files.createDirectories(this.dir);
+        Path idFile = this.dir.resolve("journal.id");
+        boolean fresh = !Files.exists(idFile);
+        if (fresh) {
+            Files.writeString(idFile, UUID.randomUUID().toString());
+        }
+        this.checkpointName = "journal:" + Files.readString(idFile).trim();
+        recover();
+        this.legacyCheckpoint = fresh && segment > 0;
+        openSegment(segment + 1);
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void setFlushMillis(long flushMillis) {
+        this.flushMillis = Math.max(1, flushMillis);
+    }
+
+    public void setPersistListener(PersistListener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (writer != null) return;
+        writer = new Thread(this::writeLoop, "MessageJournal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Registra el mensaje en el diario y lo deja para el escritor. Solo
+     * toca el disco local; devuelve false si ni siquiera eso fue posible.
+     */
+    public boolean append(String sender, String destination, String message, String fileHash) {
+        Entry entry;
+        synchronized (this) {
+            if (closed) return false;
+            // Al segundo, como la columna timestamp: la caché y la BD muestran la misma hora
+            long now = System.currentTimeMillis() / 1000 * 1000;
+            entry = new Entry(seq + 1, now, sender, destination, message, fileHash);
+            try {
+                if (segmentBytes >= SEGMENT_SIZE) rotate();
+                ByteBuffer record = encode(entry);
+                while (record.hasRemaining()) {
+                    segmentBytes += channel.write(record);
+                }
+            } catch (IOException e) {
+                log.accept("Error al escribir el diario de mensajes: " + e.getMessage());
+                return false;
+            }
+            seq = entry.seq;
+            // Tras el primer desborde todo va solo al diario, para no adelantar a lo que espera en él
+            if (spillFrom == 0 && !queue.offer(entry)) {
+                spillFrom = entry.seq;
+            }
+        }
+        return true;
+    }
+
+    /** Mensajes en el diario que aún no están en la base de datos. */
+    public synchronized int getPendingCount() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, seq - committedSeq));
+    }
+
+    private synchronized boolean isDrained() {
+        return committedSeq >= seq;
+    }
+
+    /** Intenta vaciar lo pendiente durante {@code timeoutMillis} y cierra el diario. */
+    public void close(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!isDrained() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (this) {
+            closed = true;
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+        if (writer != null) writer.interrupt();
+    }
+
+    // ─── Escritor ───────────────────────────────────
+    private void writeLoop() {
+        long checkpoint = loadCheckpoint();
+        if (checkpoint < 0) return;
+        synchronized (this) {
+            // Lo posterior al checkpoint (de antes del arranque o ya encolado) se relee de los segmentos
+            if (seq > checkpoint) {
+                spillFrom = checkpoint + 1;
+                queue.clear();
+                log.accept("Reinsertando " + (seq - checkpoint) + " mensajes del diario");
+            }
+        }
+        ArrayDeque<Entry> backlog = new ArrayDeque<>();
+        List<Entry> batch = new ArrayList<>();
+        long backoff = 0;
+        try {
+            markCommitted(checkpoint);
+        } catch (IOException e) {
+            log.accept("Error al limpiar el diario de mensajes: " + e.getMessage());
+        }
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (backoff > 0) {
+                    Thread.sleep(backoff);
+                } else if (batch.isEmpty()) {
+                    // Lo encolado es anterior a lo que solo está en disco: se relee al vaciar la cola
+                    if (backlog.isEmpty() && queue.isEmpty()) reload(backlog);
+                    if (!backlog.isEmpty()) {
+                        // Lo releído del diario va antes que lo nuevo, en lotes normales
+                        while (batch.size() < batchSize && !backlog.isEmpty()) {
+                            batch.add(backlog.poll());
+                        }
+                    } else {
+                        Entry first = queue.poll(1, TimeUnit.SECONDS);
+                        if (first == null) {
+                            compact();
+                            continue;
+                        }
+                        batch.add(first);
+                        // Breve espera para juntar un lote más grande
+                        Thread.sleep(flushMillis);
+                    }
+                }
+                if (backlog.isEmpty()) {
+                    queue.drainTo(batch, Math.max(0, batchSize - batch.size()));
+                }
+                sync();
+                long[] ids = insert(batch);
+                markCommitted(batch.get(batch.size() - 1).seq);
+                notifyPersisted(batch, ids);
+                batch.clear();
+                backoff = 0;
+            } catch (InterruptedException e) {
+                break;
+            } catch (SQLException | IOException e) {
+                backoff = backoff == 0 ? 500 : Math.min(backoff * 2, MAX_BACKOFF_MS);
+                log.accept("Error al guardar mensajes (" + batch.size() + " pendientes), reintento en "
+                    + backoff + " ms: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Relee del diario la siguiente tanda (hasta {@link #MAX_QUEUED}) de lo
+     * que no está en la cola. Lo ilegible se da por perdido, como al arrancar.
+     */
+    private void reload(ArrayDeque<Entry> backlog) throws IOException {
+        long from;
+        long to;
+        TreeMap<Long, Long> closedCopy;
+        synchronized (this) {
+            if (spillFrom == 0) return;
+            from = spillFrom;
+            to = seq;
+            closedCopy = new TreeMap<>(closedSegments);
+        }
+        List<Entry> read = new ArrayList<>();
+        for (java.util.Map.Entry<Long, Path> f : segmentFiles().entrySet()) {
+            Long last = closedCopy.get(f.getKey());
+            if (last != null && last < from) continue;
+            readSegment(f.getValue(), e -> {
+                if (e.seq >= from && e.seq <= to && read.size() < MAX_QUEUED) read.add(e);
+            });
+            if (read.size() >= MAX_QUEUED) break;
+        }
+        backlog.addAll(read);
+        long lastRead = read.size() < MAX_QUEUED ? to : read.get(read.size() - 1).seq;
+        synchronized (this) {
+            // Lo añadido mientras tanto sigue solo en disco: va en la siguiente tanda
+            spillFrom = lastRead >= seq ? 0 : lastRead + 1;
+        }
+    }
+
+    private void notifyPersisted(List<Entry> batch, long[] ids) {
+        PersistListener l = listener;
+        if (l == null) return;
+        for (int i = 0; i < batch.size(); i++) {
+            if (ids[i] >= 0) l.persisted(ids[i], batch.get(i));
+        }
+    }
+
+    /** Inserta el lote en una transacción; devuelve el id de cada mensaje (-1 si no se insertó, 0 si no se supo). */
+    private long[] insert(List<Entry> batch) throws SQLException {
+        long[] messageIds = new long[batch.size()];
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // El remitente se liga por id (IdCache): sin subconsulta a users por mensaje
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO messages (sender_id, destination, message, file, timestamp, conversation) VALUES (?, ?, ?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    int inserted = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        Entry e = batch.get(i);
+                        Integer senderId = ids.userId(conn, e.sender);
+                        if (senderId == null) {
+                            messageIds[i] = -1;
+                            log.accept("Error: No se pudo registrar el mensaje, usuario " + e.sender + " no encontrado.");
+                            continue;
+                        }
+                        stmt.setInt(1, senderId);
+                        stmt.setString(2, e.destination);
+                        stmt.setString(3, e.message);
+                        stmt.setString(4, e.fileHash);
+                        stmt.setTimestamp(5, new Timestamp(e.timestamp));
+                        stmt.setString(6, SchemaMigrations.conversationKey(e.sender, e.destination));
+                        stmt.addBatch();
+                        inserted++;
+                    }
+                    if (inserted > 0) stmt.executeBatch();
+                    try (ResultSet keys = inserted > 0 ? stmt.getGeneratedKeys() : null) {
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (messageIds[i] < 0) continue;
+                            messageIds[i] = keys.next() ? keys.getLong(1) : 0;
+                        }
+                    }
+                }
+                saveCheckpoint(conn, batch.get(batch.size() - 1).seq);
+                conn.commit();
+                return messageIds;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private long loadCheckpoint() {
+        long backoff = 500;
+        while (true) {
+            try (Connection conn = db.getConnection()) {
+                long last = readCheckpoint(conn, checkpointName);
+                if (last < 0 && legacyCheckpoint) {
+                    // Primera vez con journal.id: se parte de la fila compartida de antes
+                    last = readCheckpoint(conn, LEGACY_CHECKPOINT);
+                }
+                return Math.max(0, last);
+            } catch (SQLException e) {
+                log.accept("Diario de mensajes: base de datos no disponible, reintento en " + backoff + " ms");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    /** Última secuencia guardada en la fila {@code name}, o -1 si no existe. */
+    private static long readCheckpoint(Connection conn, String name) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT last_seq FROM journal_checkpoint WHERE name = ?")) {
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+    }
+
+    private void saveCheckpoint(Connection conn, long lastSeq) throws SQLException {
+        try (PreparedStatement update = conn.prepareStatement(
+                "UPDATE journal_checkpoint SET last_seq = ? WHERE name = ?")) {
+            update.setLong(1, lastSeq);
+            update.setString(2, checkpointName);
+            if (update.executeUpdate() > 0) return;
+        }
+        try (PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO journal_checkpoint (name, last_seq) VALUES (?, ?)")) {
+            insert.setString(1, checkpointName);
+            insert.setLong(2, lastSeq);
+            insert.executeUpdate();
+        }
+    }
+
+    /** Lleva a disco lo escrito antes de insertarlo, por si cae la máquina y no solo el proceso. */
+    private void sync() throws IOException {
+        FileChannel current;
+        synchronized (this) {
+            current = channel;
+        }
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // Segmento rotado: se forzó al cerrarlo
+        }
+    }
+
+    private synchronized void markCommitted(long lastSeq) throws IOException {
+        committedSeq = Math.max(committedSeq, lastSeq);
+        while (!closedSegments.isEmpty() && closedSegments.firstEntry().getValue() <= committedSeq) {
+            Files.deleteIfExists(segmentPath(closedSegments.pollFirstEntry().getKey()));
+        }
+    }
+
+    /** Sin nada pendiente, el segmento actual se cambia por uno vacío. */
+    private synchronized void compact() {
+        if (closed || committedSeq < seq || segmentBytes <= Long.BYTES) return;
+        try {
+            rotate();
+            markCommitted(committedSeq);
+        } catch (IOException e) {
+            log.accept("Error al compactar el diario de mensajes: " + e.getMessage());
+        }
+    }
+
+    // ─── Segmentos ──────────────────────────────────
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        closedSegments.put(segment, seq);
+        openSegment(segment + 1);
+    }
+
+    private void openSegment(long number) throws IOException {
+        segment = number;
+        channel = FileChannel.open(segmentPath(number),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(0, seq + 1);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        segmentBytes = Long.BYTES;
+    }
+
+    private Path segmentPath(long number) {
+        return dir.resolve("journal-" + number + ".log");
+    }
+
+    /** Segmentos en disco por número. */
+    private TreeMap<Long, Path> segmentFiles() throws IOException {
+        TreeMap<Long, Path> found = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "journal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    found.put(Long.parseLong(name.substring(8, name.length() - 4)), file);
+                } catch (NumberFormatException ignore) {
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Al arrancar solo se averigua hasta dónde llega el diario; las entradas
+     * pendientes las relee el escritor cuando conoce el checkpoint.
+     */
+    private void recover() throws IOException {
+        for (java.util.Map.Entry<Long, Path> f : segmentFiles().entrySet()) {
+            long maxSeq = readSegment(f.getValue(), e -> { });
+            closedSegments.put(f.getKey(), maxSeq);
+            seq = Math.max(seq, maxSeq);
+            segment = f.getKey();
+        }
+    }
+
+    /**
+     * Pasa cada entrada del segmento a {@code action} y devuelve la última
+     * secuencia que contiene; un registro truncado o corrupto marca su final.
+     */
+    private static long readSegment(Path file, Consumer<Entry> action) throws IOException {
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new java.io.BufferedInputStream(raw))) {
+            long maxSeq;
+            try {
+                maxSeq = in.readLong() - 1;
+            } catch (EOFException e) {
+                return 0;
+            }
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    long crc = in.readInt() & 0xFFFFFFFFL;
+                    if (length <= 0 || length > SEGMENT_SIZE) break;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 check = new CRC32();
+                    check.update(payload);
+                    if (check.getValue() != crc) break;
+                } catch (EOFException e) {
+                    break;
+                }
+                Entry entry = decode(payload);
+                action.accept(entry);
+                maxSeq = Math.max(maxSeq, entry.seq);
+            }
+            return maxSeq;
+        }
+    }
+
+    // Registro: [longitud:4][crc32:4][seq:8][fecha:8][remitente][destino][hash o ""][longitud:4][mensaje UTF-8]
+    private static ByteBuffer encode(Entry e) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + e.message.length());
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeLong(e.seq);
+        out.writeLong(e.timestamp);
+        out.writeUTF(e.sender);
+        out.writeUTF(e.destination);
+        out.writeUTF(e.fileHash != null ? e.fileHash : "");
+        byte[] message = e.message.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(message.length);
+        out.write(message);
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer record = ByteBuffer.allocate(8 + bytes.length);
+        record.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+        return record;
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(payload));
+        long seq = in.readLong();
+        long timestamp = in.readLong();
+        String sender = in.readUTF();
+        String destination = in.readUTF();
+        String hash = in.readUTF();
+        byte[] message = new byte[in.readInt()];
+        in.readFully(message);
+        return new Entry(seq, timestamp, sender, destination,
+            new String(message, StandardCharsets.UTF_8), hash.isEmpty() ? null : hash);
+    }
+}
@@ -0,0 +1,341 @@
+package com.mycompany.chatserverproject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transporte no bloqueante para ChatServer: un hilo acepta conexiones y un
+ * grupo pequeño de event loops (Selector) enmarca las tramas y vacía las
+ * colas de salida. Descifrar y ejecutar cada comando en {@link ClientHandler}
+ * (casi todos van a la base de datos) se hace en el executor {@code commands},
+ * en orden por conexión, para que JDBC nunca bloquee un event loop.
+ * El socket solo lo toca su event loop: los cierres pedidos desde otros
+ * hilos se le encolan, y el handler se detiene tras sus comandos pendientes.
+ * Se activa con {@code transport=nio} en config.properties.
+ */
+public class NioChatTransport {
+    private static final int READ_BUFFER_SIZE = 8192;
+    /** Comandos pendientes de una conexión a partir de los cuales se deja de leer su socket. */
+    private static final int MAX_PENDING_COMMANDS = 64;
+
+    private final int port;
+    private final int workers;
+    private final Executor commands;
+    private final ChatServer server;
+    private volatile boolean running = true;
+
+    public NioChatTransport(int port, int workers, Executor commands, ChatServer server) {
+        this.port = port;
+        this.workers = Math.max(1, workers);
+        this.commands = commands;
+        this.server = server;
+    }
+
+    /** Bloquea el hilo llamante aceptando conexiones, igual que el modo clásico. */
+    public void start() throws IOException {
+        EventLoop[] loops = new EventLoop[workers];
+        for (int i = 0; i < workers; i++) {
+            loops[i] = new EventLoop("NioEventLoop-" + i);
+            loops[i].start();
+        }
+        try (ServerSocketChannel acceptor = ServerSocketChannel.open()) {
+            acceptor.bind(new InetSocketAddress(port));
+            int next = 0;
+            while (running) {
+                SocketChannel channel = acceptor.accept();
+                if (!server.acceptsMoreClients()) {
+                    channel.close();
+                    continue;
+                }
+                channel.configureBlocking(false);
+                loops[next++ % loops.length].register(channel);
+            }
+        } finally {
+            running = false;
+            for (EventLoop loop : loops) loop.selector.wakeup();
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    // ─── Event loop ─────────────────────────────────
+    private final class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> closing = new ConcurrentLinkedQueue<>();
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /** Cierra la conexión en este hilo, nunca a mitad de una escritura suya. */
+        void requestClose(NioConnection conn) {
+            closing.add(conn);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    closePending();
+                    registerPending();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection conn = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) conn.read();
+                            if (key.isValid() && key.isWritable()) conn.flushPending();
+                        } catch (Exception e) {
+                            System.err.println("Error en conexión NIO " + conn.remoteAddress + ": " + e.getMessage());
+                            // Sin más eventos hasta que se cierre
+                            if (key.isValid()) key.interestOps(0);
+                            conn.shutdown();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error en " + getName() + ": " + e.getMessage());
+            } finally {
+                closePending();
+                try { selector.close(); } catch (IOException ignore) {}
+            }
+        }
+
+        private void closePending() {
+            NioConnection conn;
+            while ((conn = closing.poll()) != null) {
+                conn.closeNow();
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    NioConnection conn = new NioConnection(channel, this);
+                    server.logConnection(conn.remoteAddress);
+                } catch (IOException e) {
+                    System.err.println("Error al registrar conexión NIO: " + e.getMessage());
+                    try { channel.close(); } catch (IOException ignore) {}
+                }
+            }
+        }
+    }
+
+    // ─── Conexión ───────────────────────────────────
+    private final class NioConnection implements Closeable, WireProtocol.FrameListener {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final SelectionKey key;
+        private final String remoteAddress;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final WireProtocol.FrameDecoder decoder;
+        private final ClientConnection out;
+        private final ClientHandler handler;
+        // Solo los toca el event loop
+        private ByteBuffer writing;
+        private FileRegion region;
+        private boolean closed;
+        /** Tramas ya enmarcadas que esperan su turno en {@link #commands}, en orden de llegada. */
+        private final Queue<Runnable> inbound = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCommands = new AtomicInteger();
+        private final AtomicBoolean readPaused = new AtomicBoolean();
+        /** Ya se encoló la parada del handler: lo que llegue después se descarta. */
+        private final AtomicBoolean stopping = new AtomicBoolean();
+        /** El handler ya se detuvo; solo lo toca la tarea de comandos. */
+        private boolean stopped;
+
+        NioConnection(SocketChannel channel, EventLoop loop) throws IOException {
+            this.channel = channel;
+            this.loop = loop;
+            this.remoteAddress = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+            this.key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            this.out = server.newClientConnection();
+            this.out.setReadyListener(this::wantWrite);
+            this.handler = new ClientHandler(server, out, remoteAddress, this);
+            this.decoder = new WireProtocol.FrameDecoder(this);
+        }
+
+        @Override
+        public void onTextLine(byte[] base64Line) {
+            submit(() -> handler.onTextLine(base64Line));
+        }
+
+        @Override
+        public void onBinaryFrame(byte opcode, byte[] encryptedPayload) {
+            submit(() -> handler.onBinaryFrame(opcode, encryptedPayload));
+        }
+
+        @Override
+        public int maxTextLine() {
+            return handler.maxTextLine();
+        }
+
+        @Override
+        public int maxBinaryPayload() {
+            return handler.maxBinaryPayload();
+        }
+
+        /**
+         * Encola el comando; si no había otro en curso lanza la tarea que los
+         * ejecuta uno tras otro. Con demasiados pendientes deja de leer el
+         * socket hasta que la tarea los consuma.
+         */
+        private void submit(Runnable command) {
+            if (stopping.get()) return;
+            enqueue(command);
+        }
+
+        /**
+         * Detiene el handler cuando acaben los comandos ya encolados, en la
+         * tarea de comandos; su {@link #close()} vuelve luego al event loop.
+         */
+        void shutdown() {
+            if (!stopping.compareAndSet(false, true)) return;
+            enqueue(() -> {
+                stopped = true;
+                handler.stop();
+            });
+        }
+
+        private void enqueue(Runnable command) {
+            inbound.add(command);
+            int pending = pendingCommands.incrementAndGet();
+            if (pending == 1) {
+                commands.execute(this::runCommands);
+            } else if (pending >= MAX_PENDING_COMMANDS && !readPaused.get()) {
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+                readPaused.set(true);
+                // La tarea pudo vaciar la cola antes de ver la pausa
+                if (pendingCommands.get() < MAX_PENDING_COMMANDS) resumeRead();
+            }
+        }
+
+        private void runCommands() {
+            int left;
+            do {
+                Runnable command = inbound.poll();
+                try {
+                    if (!stopped) command.run();
+                } catch (Exception e) {
+                    System.err.println("Error en conexión NIO " + remoteAddress + ": " + e.getMessage());
+                    shutdown();
+                }
+                left = pendingCommands.decrementAndGet();
+                if (left < MAX_PENDING_COMMANDS && readPaused.get()) resumeRead();
+            } while (left > 0);
+        }
+
+        private void resumeRead() {
+            if (!readPaused.compareAndSet(true, false) || stopping.get()) return;
+            try {
+                key.interestOpsOr(SelectionKey.OP_READ);
+                key.selector().wakeup();
+            } catch (CancelledKeyException e) {
+                // La conexión ya se está cerrando
+            }
+        }
+
+        /** Lee lo disponible y pasa cada trama completa (texto o binaria) a la cola de comandos. */
+        void read() throws IOException {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                // Fin de flujo: no volver a leer y parar tras lo ya recibido
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+                shutdown();
+                return;
+            }
+            decoder.feed(readBuffer.array(), 0, readBuffer.position());
+            readBuffer.clear();
+        }
+
+        /** La cola de salida tiene tramas: pedir OP_WRITE al selector. */
+        private void wantWrite() {
+            try {
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+                key.selector().wakeup();
+            } catch (CancelledKeyException e) {
+                // La conexión ya se está cerrando
+            }
+        }
+
+        /** Escribe lo que admita el socket; este event loop es el escritor de la conexión. */
+        void flushPending() throws IOException {
+            while (true) {
+                if (writing == null && region == null) {
+                    ClientConnection.Frame frame = out.poll();
+                    if (frame == null) break;
+                    writing = ByteBuffer.wrap(frame.data);
+                    region = frame.region;
+                }
+                if (writing != null) {
+                    channel.write(writing);
+                    if (writing.hasRemaining()) return;
+                    writing = null;
+                }
+                if (region != null) {
+                    // Tramo de archivo: del page cache al socket sin pasar por el heap
+                    region.transferTo(channel);
+                    if (!region.isDone()) return;
+                    region = null;
+                }
+            }
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            if (out.isClosed()) {
+                // Cola cerrada por la política DISCONNECT
+                shutdown();
+                return;
+            }
+            // Una trama pudo llegar entre el último poll y el cambio de interés
+            if (!out.isEmpty()) wantWrite();
+        }
+
+        /** Lo llama {@link ClientHandler#stop()} desde cualquier hilo. */
+        @Override
+        public void close() {
+            if (Thread.currentThread() == loop) {
+                closeNow();
+            } else {
+                loop.requestClose(this);
+            }
+        }
+
+        private void closeNow() {
+            if (closed) return;
+            closed = true;
+            try {
+                if (region != null) region.close();
+                key.cancel();
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error al cerrar conexión NIO " + remoteAddress + ": " + e.getMessage());
+            }
+        }
+    }
+}
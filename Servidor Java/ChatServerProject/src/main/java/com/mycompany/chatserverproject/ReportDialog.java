@@ -0,0 +1,240 @@
+package com.mycompany.chatserverproject;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Ventana de informes. Las consultas van siempre en segundo plano
+ * ({@link SwingWorker}) y la tabla se llena por páginas a medida que se
+ * baja con la barra de desplazamiento; JTable solo pinta las filas visibles.
+ * La exportación a CSV recorre el informe entero escribiendo página a página.
+ */
+public class ReportDialog {
+    private final ChatServer server;
+    private final ReportEngine engine;
+
+    private JDialog dialog;
+    private JComboBox<ReportEngine.Report> reportBox;
+    private RowsModel model;
+    private JLabel status;
+    private JButton exportButton;
+    private JButton cancelButton;
+
+    /** Estado de la carga de la tabla; solo se toca en el hilo de Swing. */
+    private int generation;
+    private long nextKey;
+    private boolean loading;
+    private boolean finished;
+    private SwingWorker<Long, Long> export;
+
+    public ReportDialog(ChatServer server) {
+        this.server = server;
+        this.engine = new ReportEngine(server.getDb());
+    }
+
+    /** Muestra la ventana (se crea la primera vez); llamar desde el hilo de Swing. */
+    public void show(Component parent) {
+        if (dialog == null) {
+            build(parent);
+        }
+        dialog.setVisible(true);
+        dialog.toFront();
+        reload();
+    }
+
+    private void build(Component parent) {
+        dialog = new JDialog(SwingUtilities.getWindowAncestor(parent), "Informes del Servidor", Dialog.ModalityType.MODELESS);
+        dialog.setLayout(new BorderLayout(5, 5));
+
+        reportBox = new JComboBox<>(ReportEngine.Report.values());
+        reportBox.addActionListener(e -> reload());
+        exportButton = new JButton("Exportar CSV…");
+        exportButton.addActionListener(e -> exportCsv());
+        cancelButton = new JButton("Cancelar exportación");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> {
+            if (export != null) export.cancel(false);
+        });
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        top.add(new JLabel("Informe:"));
+        top.add(reportBox);
+        top.add(exportButton);
+        top.add(cancelButton);
+        dialog.add(top, BorderLayout.NORTH);
+
+        model = new RowsModel();
+        JTable table = new JTable(model);
+        JScrollPane scroll = new JScrollPane(table);
+        // A 40 filas del final se pide la página siguiente
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 40 * table.getRowHeight()) {
+                loadNextPage();
+            }
+        });
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Datos", scroll);
+        JTextArea summary = new JTextArea();
+        summary.setEditable(false);
+        tabs.addTab("Resumen", new JScrollPane(summary));
+        tabs.addChangeListener(e -> {
+            if (tabs.getSelectedIndex() == 1) summary.setText(summaryText());
+        });
+        dialog.add(tabs, BorderLayout.CENTER);
+
+        status = new JLabel(" ");
+        dialog.add(status, BorderLayout.SOUTH);
+
+        dialog.setSize(900, 600);
+        dialog.setLocationRelativeTo(parent);
+    }
+
+    /** Datos que ya están en memoria: clientes conectados, caché y pool. */
+    private String summaryText() {
+        StringBuilder text = new StringBuilder("Usuarios Conectados:\n");
+        if (server.getClients().isEmpty()) {
+            text.append("Ninguno\n");
+        } else {
+            for (String user : server.getClients().keySet()) {
+                text.append(user).append("\n");
+            }
+        }
+        text.append("\nCaché de Historial:\n").append(server.getHistoryCache().getStats()).append("\n");
+        text.append("\nPool de Conexiones:\n").append(server.getDb().getPoolStats()).append("\n");
+        text.append("\nEnlaces con Servidores:\n").append(server.getPeerLinkStats()).append("\n");
+        return text.toString();
+    }
+
+    private void reload() {
+        generation++;
+        nextKey = 0;
+        loading = false;
+        finished = false;
+        model.reset(((ReportEngine.Report) reportBox.getSelectedItem()).getColumns());
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (loading || finished) return;
+        loading = true;
+        int gen = generation;
+        long after = nextKey;
+        ReportEngine.Report report = (ReportEngine.Report) reportBox.getSelectedItem();
+        status.setText("Cargando " + report + "…");
+        new SwingWorker<ReportEngine.Page, Void>() {
+            @Override
+            protected ReportEngine.Page doInBackground() throws Exception {
+                return engine.page(report, after, ReportEngine.DEFAULT_PAGE_SIZE);
+            }
+
+            @Override
+            protected void done() {
+                if (gen != generation) return;
+                loading = false;
+                try {
+                    ReportEngine.Page page = get();
+                    model.append(page.rows);
+                    nextKey = page.lastKey;
+                    finished = page.last;
+                    status.setText(model.getRowCount() + " filas" + (finished ? "" : " (baja para cargar más)"));
+                } catch (InterruptedException | ExecutionException e) {
+                    finished = true;
+                    status.setText("Error al obtener el informe: " + cause(e).getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void exportCsv() {
+        ReportEngine.Report report = (ReportEngine.Report) reportBox.getSelectedItem();
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(report.name().toLowerCase() + ".csv"));
+        if (chooser.showSaveDialog(dialog) != JFileChooser.APPROVE_OPTION) return;
+        File target = chooser.getSelectedFile();
+
+        exportButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        export = new SwingWorker<Long, Long>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                try (Writer out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8)) {
+                    return engine.export(report, out, ReportEngine.DEFAULT_PAGE_SIZE, this::isCancelled, this::publish);
+                }
+            }
+
+            @Override
+            protected void process(List<Long> written) {
+                status.setText("Exportando " + report + ": " + written.get(written.size() - 1) + " filas…");
+            }
+
+            @Override
+            protected void done() {
+                exportButton.setEnabled(true);
+                cancelButton.setEnabled(false);
+                if (isCancelled()) {
+                    status.setText("Exportación cancelada; " + target.getName() + " quedó incompleto");
+                    return;
+                }
+                try {
+                    status.setText("Exportadas " + get() + " filas a " + target.getAbsolutePath());
+                } catch (InterruptedException | ExecutionException e) {
+                    status.setText("Error al exportar: " + cause(e).getMessage());
+                }
+            }
+        };
+        export.execute();
+    }
+
+    private static Throwable cause(Exception e) {
+        return e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /** Filas ya cargadas del informe en pantalla. */
+    private static final class RowsModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+        private String[] columns = new String[0];
+        private final ArrayList<String[]> rows = new ArrayList<>();
+
+        void reset(String[] columns) {
+            this.columns = columns;
+            rows.clear();
+            fireTableStructureChanged();
+        }
+
+        void append(List<String[]> page) {
+            if (page.isEmpty()) return;
+            int first = rows.size();
+            rows.addAll(page);
+            fireTableRowsInserted(first, rows.size() - 1);
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows.get(row)[column];
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.mycompany.chatserverproject;
+
+import com.mycompany.databaseconnectorproject.DatabaseConnection;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * Informes del servidor leídos por páginas. Cada página es una consulta por
+ * rango de clave primaria ({@code id > ? ORDER BY id LIMIT ?}) con su propia
+ * conexión de lectura, así que ningún informe carga la tabla entera ni
+ * retiene una conexión mientras el administrador lo mira. No toca Swing: se
+ * llama desde hilos de fondo.
+ */
+public class ReportEngine {
+
+    /** Informes disponibles; la primera columna de cada consulta es la clave de paginación. */
+    public enum Report {
+        USERS("Usuarios registrados", new String[] {"Id", "Usuario", "Email", "IP"},
+            "SELECT id, username, email, ip_address FROM users WHERE id > ? ORDER BY id LIMIT ?"),
+        // Primero se elige la página de canales y luego se agrupan solo sus miembros
+        CHANNELS("Canales y miembros", new String[] {"Id", "Canal", "Miembros"},
+            "SELECT c.id, c.name, GROUP_CONCAT(u.username) FROM "
+            + "(SELECT id, name FROM channels WHERE id > ? ORDER BY id LIMIT ?) c "
+            + "LEFT JOIN channel_members cm ON c.id = cm.channel_id "
+            + "LEFT JOIN users u ON cm.user_id = u.id "
+            + "GROUP BY c.id, c.name ORDER BY c.id"),
+        MESSAGES("Logs de mensajes", new String[] {"Id", "Fecha", "Remitente", "Destino", "Mensaje"},
+            "SELECT m.id, m.timestamp, u.username, m.destination, m.message FROM messages m "
+            + "JOIN users u ON m.sender_id = u.id WHERE m.id > ? ORDER BY m.id LIMIT ?");
+
+        private final String title;
+        private final String[] columns;
+        private final String sql;
+
+        Report(String title, String[] columns, String sql) {
+            this.title = title;
+            this.columns = columns;
+            this.sql = sql;
+        }
+
+        public String[] getColumns() {
+            return columns.clone();
+        }
+
+        @Override
+        public String toString() {
+            return title;
+        }
+    }
+
+    /** Página leída: filas, clave de la última fila (cursor de la siguiente) y si ya no quedan más. */
+    public static final class Page {
+        final List<String[]> rows;
+        final long lastKey;
+        final boolean last;
+
+        Page(List<String[]> rows, long lastKey, boolean last) {
+            this.rows = rows;
+            this.lastKey = lastKey;
+            this.last = last;
+        }
+    }
+
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    private final DatabaseConnection db;
+
+    public ReportEngine(DatabaseConnection db) {
+        this.db = db;
+    }
+
+    /** Hasta {@code pageSize} filas con clave mayor que {@code afterKey} (0 = desde el principio). */
+    public Page page(Report report, long afterKey, int pageSize) throws SQLException {
+        List<String[]> rows = new ArrayList<>(pageSize);
+        long lastKey = afterKey;
+        try (Connection conn = db.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(report.sql)) {
+            stmt.setLong(1, afterKey);
+            stmt.setInt(2, pageSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int columns = report.columns.length;
+                while (rs.next()) {
+                    String[] row = new String[columns];
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = rs.getString(i + 1);
+                    }
+                    rows.add(row);
+                    lastKey = rs.getLong(1);
+                }
+            }
+        }
+        return new Page(rows, lastKey, rows.size() < pageSize);
+    }
+
+    /**
+     * Escribe el informe completo en CSV página a página; el escritor solo
+     * ve una página a la vez. Para en cuanto {@code cancelled} devuelve true.
+     * {@code progress} recibe las filas escritas hasta el momento.
+     *
+     * @return filas escritas
+     */
+    public long export(Report report, Writer out, int pageSize, BooleanSupplier cancelled,
+                       LongConsumer progress) throws SQLException, IOException {
+        out.write(csvLine(report.columns));
+        long written = 0;
+        long key = 0;
+        while (!cancelled.getAsBoolean()) {
+            Page page = page(report, key, pageSize);
+            for (String[] row : page.rows) {
+                out.write(csvLine(row));
+            }
+            written += page.rows.size();
+            key = page.lastKey;
+            out.flush();
+            progress.accept(written);
+            if (page.last) break;
+        }
+        return written;
+    }
+
+    private static String csvLine(String[] values) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) line.append(',');
+            String v = values[i] != null ? values[i] : "";
+            if (v.indexOf(',') >= 0 || v.indexOf('"') >= 0 || v.indexOf('\n') >= 0 || v.indexOf('\r') >= 0) {
+                line.append('"').append(v.replace("\"", "\"\"")).append('"');
+            } else {
+                line.append(v);
+            }
+        }
+        return line.append("\r\n").toString();
+    }
+}
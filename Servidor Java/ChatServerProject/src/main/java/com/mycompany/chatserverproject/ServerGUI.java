@@ -8,10 +8,6 @@ import com.mycompany.chatserverproject.distributed.UserInfo;
 
 import javax.swing.*;
 import java.awt.*;
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Map;
 
 /**
@@ -28,6 +24,7 @@ public class ServerGUI implements ServerUI {
     private DefaultListModel<String> serverModel;
     private DefaultListModel<String> userModel;
     private DefaultListModel<String> fileModel;
+    private ReportDialog reports;
 
     public ServerGUI(ChatServer server,
                      HeartbeatReceiver hbReceiver,
@@ -125,93 +122,11 @@ public class ServerGUI implements ServerUI {
         // No usado en esta implementación; displayMessage() y constructor manejan todo.
     }
 
+    /** Abre la ventana de informes; las consultas se hacen fuera del hilo de Swing. */
     private void generateReports() {
-        StringBuilder report = new StringBuilder();
-        report.append("=== Informes del Servidor ===\n\n");
-
-        // 1) Usuarios registrados en BD
-        report.append("Usuarios Registrados:\n");
-        try (Connection conn = server.getDb().getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(
-                 "SELECT username, email, ip_address FROM users"
-             )) {
-            while (rs.next()) {
-                report.append(String.format(
-                    "Usuario: %s, Email: %s, IP: %s\n",
-                    rs.getString("username"),
-                    rs.getString("email"),
-                    rs.getString("ip_address")
-                ));
-            }
-        } catch (SQLException e) {
-            report.append("Error al obtener usuarios: ").append(e.getMessage()).append("\n");
-        }
-
-        // 2) Canales y miembros
-        report.append("\nCanales y Miembros:\n");
-        try (Connection conn = server.getDb().getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(
-                 "SELECT c.name, GROUP_CONCAT(u.username) AS members " +
-                 "FROM channels c " +
-                 "LEFT JOIN channel_members cm ON c.id = cm.channel_id " +
-                 "LEFT JOIN users u ON cm.user_id = u.id " +
-                 "GROUP BY c.name"
-             )) {
-            while (rs.next()) {
-                String members = rs.getString("members");
-                report.append(String.format(
-                    "Canal: %s, Miembros: %s\n",
-                    rs.getString("name"),
-                    (members != null ? members : "Ninguno")
-                ));
-            }
-        } catch (SQLException e) {
-            report.append("Error al obtener canales: ").append(e.getMessage()).append("\n");
-        }
-
-        // 3) Clientes conectados
-        report.append("\nUsuarios Conectados:\n");
-        if (server.getClients().isEmpty()) {
-            report.append("Ninguno\n");
-        } else {
-            for (String user : server.getClients().keySet()) {
-                report.append(user).append("\n");
-            }
-        }
-
-        // 4) Logs guardados en BD
-        report.append("\nLogs de Mensajes:\n");
-        try (Connection conn = server.getDb().getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(
-                 "SELECT u.username AS sender, m.destination, m.message, m.timestamp " +
-                 "FROM messages m " +
-                 "JOIN users u ON m.sender_id = u.id " +
-                 "ORDER BY m.timestamp"
-             )) {
-            while (rs.next()) {
-                report.append(String.format(
-                    "[%s] %s -> %s: %s\n",
-                    rs.getTimestamp("timestamp"),
-                    rs.getString("sender"),
-                    rs.getString("destination"),
-                    rs.getString("message")
-                ));
-            }
-        } catch (SQLException e) {
-            report.append("Error al obtener logs: ").append(e.getMessage()).append("\n");
+        if (reports == null) {
+            reports = new ReportDialog(server);
         }
-
-        // Mostrar en diálogo
-        JTextArea ta = new JTextArea(report.toString());
-        ta.setEditable(false);
-        JOptionPane.showMessageDialog(
-            frame,
-            new JScrollPane(ta),
-            "Informes del Servidor",
-            JOptionPane.INFORMATION_MESSAGE
-        );
+        reports.show(frame);
     }
 }
@@ -0,0 +1,71 @@
+package com.mycompany.chatserverproject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Mensaje destinado a varias conexiones (reparto en canales, presencia).
+ * Se cifra una sola vez y cada formato de trama (texto o binario) se
+ * construye como mucho una vez; todas las conexiones comparten el mismo array.
+ */
+public final class WireMessage {
+    private final CryptoService crypto;
+    private final String command;
+    private final String destination;
+    private final String sender;
+    private final String fileName;
+    private final byte[] file;
+    private byte[] encryptedCommand;
+    private byte[] textFrame;
+    private byte[] binaryFrame;
+
+    private WireMessage(CryptoService crypto, String command,
+                        String destination, String sender, String fileName, byte[] file) {
+        this.crypto = crypto;
+        this.command = command;
+        this.destination = destination;
+        this.sender = sender;
+        this.fileName = fileName;
+        this.file = file;
+    }
+
+    /** Comando de texto ({@code MSG:...}, {@code ONLINE_USERS:...}, etc.). */
+    public static WireMessage text(CryptoService crypto, String command) {
+        return new WireMessage(crypto, command, null, null, null, null);
+    }
+
+    /**
+     * Archivo: en texto viaja como {@code FILE|dest|sender|name|base64};
+     * en binario como trama OP_FILE con los bytes sin codificar.
+     */
+    public static WireMessage file(CryptoService crypto, String destination, String sender,
+                                   String fileName, byte[] file) {
+        return new WireMessage(crypto, null, destination, sender, fileName, file);
+    }
+
+    synchronized byte[] frame(boolean binary) {
+        if (binary) {
+            if (binaryFrame == null) {
+                binaryFrame = command != null
+                    ? WireProtocol.binaryFrame(WireProtocol.OP_TEXT, encryptedCommand())
+                    : WireProtocol.binaryFrame(WireProtocol.OP_FILE,
+                          crypto.encrypt(WireProtocol.filePayload(destination, sender, fileName, file)));
+            }
+            return binaryFrame;
+        }
+        if (textFrame == null) {
+            textFrame = WireProtocol.textFrame(encryptedCommand());
+        }
+        return textFrame;
+    }
+
+    private byte[] encryptedCommand() {
+        if (encryptedCommand == null) {
+            String plain = command != null
+                ? command
+                : "FILE|" + destination + "|" + sender + "|" + fileName + "|" + Base64.getEncoder().encodeToString(file);
+            encryptedCommand = crypto.encrypt(plain.getBytes(StandardCharsets.UTF_8));
+        }
+        return encryptedCommand;
+    }
+}
@@ -0,0 +1,43 @@
+package com.mycompany.chatserverproject.distributed;
+
+import java.util.List;
+
+/**
+ * Respuesta a {@code SyncRequest.CATCH_UP}: lo que el servidor {@code origin}
+ * ha cambiado desde la secuencia pedida ({@code diffs}) o, si su registro
+ * de diffs ya no llega tan atrás o arrancó de nuevo, una instantánea de sus
+ * propios usuarios y archivos. En ambos casos quien la aplica queda en
+ * {@code lastSeq}.
+ */
+public class CatchUp {
+    private String origin;
+    private long epoch;
+    private long lastSeq;
+    private boolean snapshot;
+    private List<Diff> diffs;
+    private List<UserInfo> users;
+    private List<FileInfo> files;
+
+    public CatchUp() {}
+
+    public String getOrigin() { return origin; }
+    public void setOrigin(String origin) { this.origin = origin; }
+
+    public long getEpoch() { return epoch; }
+    public void setEpoch(long epoch) { this.epoch = epoch; }
+
+    public long getLastSeq() { return lastSeq; }
+    public void setLastSeq(long lastSeq) { this.lastSeq = lastSeq; }
+
+    public boolean isSnapshot() { return snapshot; }
+    public void setSnapshot(boolean snapshot) { this.snapshot = snapshot; }
+
+    public List<Diff> getDiffs() { return diffs; }
+    public void setDiffs(List<Diff> diffs) { this.diffs = diffs; }
+
+    public List<UserInfo> getUsers() { return users; }
+    public void setUsers(List<UserInfo> users) { this.users = users; }
+
+    public List<FileInfo> getFiles() { return files; }
+    public void setFiles(List<FileInfo> files) { this.files = files; }
+}
@@ -0,0 +1,46 @@
+package com.mycompany.chatserverproject.distributed;
+
+import java.util.List;
+
+/**
+ * Trama de un enlace STREAM: los diffs juntados en una ventana, ya sin altas
+ * y bajas que se anulan. {@code fromSeq..toSeq} son los lotes del registro
+ * de {@code origin} que cubre (varios si el enlace los juntó); el receptor
+ * solo la aplica si empieza justo después de lo que ya tiene.
+ */
+public class DiffBatch {
+    private String origin;
+    private long epoch;
+    private long fromSeq;
+    private long toSeq;
+    private List<Diff> diffs;
+
+    public DiffBatch() {}
+
+    public DiffBatch(List<Diff> diffs) {
+        this.diffs = diffs;
+    }
+
+    public DiffBatch(String origin, long epoch, long fromSeq, long toSeq, List<Diff> diffs) {
+        this.origin = origin;
+        this.epoch = epoch;
+        this.fromSeq = fromSeq;
+        this.toSeq = toSeq;
+        this.diffs = diffs;
+    }
+
+    public String getOrigin() { return origin; }
+    public void setOrigin(String origin) { this.origin = origin; }
+
+    public long getEpoch() { return epoch; }
+    public void setEpoch(long epoch) { this.epoch = epoch; }
+
+    public long getFromSeq() { return fromSeq; }
+    public void setFromSeq(long fromSeq) { this.fromSeq = fromSeq; }
+
+    public long getToSeq() { return toSeq; }
+    public void setToSeq(long toSeq) { this.toSeq = toSeq; }
+
+    public List<Diff> getDiffs() { return diffs; }
+    public void setDiffs(List<Diff> diffs) { this.diffs = diffs; }
+}
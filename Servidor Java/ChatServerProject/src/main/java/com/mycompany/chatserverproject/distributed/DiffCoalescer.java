@@ -0,0 +1,79 @@
+package com.mycompany.chatserverproject.distributed;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Junta diffs pendientes de enviar. Por cada usuario o archivo queda como
+ * mucho un diff: un alta seguida de su baja (o al revés) se anulan, porque
+ * para el peer el resultado es el estado que ya tenía; dos iguales se quedan
+ * en uno. Anular es correcto porque solo se propagan cambios reales del
+ * registro ({@link UserFileRegistry#applyDiff} devuelve true), así que para
+ * una misma clave altas y bajas se alternan. No es thread-safe: quien lo usa
+ * sincroniza.
+ */
+class DiffCoalescer {
+    private final Map<Object, Diff> pending = new LinkedHashMap<>();
+    private long added;
+    private long cancelled;
+
+    void add(Diff diff) {
+        added++;
+        Object key = key(diff);
+        if (key == null) {
+            // Sin usuario ni archivo no hay con qué emparejarlo; se envía tal cual
+            pending.put(new Object(), diff);
+            return;
+        }
+        Diff previous = pending.get(key);
+        if (previous != null && isAdd(previous.getType()) != isAdd(diff.getType())) {
+            pending.remove(key);
+            cancelled += 2;
+        } else {
+            pending.put(key, diff);
+        }
+    }
+
+    void addAll(List<Diff> diffs) {
+        for (Diff diff : diffs) add(diff);
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /** Lo pendiente, en el orden en que llegó cada clave, y vacía el coalescedor. */
+    List<Diff> drain() {
+        List<Diff> diffs = new ArrayList<>(pending.values());
+        pending.clear();
+        return diffs;
+    }
+
+    long getAdded() {
+        return added;
+    }
+
+    long getCancelled() {
+        return cancelled;
+    }
+
+    private static Object key(Diff diff) {
+        if (diff.getType() == null) return null;
+        switch (diff.getType()) {
+            case USER_ADDED:
+            case USER_REMOVED:
+                return diff.getUserInfo();
+            case FILE_ADDED:
+            case FILE_REMOVED:
+                return diff.getFileInfo();
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isAdd(Diff.Type type) {
+        return type == Diff.Type.USER_ADDED || type == Diff.Type.FILE_ADDED;
+    }
+}
@@ -0,0 +1,73 @@
+package com.mycompany.chatserverproject.distributed;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Últimos lotes de diffs originados en este servidor, numerados con una
+ * secuencia que empieza en 1 en cada arranque. Guarda como mucho
+ * {@code maxDiffs} diffs; al pasarse descarta los lotes más viejos y a
+ * partir de ahí quien se haya quedado antes de ellos necesita una
+ * instantánea. No es thread-safe: quien lo usa sincroniza.
+ */
+class DiffLog {
+    private static final class Entry {
+        final long seq;
+        final List<Diff> diffs;
+
+        Entry(long seq, List<Diff> diffs) {
+            this.seq = seq;
+            this.diffs = diffs;
+        }
+    }
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private int maxDiffs;
+    private int size;
+    private long lastSeq;
+    /** Secuencia del último lote descartado (0 = no se ha descartado ninguno). */
+    private long truncatedSeq;
+
+    DiffLog(int maxDiffs) {
+        this.maxDiffs = Math.max(1, maxDiffs);
+    }
+
+    void setMaxDiffs(int maxDiffs) {
+        this.maxDiffs = Math.max(1, maxDiffs);
+    }
+
+    /** Guarda el lote y devuelve su número de secuencia. */
+    long append(List<Diff> diffs) {
+        long seq = ++lastSeq;
+        entries.addLast(new Entry(seq, diffs));
+        size += diffs.size();
+        while (size > maxDiffs && entries.size() > 1) {
+            Entry old = entries.removeFirst();
+            size -= old.diffs.size();
+            truncatedSeq = old.seq;
+        }
+        return seq;
+    }
+
+    /**
+     * Lo ocurrido después de {@code seq}, coalescido en un diff por usuario o
+     * archivo; null si parte de ello ya se descartó (o la secuencia no es de
+     * este registro).
+     */
+    List<Diff> since(long seq) {
+        if (seq < truncatedSeq || seq > lastSeq) return null;
+        DiffCoalescer merged = new DiffCoalescer();
+        for (Entry entry : entries) {
+            if (entry.seq > seq) merged.addAll(entry.diffs);
+        }
+        return merged.drain();
+    }
+
+    long getLastSeq() {
+        return lastSeq;
+    }
+
+    int size() {
+        return size;
+    }
+}
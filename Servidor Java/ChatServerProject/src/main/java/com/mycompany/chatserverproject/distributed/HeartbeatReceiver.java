@@ -19,6 +19,8 @@ public class HeartbeatReceiver {
     private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
     // serverId -> host IP
     private final Map<String, String> liveServers = new ConcurrentHashMap<>();
+    // serverId -> formato de sincronización anunciado (solo si anuncia alguno)
+    private final Map<String, String> syncCodecs = new ConcurrentHashMap<>();
 
     private final ScheduledExecutorService scheduler =
         Executors.newSingleThreadScheduledExecutor();
@@ -71,6 +73,11 @@ public class HeartbeatReceiver {
 
         lastSeen.put(peerId, ts);
         liveServers.put(peerId, host);
+        if (parts.length > 3) {
+            syncCodecs.put(peerId, parts[3].trim());
+        } else {
+            syncCodecs.remove(peerId);
+        }
     }
 
     private void checkTimeouts() {
@@ -80,10 +87,16 @@ public class HeartbeatReceiver {
             if (ts == null || now - ts > TIMEOUT_MS) {
                 lastSeen.remove(peerId);
                 liveServers.remove(peerId);
+                syncCodecs.remove(peerId);
             }
         }
     }
 
+    /** Formato de sincronización que anuncia el servidor, o null si solo habla JSON. */
+    public String getSyncCodec(String serverId) {
+        return serverId != null ? syncCodecs.get(serverId) : null;
+    }
+
     /** @return Mapa serverId -> host IP de servidores vivos. */
     public Map<String, String> getLiveServers() {
         return liveServers;
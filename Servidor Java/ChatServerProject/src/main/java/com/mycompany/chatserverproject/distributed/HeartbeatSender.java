@@ -11,19 +11,27 @@ public class HeartbeatSender {
     private static final String MULTICAST_ADDRESS = "230.0.0.0";
     private static final int MULTICAST_PORT = 4446;
     private final String serverId;
+    /** Si se anuncia a los peers que la sincronización puede ir en binario. */
+    private volatile boolean binarySync;
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
     public HeartbeatSender(String serverId) {
         this.serverId = serverId;
     }
 
+    /** Inyectado desde Main; los servidores antiguos ignoran el campo extra del heartbeat. */
+    public void setBinarySync(boolean binarySync) {
+        this.binarySync = binarySync;
+    }
+
     public void start() {
         scheduler.scheduleAtFixedRate(() -> sendHeartbeat(), 0, 5, TimeUnit.SECONDS);
     }
 
     private void sendHeartbeat() {
         try (DatagramSocket socket = new DatagramSocket()) {
-            String msg = "HEARTBEAT:" + serverId + ";" + System.currentTimeMillis();
+            String msg = "HEARTBEAT:" + serverId + ";" + System.currentTimeMillis()
+                         + (binarySync ? ";" + SyncCodec.BIN1 : "");
             byte[] buf = msg.getBytes();
             InetAddress group = InetAddress.getByName(MULTICAST_ADDRESS);
             DatagramPacket packet = new DatagramPacket(buf, buf.length, group, MULTICAST_PORT);
@@ -0,0 +1,201 @@
+package com.mycompany.chatserverproject.distributed;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Conexión persistente con un peer para enviarle diffs. Abre un único socket,
+ * lo anuncia con {@code SyncRequest.STREAM} y escribe por él un
+ * {@link DiffBatch} por lote, sean del usuario que sean. Quien envía solo
+ * encola; un hilo propio escribe juntando (y coalesciendo) los lotes
+ * consecutivos que se hayan acumulado (la trama cubre entonces el rango de
+ * secuencias de todos; si falta alguno, el resto va en otra trama),
+ * y si la conexión cae reconecta con espera exponencial y reenvía la trama
+ * que estaba escribiendo; el receptor descarta por secuencia la que ya
+ * hubiera aplicado. El formato (JSON o {@link SyncCodec}) se elige en cada
+ * conexión según lo que anuncie el peer.
+ */
+class PeerLink implements Runnable {
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int MAX_FRAMES = 256;
+    private static final int CONNECT_TIMEOUT_MS = 3_000;
+    private static final long MIN_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final String host;
+    private final int port;
+    private final ObjectMapper mapper;
+    /** Sin flush tras cada valor: el lote se vacía de una vez al final. */
+    private final ObjectWriter writer;
+    /** Si el peer entiende {@link SyncCodec#BIN1}; se consulta al conectar. */
+    private final BooleanSupplier binary;
+    /** Lotes pendientes, cada uno ya coalescido en su ventana. */
+    private final LinkedBlockingQueue<DiffBatch> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private volatile boolean closed;
+    private volatile boolean connected;
+
+    /** Solo los toca el hilo del enlace; {@link #close} solo cierra el socket para despertarlo. */
+    private volatile Socket socket;
+    private JsonGenerator out;
+    private SyncCodec.Writer binaryOut;
+
+    PeerLink(String host, int port, ObjectMapper mapper, BooleanSupplier binary) {
+        this.host = host;
+        this.port = port;
+        this.mapper = mapper;
+        this.binary = binary;
+        this.writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Encola el lote sin bloquear; si la cola está llena se descarta y se
+     * cuenta (el peer verá el hueco en la secuencia y lo pedirá con CATCH_UP).
+     */
+    void send(DiffBatch batch) {
+        if (closed || !queue.offer(batch)) {
+            dropped.addAndGet(batch.getDiffs().size());
+        }
+    }
+
+    void close() {
+        closed = true;
+        Socket s = socket;
+        if (s != null) {
+            try { s.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void run() {
+        ArrayDeque<DiffBatch> drained = new ArrayDeque<>(MAX_FRAMES);
+        DiffCoalescer merge = new DiffCoalescer();
+        DiffBatch batch = null;
+        long backoff = MIN_BACKOFF_MS;
+        while (!closed) {
+            try {
+                if (batch == null) {
+                    if (drained.isEmpty()) {
+                        DiffBatch first = queue.poll(1, TimeUnit.SECONDS);
+                        if (first == null) continue;
+                        drained.add(first);
+                        queue.drainTo(drained, MAX_FRAMES - 1);
+                    }
+                    batch = mergeContiguous(drained, merge);
+                }
+                if (socket == null) connect();
+                if (binaryOut != null) {
+                    binaryOut.write(batch);
+                    binaryOut.flush();
+                } else {
+                    writer.writeValue(out, batch);
+                    out.flush();
+                }
+                sent.addAndGet(batch.getDiffs().size());
+                frames.incrementAndGet();
+                batch = null;
+                backoff = MIN_BACKOFF_MS;
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                if (closed) break;
+                System.err.println("[ERROR] enlace con " + host + ":" + port + " → " + e.getMessage()
+                                   + "; reintento en " + backoff + " ms");
+                disconnect();
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+        disconnect();
+        if (batch != null) dropped.addAndGet(batch.getDiffs().size());
+        for (DiffBatch frame : drained) dropped.addAndGet(frame.getDiffs().size());
+        for (DiffBatch frame : queue) dropped.addAndGet(frame.getDiffs().size());
+        queue.clear();
+    }
+
+    /**
+     * Junta en una trama los lotes del principio de {@code drained} mientras
+     * sean consecutivos (p. ej. lo acumulado mientras se reconectaba). Si se
+     * descartó alguno por cola llena, la trama acaba antes del hueco y el
+     * resto sigue en {@code drained}: así el peer ve el salto y pide CATCH_UP
+     * en vez de darlo por recibido.
+     */
+    private static DiffBatch mergeContiguous(ArrayDeque<DiffBatch> drained, DiffCoalescer merge) {
+        DiffBatch first = drained.poll();
+        DiffBatch last = first;
+        merge.addAll(first.getDiffs());
+        while (!drained.isEmpty()) {
+            DiffBatch next = drained.peek();
+            if (next.getEpoch() != last.getEpoch() || next.getFromSeq() != last.getToSeq() + 1) break;
+            merge.addAll(drained.poll().getDiffs());
+            last = next;
+        }
+        // Aunque todo se anule hay que mandarla: el peer necesita saber que la secuencia avanzó
+        return new DiffBatch(first.getOrigin(), first.getEpoch(), first.getFromSeq(),
+                             last.getToSeq(), merge.drain());
+    }
+
+    private void connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.setTcpNoDelay(true);
+            s.setKeepAlive(true);
+            s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            BufferedOutputStream buffered = new BufferedOutputStream(s.getOutputStream());
+            JsonGenerator gen = mapper.getFactory().createGenerator(buffered);
+            SyncRequest req = new SyncRequest(SyncRequest.Type.STREAM);
+            boolean bin = binary.getAsBoolean();
+            if (bin) req.setCodec(SyncCodec.BIN1);
+            mapper.writeValue(gen, req);
+            gen.flush();
+            socket = s;
+            out = gen;
+            binaryOut = bin ? new SyncCodec.Writer(buffered) : null;
+            connected = true;
+            connects.incrementAndGet();
+        } catch (IOException e) {
+            try { s.close(); } catch (IOException ignore) {}
+            throw e;
+        }
+    }
+
+    private void disconnect() {
+        connected = false;
+        out = null;
+        binaryOut = null;
+        if (socket != null) {
+            try { socket.close(); } catch (IOException ignore) {}
+            socket = null;
+        }
+    }
+
+    /** Resumen para los informes del servidor. */
+    String getStats() {
+        return String.format("%s:%d %s, Diffs enviados: %d, Tramas: %d, Lotes en cola: %d, Descartados: %d, Conexiones: %d",
+            host, port, connected ? (binaryOut != null ? "conectado (binario)" : "conectado (JSON)") : "desconectado",
+            sent.get(), frames.get(), queue.size(), dropped.get(), connects.get());
+    }
+}
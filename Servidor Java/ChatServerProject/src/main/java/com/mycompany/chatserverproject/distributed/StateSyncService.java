@@ -2,39 +2,147 @@ package com.mycompany.chatserverproject.distributed;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+/**
+ * Sincroniza el registro de usuarios y archivos entre servidores. Cada
+ * servidor numera los lotes de diffs que origina (secuencia por arranque,
+ * identificado por su epoch) y guarda los últimos en un {@link DiffLog}. Los
+ * peers apuntan hasta qué lote de cada origen han aplicado; si les falta
+ * alguno, o al arrancar, piden con CATCH_UP solo lo posterior, y el origen
+ * responde con una instantánea de lo suyo únicamente si su registro ya no
+ * llega tan atrás.
+ *
+ * Con los peers que anuncian {@link SyncCodec#BIN1} en su heartbeat los
+ * lotes y respuestas van en ese formato binario; con el resto, en JSON.
+ */
 public class StateSyncService {
     private static final boolean DEBUG = true;
+    private static final int CONNECT_TIMEOUT_MS = 3_000;
+    /** Espera máxima por la respuesta a CATCH_UP; un origen colgado no retiene el hilo. */
+    private static final int READ_TIMEOUT_MS = 10_000;
+    private static final int CATCH_UP_ATTEMPTS = 3;
+    public static final int DEFAULT_LOG_DIFFS = 50_000;
 
     private final int port;
     private final UserFileRegistry registry;
     private final HeartbeatReceiver hbReceiver;
     private final ObjectMapper mapper;
-    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final ExecutorService pool;
+    /** CATCH_UP pedidos al ver un hueco, fuera del hilo que lee el enlace. */
+    private final ExecutorService catchUpPool;
+    /** Orígenes con un CATCH_UP en curso: como mucho uno por origen. */
+    private final Set<String> catchingUp = ConcurrentHashMap.newKeySet();
+    /** Un enlace persistente por peer (host), creado al enviarle el primer diff. */
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    /** Diffs de la ventana en curso; su monitor protege también al coalescedor. */
+    private final DiffCoalescer pending = new DiffCoalescer();
+    private volatile long batchWindowMillis = 50;
+    private long batchesSent;
+    /** Lotes originados aquí; su monitor ordena numerar y encolar (lock: registry → log → pending). */
+    private final DiffLog log = new DiffLog(DEFAULT_LOG_DIFFS);
+    /** Arranque actual: distingue la secuencia de este arranque de la de otros. */
+    private final long epoch = System.currentTimeMillis();
+    private volatile String serverId;
+    private volatile boolean binaryCodec = true;
+    private Path stateFile;
+    /** Origen → último lote aplicado; se protege con el monitor de {@code registry}. */
+    private final Map<String, SyncState.Version> versions = new HashMap<>();
+    private long gaps;
+    private long incrementalCatchUps;
+    private long snapshotCatchUps;
 
     public StateSyncService(int port,
                             UserFileRegistry registry,
                             HeartbeatReceiver hbReceiver) {
+        this(port, registry, hbReceiver, false);
+    }
+
+    /**
+     * @param virtualThreads si es true, cada conexión de sincronización se
+     *                       atiende en su propio hilo virtual.
+     */
+    public StateSyncService(int port,
+                            UserFileRegistry registry,
+                            HeartbeatReceiver hbReceiver,
+                            boolean virtualThreads) {
         this.port       = port;
         this.registry   = registry;
         this.hbReceiver = hbReceiver;
+        this.pool       = virtualThreads
+                          ? Executors.newVirtualThreadPerTaskExecutor()
+                          : Executors.newCachedThreadPool();
+        this.catchUpPool = virtualThreads
+                           ? Executors.newVirtualThreadPerTaskExecutor()
+                           : Executors.newCachedThreadPool();
 
         // Construye y configura el mapper para que NO cierre los streams
         this.mapper = new ObjectMapper();
         mapper.getFactory().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
         mapper.getFactory().configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+
+        Thread flusher = new Thread(this::flushLoop, "Sync-Coalescer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /** Ventana en la que se juntan diffs antes de enviarlos (0 = enviar en cuanto llegan). */
+    public void setBatchWindowMillis(long batchWindowMillis) {
+        this.batchWindowMillis = Math.max(0, batchWindowMillis);
+    }
+
+    /** Identificador de este servidor, con el que se firman los lotes. Inyectado desde Main. */
+    public void setServerId(String serverId) {
+        this.serverId = serverId;
+    }
+
+    /**
+     * Si es false los envíos van siempre en JSON (para comparar o por si un
+     * peer da problemas); lo recibido en binario se sigue entendiendo.
+     * Inyectado desde Main.
+     */
+    public void setBinaryCodec(boolean binaryCodec) {
+        this.binaryCodec = binaryCodec;
+    }
+
+    /** Máximo de diffs que se guardan para ponerse al día; con más atrasos se manda una instantánea. */
+    public void setLogSize(int maxDiffs) {
+        synchronized (log) {
+            log.setMaxDiffs(maxDiffs);
+        }
+    }
+
+    /** Fichero donde se guarda al cerrar lo sabido de los demás servidores; se lee en {@link #start}. */
+    public void setStateFile(Path stateFile) {
+        this.stateFile = stateFile;
     }
 
     public void start() throws Exception {
+        loadState();
         ServerSocket serverSocket = new ServerSocket(port);
         debug("start() → escuchando en puerto " + port);
         pool.submit(() -> {
@@ -52,27 +160,81 @@ public class StateSyncService {
     private void handleConnection(Socket sock) {
         debug("handleConnection(): conexión de " + sock.getRemoteSocketAddress());
         try (InputStream in = sock.getInputStream();
-             OutputStream out = sock.getOutputStream()) {
+             OutputStream out = sock.getOutputStream();
+             // Un solo parser para toda la conexión: el búfer de uno nuevo se comería lo que sigue
+             JsonParser parser = mapper.getFactory().createParser(in)) {
 
             debug("handleConnection(): leyendo SyncRequest…");
-            SyncRequest req = mapper.readValue(in, SyncRequest.class);
-            debug("handleConnection(): tipo=" + req.getType());
+            SyncRequest req = mapper.readValue(parser, SyncRequest.class);
+            debug("handleConnection(): tipo=" + req.getType() + ", codec=" + req.getCodec());
+
+            // En binario lo que siga va tras lo que el parser ya hubiera leído de más
+            SyncCodec.Reader binaryIn = null;
+            SyncCodec.Writer binaryOut = null;
+            if (SyncCodec.BIN1.equals(req.getCodec())) {
+                ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+                parser.releaseBuffered(buffered);
+                binaryIn = new SyncCodec.Reader(
+                    new SequenceInputStream(new ByteArrayInputStream(buffered.toByteArray()), in));
+                binaryOut = new SyncCodec.Writer(new BufferedOutputStream(out));
+            }
 
             if (req.getType() == SyncRequest.Type.FULL_DUMP) {
                 debug("→ FULL_DUMP: enviando dump a " + sock.getRemoteSocketAddress());
                 FullDump dump = new FullDump(registry.getAllUsers(), registry.getAllFiles());
-                mapper.writeValue(out, dump);
-                out.flush();
+                if (binaryOut != null) {
+                    binaryOut.write(dump);
+                    binaryOut.flush();
+                } else {
+                    mapper.writeValue(out, dump);
+                    out.flush();
+                }
                 debug("→ FULL_DUMP enviado. Usuarios=" + dump.getUsers().size()
                       + ", Archivos=" + dump.getFiles().size());
 
             } else if (req.getType() == SyncRequest.Type.DIFF) {
                 debug("→ DIFF: leyendo diff…");
-                Diff diff = mapper.readValue(in, Diff.class);
+                Diff diff = mapper.readValue(parser, Diff.class);
                 debug("→ DIFF tipo=" + diff.getType()
                       + (diff.getUserInfo()!=null ? " usuario=" + diff.getUserInfo().getUsername() : ""));
                 registry.applyDiff(diff);
                 debug("→ DIFF aplicado");
+
+            } else if (req.getType() == SyncRequest.Type.STREAM) {
+                debug("→ STREAM: enlace persistente de " + sock.getRemoteSocketAddress());
+                long applied = 0;
+                if (binaryIn != null) {
+                    Object msg;
+                    while ((msg = binaryIn.read()) != null) {
+                        if (!(msg instanceof DiffBatch)) continue;
+                        DiffBatch batch = (DiffBatch) msg;
+                        applyBatch(batch);
+                        applied += batch.getDiffs().size();
+                    }
+                } else {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        DiffBatch batch = mapper.readValue(parser, DiffBatch.class);
+                        if (batch.getDiffs() == null) continue;
+                        applyBatch(batch);
+                        applied += batch.getDiffs().size();
+                    }
+                }
+                debug("→ STREAM cerrado tras " + applied + " diffs");
+
+            } else if (req.getType() == SyncRequest.Type.CATCH_UP) {
+                CatchUp resp = answerCatchUp(req);
+                if (binaryOut != null) {
+                    binaryOut.write(resp);
+                    binaryOut.flush();
+                } else {
+                    mapper.writeValue(out, resp);
+                    out.flush();
+                }
+                debug("→ CATCH_UP de " + req.getServerId() + " desde " + req.getEpoch() + "#" + req.getSinceSeq()
+                      + ": " + (resp.isSnapshot()
+                                ? "instantánea de " + resp.getUsers().size() + " usuarios y " + resp.getFiles().size() + " archivos"
+                                : resp.getDiffs().size() + " diffs")
+                      + " hasta #" + resp.getLastSeq());
             }
 
         } catch (Exception e) {
@@ -85,59 +247,308 @@ public class StateSyncService {
         }
     }
 
-    public void requestFullDump(String host, int port) throws Exception {
-        debug("requestFullDump() → conectando a " + host + ":" + port);
-        try (Socket sock = new Socket(host, port);
-             OutputStream out = sock.getOutputStream();
-             InputStream in  = sock.getInputStream()) {
+    /**
+     * Aplica un lote recibido por un enlace. Solo se aplica si empieza justo
+     * después de lo que ya se tiene de su origen (o es el primero de un
+     * arranque nuevo); si ya se aplicó se ignora, y si falta algo en medio se
+     * pide al origen lo que falta, que incluye este lote. Ese CATCH_UP va en
+     * {@link #catchUpPool}: el enlace sigue leyendo mientras tanto.
+     */
+    private void applyBatch(DiffBatch batch) {
+        String origin = batch.getOrigin();
+        if (origin == null) {
+            // Peer sin números de secuencia: se aplica tal cual
+            synchronized (registry) {
+                for (Diff diff : batch.getDiffs()) registry.applyDiff(diff);
+            }
+            return;
+        }
+        if (origin.equals(serverId)) return;
+        synchronized (registry) {
+            SyncState.Version known = versions.get(origin);
+            boolean sameEpoch = known != null && known.getEpoch() == batch.getEpoch();
+            if (sameEpoch && batch.getToSeq() <= known.getSeq()) return;
+            if (sameEpoch ? batch.getFromSeq() == known.getSeq() + 1 : batch.getFromSeq() == 1) {
+                // Arranque nuevo del origen: lo que hubiera de él ya no vale
+                if (!sameEpoch) registry.replaceOrigin(origin, null, null);
+                for (Diff diff : batch.getDiffs()) registry.applyDiff(diff);
+                versions.put(origin, new SyncState.Version(batch.getEpoch(), batch.getToSeq()));
+                return;
+            }
+            gaps++;
+        }
+        String host = hbReceiver.getLiveServers().get(origin);
+        debug("applyBatch() → hueco con " + origin + " (lote " + batch.getEpoch() + "#" + batch.getFromSeq()
+              + ".." + batch.getToSeq() + "), pidiendo CATCH_UP a " + host);
+        if (host == null) return;
+        // Si ya hay uno en curso, lo que no cubra lo detectará el siguiente lote
+        if (!catchingUp.add(origin)) return;
+        catchUpPool.execute(() -> {
+            try {
+                catchUp(origin, host, port);
+            } catch (Exception e) {
+                // El siguiente lote volverá a detectar el hueco
+                System.err.println("[ERROR] CATCH_UP con " + origin + " → " + e.getMessage());
+            } finally {
+                catchingUp.remove(origin);
+            }
+        });
+    }
+
+    /**
+     * Pide al servidor {@code origin} lo suyo posterior al último lote
+     * aplicado y lo integra. Si mientras tanto llegó algo por el enlace, los
+     * diffs recibidos ya no encajan y se vuelve a pedir desde el nuevo punto.
+     */
+    public void catchUp(String origin, String host, int port) throws Exception {
+        for (int attempt = 0; attempt < CATCH_UP_ATTEMPTS; attempt++) {
+            SyncState.Version known;
+            synchronized (registry) {
+                known = versions.get(origin);
+            }
+            SyncRequest req = new SyncRequest(SyncRequest.Type.CATCH_UP);
+            req.setServerId(serverId);
+            req.setServerEpoch(epoch);
+            if (known != null) {
+                req.setEpoch(known.getEpoch());
+                req.setSinceSeq(known.getSeq());
+            }
+            debug("catchUp() → " + origin + " en " + host + ":" + port + " desde " + known);
+            CatchUp resp = requestCatchUp(host, port, req);
+            synchronized (registry) {
+                SyncState.Version now = versions.get(origin);
+                if (now != null && now.getEpoch() == resp.getEpoch() && now.getSeq() >= resp.getLastSeq()) return;
+                if (!resp.isSnapshot() && !Objects.equals(now, known)) continue;
+                if (resp.isSnapshot()) {
+                    registry.replaceOrigin(resp.getOrigin(), resp.getUsers(), resp.getFiles());
+                    snapshotCatchUps++;
+                } else {
+                    for (Diff diff : resp.getDiffs()) registry.applyDiff(diff);
+                    incrementalCatchUps++;
+                }
+                versions.put(resp.getOrigin(), new SyncState.Version(resp.getEpoch(), resp.getLastSeq()));
+            }
+            debug("catchUp() → " + origin + " al día en #" + resp.getLastSeq()
+                  + (resp.isSnapshot() ? " (instantánea)" : " (" + resp.getDiffs().size() + " diffs)"));
+            return;
+        }
+        throw new IOException("el enlace con " + origin + " sigue adelantándose a CATCH_UP");
+    }
 
-            debug("→ enviando FULL_DUMP request");
-            SyncRequest req = new SyncRequest(SyncRequest.Type.FULL_DUMP);
+    private CatchUp requestCatchUp(String host, int port, SyncRequest req) throws IOException {
+        try (Socket sock = new Socket()) {
+            sock.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            sock.setSoTimeout(READ_TIMEOUT_MS);
+            OutputStream out = sock.getOutputStream();
+            boolean binary = peerSpeaksBinary(host);
+            if (binary) req.setCodec(SyncCodec.BIN1);
             mapper.writeValue(out, req);
             out.flush();
+            if (!binary) return mapper.readValue(sock.getInputStream(), CatchUp.class);
+            Object resp = new SyncCodec.Reader(sock.getInputStream()).read();
+            if (!(resp instanceof CatchUp)) throw new IOException("respuesta inesperada a CATCH_UP: " + resp);
+            return (CatchUp) resp;
+        }
+    }
 
-            debug("→ esperando FullDump…");
-            FullDump dump = mapper.readValue(in, FullDump.class);
-            debug("→ recibido FullDump Usuarios=" + dump.getUsers().size()
-                  + ", Archivos=" + dump.getFiles().size());
-            registry.integrateFullDump(dump);
-
-        } catch (Exception e) {
-            System.err.println("[ERROR] requestFullDump con " + host + ":" + port
-                               + " → " + e.getMessage());
-            throw e;
+    /**
+     * Lo de este servidor posterior a lo que tiene quien pregunta: los diffs
+     * del registro si llega tan atrás y es el mismo arranque; si no, una
+     * instantánea. Para la instantánea lo pendiente de la ventana se numera
+     * antes, así lo que se manda es exactamente el estado de {@code lastSeq}.
+     */
+    private CatchUp answerCatchUp(SyncRequest req) {
+        CatchUp resp = new CatchUp();
+        resp.setOrigin(serverId);
+        resp.setEpoch(epoch);
+        synchronized (registry) {
+            noteRestart(req.getServerId(), req.getServerEpoch());
+            synchronized (log) {
+                List<Diff> diffs = req.getEpoch() == epoch ? log.since(req.getSinceSeq()) : null;
+                if (diffs != null) {
+                    resp.setDiffs(diffs);
+                } else {
+                    flushPending();
+                    resp.setSnapshot(true);
+                    resp.setUsers(registry.getUsersOf(serverId));
+                    resp.setFiles(registry.getFilesOf(serverId));
+                }
+                resp.setLastSeq(log.getLastSeq());
+            }
         }
+        return resp;
     }
 
+    /** Quien pide CATCH_UP con un arranque que no conocíamos ha reiniciado: sus usuarios y archivos ya no están. */
+    private void noteRestart(String requester, long requesterEpoch) {
+        if (requester == null || requester.equals(serverId) || requesterEpoch == 0) return;
+        SyncState.Version known = versions.get(requester);
+        if (known != null && known.getEpoch() == requesterEpoch) return;
+        registry.replaceOrigin(requester, null, null);
+        versions.put(requester, new SyncState.Version(requesterEpoch, 0));
+    }
+
+    /**
+     * Añade el diff a la ventana en curso y vuelve enseguida. Al cerrar la
+     * ventana lo que quede (sin altas y bajas que se anulan) va como un solo
+     * lote al enlace de cada peer vivo.
+     */
     public void broadcastDiff(Diff diff) {
-        debug("broadcastDiff() → peers vivos: " + hbReceiver.getLiveServers());
-        for (Map.Entry<String,String> e : hbReceiver.getLiveServers().entrySet()) {
-            String host = e.getValue();
-            debug("→ enviando DIFF a " + host);
-            sendDiffToPeer(host, port, diff);
+        synchronized (pending) {
+            pending.add(diff);
+            pending.notifyAll();
         }
     }
 
-    private void sendDiffToPeer(String host, int port, Diff diff) {
-        debug("sendDiffToPeer() → conectando a " + host + ":" + port);
-        try (Socket sock = new Socket(host, port);
-             OutputStream out = sock.getOutputStream()) {
+    private void flushLoop() {
+        while (true) {
+            try {
+                synchronized (pending) {
+                    while (pending.isEmpty()) pending.wait();
+                }
+                long window = batchWindowMillis;
+                if (window > 0) Thread.sleep(window);
+                synchronized (log) {
+                    flushPending();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("[ERROR] enviando lote de diffs → " + e.getMessage());
+            }
+        }
+    }
 
-            debug("→ enviando SyncRequest.DIFF");
-            SyncRequest req = new SyncRequest(SyncRequest.Type.DIFF);
-            mapper.writeValue(out, req);
-            out.flush();
+    /** Numera lo pendiente como un lote, lo guarda en el registro de diffs y lo encola. Con el monitor de {@code log}. */
+    private void flushPending() {
+        List<Diff> diffs;
+        synchronized (pending) {
+            diffs = pending.drain();
+        }
+        if (diffs.isEmpty()) return;
+        long seq = log.append(diffs);
+        sendToPeers(new DiffBatch(serverId, epoch, seq, seq, diffs));
+    }
 
-            debug("→ enviando Diff tipo=" + diff.getType());
-            mapper.writeValue(out, diff);
-            out.flush();
+    /** Encola el lote en el enlace de cada peer vivo; los enlaces de peers que ya no lo están se cierran. */
+    private void sendToPeers(DiffBatch batch) {
+        Map<String, String> live = hbReceiver.getLiveServers();
+        debug("sendToPeers() → lote #" + batch.getToSeq() + " con " + batch.getDiffs().size()
+              + " diffs a peers vivos: " + live);
+        for (Map.Entry<String, String> peer : live.entrySet()) {
+            if (peer.getKey().equals(serverId)) continue;
+            peerLink(peer.getValue()).send(batch);
+        }
+        synchronized (pending) {
+            batchesSent++;
+        }
+        links.entrySet().removeIf(e -> {
+            if (live.containsValue(e.getKey())) return false;
+            debug("→ cerrando enlace con " + e.getKey() + " (ya no está vivo)");
+            e.getValue().close();
+            return true;
+        });
+    }
+
+    private PeerLink peerLink(String host) {
+        return links.compute(host, (h, link) -> {
+            if (link != null && !link.isClosed()) return link;
+            PeerLink created = new PeerLink(h, port, mapper, () -> peerSpeaksBinary(h));
+            pool.submit(created);
+            return created;
+        });
+    }
 
-            debug("→ DIFF enviado correctamente");
+    /** Si todos los servidores vivos en ese host anuncian BIN1 (y aquí no está desactivado). */
+    private boolean peerSpeaksBinary(String host) {
+        if (!binaryCodec) return false;
+        boolean found = false;
+        for (Map.Entry<String, String> peer : hbReceiver.getLiveServers().entrySet()) {
+            if (!peer.getValue().equals(host) || peer.getKey().equals(serverId)) continue;
+            if (!SyncCodec.BIN1.equals(hbReceiver.getSyncCodec(peer.getKey()))) return false;
+            found = true;
+        }
+        return found;
+    }
 
-        } catch (Exception ex) {
-            System.err.println("[ERROR] sendDiffToPeer a " + host + ":" + port
-                               + " → " + ex.getMessage());
-            ex.printStackTrace();
+    /** Estado de los enlaces con los peers para los informes. */
+    public String getLinkStats() {
+        StringBuilder stats = new StringBuilder();
+        synchronized (pending) {
+            stats.append(String.format("Diffs: %d, Anulados: %d, Lotes: %d (ventana %d ms)%n",
+                pending.getAdded(), pending.getCancelled(), batchesSent, batchWindowMillis));
+        }
+        synchronized (log) {
+            stats.append(String.format("Registro de diffs: lote #%d, %d diffs guardados%n", log.getLastSeq(), log.size()));
+        }
+        synchronized (registry) {
+            stats.append(String.format("Puesta al día: %d incrementales, %d instantáneas, %d huecos; aplicado %s%n",
+                incrementalCatchUps, snapshotCatchUps, gaps, versions));
+        }
+        if (links.isEmpty()) return stats.append("Sin enlaces abiertos").toString();
+        for (PeerLink link : links.values()) {
+            stats.append(link.getStats()).append("\n");
+        }
+        return stats.toString().trim();
+    }
+
+    /** Cierra los enlaces con los peers y guarda lo sabido de los demás servidores. */
+    public void close() {
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+        links.clear();
+        saveState();
+    }
+
+    private void loadState() {
+        if (stateFile == null || !Files.exists(stateFile)) return;
+        try {
+            SyncState state = mapper.readValue(stateFile.toFile(), SyncState.class);
+            if (state.getVersions() == null) return;
+            synchronized (registry) {
+                for (Map.Entry<String, SyncState.Version> e : state.getVersions().entrySet()) {
+                    String origin = e.getKey();
+                    if (origin.equals(serverId)) continue;
+                    List<UserInfo> users = new ArrayList<>();
+                    if (state.getUsers() != null) {
+                        for (UserInfo u : state.getUsers()) if (origin.equals(u.getServerId())) users.add(u);
+                    }
+                    List<FileInfo> files = new ArrayList<>();
+                    if (state.getFiles() != null) {
+                        for (FileInfo f : state.getFiles()) if (origin.equals(f.getServerId())) files.add(f);
+                    }
+                    registry.replaceOrigin(origin, users, files);
+                    versions.put(origin, e.getValue());
+                }
+            }
+            debug("loadState() → " + state.getVersions() + " desde " + stateFile);
+        } catch (IOException e) {
+            System.err.println("[WARN] No se pudo leer " + stateFile + " (" + e.getMessage()
+                               + "); se pedirán instantáneas");
+        }
+    }
+
+    /** Solo se guarda lo de orígenes con versión conocida: lo demás no se podría poner al día. */
+    private void saveState() {
+        if (stateFile == null) return;
+        SyncState state;
+        synchronized (registry) {
+            Map<String, SyncState.Version> saved = new HashMap<>(versions);
+            saved.remove(serverId);
+            List<UserInfo> users = new ArrayList<>();
+            for (UserInfo u : registry.getAllUsers()) if (saved.containsKey(u.getServerId())) users.add(u);
+            List<FileInfo> files = new ArrayList<>();
+            for (FileInfo f : registry.getAllFiles()) if (saved.containsKey(f.getServerId())) files.add(f);
+            state = new SyncState(saved, users, files);
+        }
+        try {
+            if (stateFile.getParent() != null) Files.createDirectories(stateFile.getParent());
+            Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            mapper.writeValue(tmp.toFile(), state);
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[WARN] No se pudo guardar " + stateFile + ": " + e.getMessage());
         }
     }
 
@@ -0,0 +1,408 @@
+package com.mycompany.chatserverproject.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Formato binario de la sincronización entre servidores, alternativa al JSON
+ * de Jackson. Se negocia por conexión: la primera línea sigue siendo el
+ * {@link SyncRequest} en JSON (la entienden también los servidores antiguos)
+ * y, si trae {@code codec = BIN1}, todo lo que sigue en esa conexión, en
+ * ambos sentidos, va en este formato.
+ *
+ * Cada mensaje es {@code [tipo:1][flags:1][longitud:varint][payload]}; con
+ * {@link #FLAG_DEFLATE} el payload va comprimido (solo volcados grandes).
+ * Enteros como varint sin signo; textos como {@code [longitud+1:varint][UTF-8]}
+ * (0 = null). Los identificadores de servidor se internan por conexión: la
+ * primera vez van con el texto y después solo con su número.
+ *
+ * Writer y Reader guardan la tabla de la conexión: uno por conexión y
+ * sentido, sin compartir entre hilos.
+ */
+final class SyncCodec {
+    static final String BIN1 = "BIN1";
+
+    static final byte MSG_DIFF_BATCH = 1;
+    static final byte MSG_CATCH_UP = 2;
+    static final byte MSG_FULL_DUMP = 3;
+
+    static final byte FLAG_DEFLATE = 0x01;
+
+    /** Volcados a partir de este tamaño se comprimen (si así ocupan menos). */
+    static final int COMPRESS_MIN = 1024;
+    /** Tamaño máximo de un mensaje, comprimido o no. */
+    static final int MAX_MESSAGE = 64 * 1024 * 1024;
+
+    private static final Diff.Type[] DIFF_TYPES = Diff.Type.values();
+
+    private SyncCodec() {}
+
+    /** Escribe mensajes en una conexión. No hace flush: lo decide quien llama. */
+    static final class Writer {
+        private final OutputStream out;
+        private final boolean compress;
+        private final Map<String, Integer> interned = new HashMap<>();
+        private final Buffer payload = new Buffer(4096);
+        private final Buffer header = new Buffer(16);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        Writer(OutputStream out) {
+            this(out, true);
+        }
+
+        Writer(OutputStream out, boolean compress) {
+            this.out = out;
+            this.compress = compress;
+        }
+
+        void write(DiffBatch batch) throws IOException {
+            payload.reset();
+            writeInterned(batch.getOrigin());
+            payload.writeVarLong(batch.getEpoch());
+            payload.writeVarLong(batch.getFromSeq());
+            payload.writeVarLong(batch.getToSeq());
+            writeDiffs(batch.getDiffs());
+            emit(MSG_DIFF_BATCH, false);
+        }
+
+        void write(CatchUp resp) throws IOException {
+            payload.reset();
+            writeInterned(resp.getOrigin());
+            payload.writeVarLong(resp.getEpoch());
+            payload.writeVarLong(resp.getLastSeq());
+            payload.write(resp.isSnapshot() ? 1 : 0);
+            if (resp.isSnapshot()) {
+                writeUsers(resp.getUsers());
+                writeFiles(resp.getFiles());
+            } else {
+                writeDiffs(resp.getDiffs());
+            }
+            emit(MSG_CATCH_UP, resp.isSnapshot());
+        }
+
+        void write(FullDump dump) throws IOException {
+            payload.reset();
+            writeUsers(dump.getUsers());
+            writeFiles(dump.getFiles());
+            emit(MSG_FULL_DUMP, true);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        private void emit(byte type, boolean dump) throws IOException {
+            byte flags = 0;
+            byte[] body = payload.array();
+            int length = payload.size();
+            if (dump && compress && length >= COMPRESS_MIN) {
+                byte[] packed = deflate(body, length);
+                if (packed.length < length) {
+                    flags |= FLAG_DEFLATE;
+                    body = packed;
+                    length = packed.length;
+                }
+            }
+            if (length > MAX_MESSAGE) {
+                throw new IOException("Mensaje de sincronización demasiado grande: " + length + " bytes");
+            }
+            header.reset();
+            header.write(type);
+            header.write(flags);
+            header.writeVarLong(length);
+            out.write(header.array(), 0, header.size());
+            out.write(body, 0, length);
+        }
+
+        private byte[] deflate(byte[] data, int length) {
+            deflater.reset();
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream packed = new ByteArrayOutputStream(length / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                packed.write(chunk, 0, n);
+            }
+            return packed.toByteArray();
+        }
+
+        private void writeDiffs(List<Diff> diffs) {
+            int count = diffs != null ? diffs.size() : 0;
+            payload.writeVarLong(count);
+            for (int i = 0; i < count; i++) {
+                Diff diff = diffs.get(i);
+                payload.write(diff.getType().ordinal());
+                switch (diff.getType()) {
+                    case USER_ADDED:
+                    case USER_REMOVED:
+                        writeUser(diff.getUserInfo());
+                        break;
+                    default:
+                        writeFile(diff.getFileInfo());
+                        break;
+                }
+            }
+        }
+
+        private void writeUsers(List<UserInfo> users) {
+            int count = users != null ? users.size() : 0;
+            payload.writeVarLong(count);
+            for (int i = 0; i < count; i++) writeUser(users.get(i));
+        }
+
+        private void writeFiles(List<FileInfo> files) {
+            int count = files != null ? files.size() : 0;
+            payload.writeVarLong(count);
+            for (int i = 0; i < count; i++) writeFile(files.get(i));
+        }
+
+        private void writeUser(UserInfo u) {
+            payload.writeString(u.getUsername());
+            writeInterned(u.getServerId());
+        }
+
+        private void writeFile(FileInfo f) {
+            payload.writeString(f.getFilename());
+            writeInterned(f.getServerId());
+            payload.writeString(f.getChecksum());
+        }
+
+        /** 0 + texto la primera vez (queda con el número siguiente); después, número + 1. */
+        private void writeInterned(String value) {
+            if (value == null) {
+                payload.writeVarLong(0);
+                payload.writeString(null);
+                return;
+            }
+            Integer id = interned.get(value);
+            if (id != null) {
+                payload.writeVarLong(id + 1L);
+                return;
+            }
+            interned.put(value, interned.size());
+            payload.writeVarLong(0);
+            payload.writeString(value);
+        }
+    }
+
+    /** Lee mensajes de una conexión. */
+    static final class Reader {
+        private final DataInputStream in;
+        private final List<String> interned = new ArrayList<>();
+        private final Inflater inflater = new Inflater();
+        private byte[] data;
+        private int pos;
+        private int limit;
+
+        Reader(InputStream in) {
+            this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        }
+
+        /** Siguiente mensaje ({@link DiffBatch}, {@link CatchUp} o {@link FullDump}); null si la conexión terminó. */
+        Object read() throws IOException {
+            int type = in.read();
+            if (type < 0) return null;
+            int flags = in.readUnsignedByte();
+            long length = readStreamVarLong();
+            if (length > MAX_MESSAGE) {
+                throw new IOException("Mensaje de sincronización demasiado grande: " + length + " bytes");
+            }
+            byte[] body = new byte[(int) length];
+            in.readFully(body);
+            if ((flags & FLAG_DEFLATE) != 0) {
+                body = inflate(body);
+            }
+            data = body;
+            pos = 0;
+            limit = body.length;
+            switch (type) {
+                case MSG_DIFF_BATCH:
+                    return new DiffBatch(readInterned(), readVarLong(), readVarLong(), readVarLong(), readDiffs());
+                case MSG_CATCH_UP:
+                    return readCatchUp();
+                case MSG_FULL_DUMP:
+                    return new FullDump(readUsers(), readFiles());
+                default:
+                    throw new IOException("Tipo de mensaje de sincronización desconocido: " + type);
+            }
+        }
+
+        private CatchUp readCatchUp() throws IOException {
+            CatchUp resp = new CatchUp();
+            resp.setOrigin(readInterned());
+            resp.setEpoch(readVarLong());
+            resp.setLastSeq(readVarLong());
+            resp.setSnapshot(readByte() != 0);
+            if (resp.isSnapshot()) {
+                resp.setUsers(readUsers());
+                resp.setFiles(readFiles());
+            } else {
+                resp.setDiffs(readDiffs());
+            }
+            return resp;
+        }
+
+        private byte[] inflate(byte[] packed) throws IOException {
+            inflater.reset();
+            inflater.setInput(packed);
+            ByteArrayOutputStream plain = new ByteArrayOutputStream(packed.length * 4);
+            byte[] chunk = new byte[8192];
+            try {
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(chunk);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Mensaje de sincronización comprimido truncado");
+                    }
+                    plain.write(chunk, 0, n);
+                    if (plain.size() > MAX_MESSAGE) {
+                        throw new IOException("Mensaje de sincronización demasiado grande al descomprimir");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Mensaje de sincronización comprimido inválido", e);
+            }
+            return plain.toByteArray();
+        }
+
+        private List<Diff> readDiffs() throws IOException {
+            int count = readCount();
+            List<Diff> diffs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int ordinal = readByte();
+                if (ordinal >= DIFF_TYPES.length) throw new IOException("Tipo de diff desconocido: " + ordinal);
+                Diff.Type type = DIFF_TYPES[ordinal];
+                switch (type) {
+                    case USER_ADDED:
+                    case USER_REMOVED:
+                        diffs.add(new Diff(type, readUser()));
+                        break;
+                    default:
+                        diffs.add(new Diff(type, readFile()));
+                        break;
+                }
+            }
+            return diffs;
+        }
+
+        private List<UserInfo> readUsers() throws IOException {
+            int count = readCount();
+            List<UserInfo> users = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) users.add(readUser());
+            return users;
+        }
+
+        private List<FileInfo> readFiles() throws IOException {
+            int count = readCount();
+            List<FileInfo> files = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) files.add(readFile());
+            return files;
+        }
+
+        private UserInfo readUser() throws IOException {
+            String username = readString();
+            return new UserInfo(username, readInterned());
+        }
+
+        private FileInfo readFile() throws IOException {
+            String filename = readString();
+            String serverId = readInterned();
+            return new FileInfo(filename, serverId, readString());
+        }
+
+        private String readInterned() throws IOException {
+            long ref = readVarLong();
+            if (ref == 0) {
+                String value = readString();
+                if (value != null) interned.add(value);
+                return value;
+            }
+            if (ref > interned.size()) throw new IOException("Referencia a servidor desconocida: " + ref);
+            return interned.get((int) (ref - 1));
+        }
+
+        /** Número de elementos, acotado por lo que queda del mensaje (cada uno ocupa al menos un byte). */
+        private int readCount() throws IOException {
+            long count = readVarLong();
+            if (count > limit - pos) throw new IOException("Recuento inválido: " + count);
+            return (int) count;
+        }
+
+        private String readString() throws IOException {
+            long length = readVarLong();
+            if (length == 0) return null;
+            int n = (int) (length - 1);
+            if (length - 1 > limit - pos) throw new IOException("Texto truncado");
+            String value = new String(data, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return value;
+        }
+
+        private int readByte() throws IOException {
+            if (pos >= limit) throw new EOFException("Mensaje de sincronización truncado");
+            return data[pos++] & 0xFF;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Varint demasiado largo");
+        }
+
+        private long readStreamVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Varint demasiado largo");
+        }
+    }
+
+    /** ByteArrayOutputStream reutilizable con varints y textos, sin copiar al leerlo. */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -1,10 +1,42 @@
 package com.mycompany.chatserverproject.distributed;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/** Los campos de CATCH_UP solo se escriben cuando tienen valor. */
+@JsonInclude(JsonInclude.Include.NON_DEFAULT)
 public class SyncRequest {
-    public enum Type { FULL_DUMP, DIFF }
+    /**
+     * STREAM: conexión persistente por la que siguen diffs hasta que se cierra (ver PeerLink).
+     * CATCH_UP: pide al peer lo suyo desde {@code epoch}/{@code sinceSeq}; responde un {@link CatchUp}.
+     */
+    public enum Type { FULL_DUMP, DIFF, STREAM, CATCH_UP }
     private Type type;
+    /** Quién pide el CATCH_UP y su arranque actual. */
+    private String serverId;
+    private long serverEpoch;
+    /** Hasta dónde tiene ya lo del peer (0 = nada). */
+    private long epoch;
+    private long sinceSeq;
+    /** Formato del resto de la conexión (null = JSON, {@code SyncCodec.BIN1} = binario). */
+    private String codec;
+
     public SyncRequest() {}
     public SyncRequest(Type type) { this.type = type; }
     public Type getType() { return type; }
     public void setType(Type type) { this.type = type; }
+
+    public String getServerId() { return serverId; }
+    public void setServerId(String serverId) { this.serverId = serverId; }
+
+    public long getServerEpoch() { return serverEpoch; }
+    public void setServerEpoch(long serverEpoch) { this.serverEpoch = serverEpoch; }
+
+    public long getEpoch() { return epoch; }
+    public void setEpoch(long epoch) { this.epoch = epoch; }
+
+    public long getSinceSeq() { return sinceSeq; }
+    public void setSinceSeq(long sinceSeq) { this.sinceSeq = sinceSeq; }
+
+    public String getCodec() { return codec; }
+    public void setCodec(String codec) { this.codec = codec; }
 }
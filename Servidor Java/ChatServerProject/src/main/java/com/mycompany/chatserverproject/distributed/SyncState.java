@@ -0,0 +1,71 @@
+package com.mycompany.chatserverproject.distributed;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Lo que un servidor sabe de los demás y guarda al apagarse: hasta qué
+ * secuencia ha aplicado de cada origen y los usuarios y archivos de esos
+ * orígenes. Al arrancar de nuevo solo pide lo posterior.
+ */
+public class SyncState {
+
+    /** Arranque del origen (epoch) y último lote suyo aplicado. */
+    public static class Version {
+        private long epoch;
+        private long seq;
+
+        public Version() {}
+
+        public Version(long epoch, long seq) {
+            this.epoch = epoch;
+            this.seq = seq;
+        }
+
+        public long getEpoch() { return epoch; }
+        public void setEpoch(long epoch) { this.epoch = epoch; }
+
+        public long getSeq() { return seq; }
+        public void setSeq(long seq) { this.seq = seq; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Version)) return false;
+            Version other = (Version) o;
+            return epoch == other.epoch && seq == other.seq;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(epoch, seq);
+        }
+
+        @Override
+        public String toString() {
+            return epoch + "#" + seq;
+        }
+    }
+
+    private Map<String, Version> versions;
+    private List<UserInfo> users;
+    private List<FileInfo> files;
+
+    public SyncState() {}
+
+    public SyncState(Map<String, Version> versions, List<UserInfo> users, List<FileInfo> files) {
+        this.versions = versions;
+        this.users = users;
+        this.files = files;
+    }
+
+    public Map<String, Version> getVersions() { return versions; }
+    public void setVersions(Map<String, Version> versions) { this.versions = versions; }
+
+    public List<UserInfo> getUsers() { return users; }
+    public void setUsers(List<UserInfo> users) { this.users = users; }
+
+    public List<FileInfo> getFiles() { return files; }
+    public void setFiles(List<FileInfo> files) { this.files = files; }
+}
@@ -1,52 +1,152 @@
 // UserFileRegistry.java
 package com.mycompany.chatserverproject.distributed;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Usuarios y archivos de todos los servidores, con índices hash por nombre
+ * de usuario, por servidor y por nombre y checksum de archivo, así que altas,
+ * bajas y búsquedas no dependen de cuántos haya. Las escrituras se
+ * serializan en el monitor del registro (quien ya lo usa como lock, como
+ * ChatServer.publishDiff, simplemente reentra); las lecturas no bloquean.
+ */
 public class UserFileRegistry {
-    private final CopyOnWriteArrayList<UserInfo> users = new CopyOnWriteArrayList<>();
-    private final CopyOnWriteArrayList<FileInfo> files = new CopyOnWriteArrayList<>();
+    private final Set<UserInfo> users = ConcurrentHashMap.newKeySet();
+    private final Set<FileInfo> files = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<UserInfo>> usersByName = new ConcurrentHashMap<>();
+    private final Map<String, Set<UserInfo>> usersByServer = new ConcurrentHashMap<>();
+    private final Map<String, Set<FileInfo>> filesByName = new ConcurrentHashMap<>();
+    private final Map<String, Set<FileInfo>> filesByChecksum = new ConcurrentHashMap<>();
+    private final Map<String, Set<FileInfo>> filesByServer = new ConcurrentHashMap<>();
 
+    /** Copia de los usuarios para recorrerla (UI, volcados); no sigue los cambios posteriores. */
     public List<UserInfo> getAllUsers() {
-        return users;
+        return new ArrayList<>(users);
     }
 
+    /** Copia de los archivos para recorrerla (UI, volcados); no sigue los cambios posteriores. */
     public List<FileInfo> getAllFiles() {
-        return files;
+        return new ArrayList<>(files);
     }
 
-    public void integrateFullDump(FullDump dump) {
-        users.clear();
-        users.addAll(dump.getUsers());
-        files.clear();
-        files.addAll(dump.getFiles());
+    public int getUserCount() {
+        return users.size();
     }
 
-    public void applyDiff(Diff d) {
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /** El usuario conectado con ese nombre en algún servidor, o null. */
+    public UserInfo findUser(String username) {
+        if (username == null) return null;
+        Set<UserInfo> found = usersByName.get(username);
+        if (found == null) return null;
+        for (UserInfo u : found) {
+            return u;
+        }
+        return null;
+    }
+
+    /** Servidores que tienen un archivo con ese nombre. */
+    public List<FileInfo> findFilesByName(String filename) {
+        return copyOf(filesByName, filename);
+    }
+
+    /** Copias del mismo contenido, estén en el servidor que estén. */
+    public List<FileInfo> findFilesByChecksum(String checksum) {
+        return copyOf(filesByChecksum, checksum);
+    }
+
+    public List<UserInfo> getUsersOf(String serverId) {
+        return copyOf(usersByServer, serverId);
+    }
+
+    public List<FileInfo> getFilesOf(String serverId) {
+        return copyOf(filesByServer, serverId);
+    }
+
+    /**
+     * Sustituye lo que el registro tiene del servidor {@code serverId} por
+     * {@code users} y {@code files}; lo de los demás servidores no se toca.
+     */
+    public synchronized void replaceOrigin(String serverId, List<UserInfo> users, List<FileInfo> files) {
+        for (UserInfo u : getUsersOf(serverId)) removeUser(u);
+        for (FileInfo f : getFilesOf(serverId)) removeFile(f);
+        if (users != null) {
+            for (UserInfo u : users) addUser(u);
+        }
+        if (files != null) {
+            for (FileInfo f : files) addFile(f);
+        }
+    }
+
+    /** Aplica el diff; devuelve true si cambió el registro (un alta repetida, por ejemplo, no). */
+    public synchronized boolean applyDiff(Diff d) {
         switch (d.getType()) {
             case USER_ADDED:
-                if (d.getUserInfo() != null && !users.contains(d.getUserInfo())) {
-                    users.add(d.getUserInfo());
-                }
-                break;
+                return d.getUserInfo() != null && addUser(d.getUserInfo());
             case USER_REMOVED:
-                if (d.getUserInfo() != null) {
-                    users.remove(d.getUserInfo());
-                }
-                break;
+                return d.getUserInfo() != null && removeUser(d.getUserInfo());
             case FILE_ADDED:
-                if (d.getFileInfo() != null && !files.contains(d.getFileInfo())) {
-                    files.add(d.getFileInfo());
-                }
-                break;
+                return d.getFileInfo() != null && addFile(d.getFileInfo());
             case FILE_REMOVED:
-                if (d.getFileInfo() != null) {
-                    files.remove(d.getFileInfo());
-                }
-                break;
+                return d.getFileInfo() != null && removeFile(d.getFileInfo());
             default:
-                // No-op
+                return false;
         }
     }
+
+    private boolean addUser(UserInfo u) {
+        if (!users.add(u)) return false;
+        index(usersByName, u.getUsername(), u);
+        index(usersByServer, u.getServerId(), u);
+        return true;
+    }
+
+    private boolean removeUser(UserInfo u) {
+        if (!users.remove(u)) return false;
+        unindex(usersByName, u.getUsername(), u);
+        unindex(usersByServer, u.getServerId(), u);
+        return true;
+    }
+
+    private boolean addFile(FileInfo f) {
+        if (!files.add(f)) return false;
+        index(filesByName, f.getFilename(), f);
+        index(filesByChecksum, f.getChecksum(), f);
+        index(filesByServer, f.getServerId(), f);
+        return true;
+    }
+
+    private boolean removeFile(FileInfo f) {
+        if (!files.remove(f)) return false;
+        unindex(filesByName, f.getFilename(), f);
+        unindex(filesByChecksum, f.getChecksum(), f);
+        unindex(filesByServer, f.getServerId(), f);
+        return true;
+    }
+
+    private static <V> void index(Map<String, Set<V>> index, String key, V value) {
+        if (key == null) return;
+        index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(value);
+    }
+
+    /** Quita el valor y, si la clave se queda vacía, la clave. */
+    private static <V> void unindex(Map<String, Set<V>> index, String key, V value) {
+        if (key == null) return;
+        index.computeIfPresent(key, (k, set) -> {
+            set.remove(value);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static <V> List<V> copyOf(Map<String, Set<V>> index, String key) {
+        Set<V> found = key != null ? index.get(key) : null;
+        return found != null ? new ArrayList<>(found) : new ArrayList<>();
+    }
 }
@@ -0,0 +1,84 @@
+package com.mycompany.chatserverproject;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Coste de {@link ChatServer#sendToChannel} según cuántos miembros tiene el
+ * canal, con un mensaje de texto y con un adjunto. Junto a cada medida va lo
+ * que cuesta cifrar y armar esa trama una vez: antes se hacía por cada
+ * miembro (y el adjunto se pasaba a Base64 cada vez), así que el reparto
+ * costaba al menos miembros × cifrado; ahora debe quedarse cerca de un solo
+ * cifrado más lo que cuesta encolar en cada conexión.
+ *
+ * Los miembros son conexiones sin socket (DROP_OLDEST mantiene sus colas
+ * llenas y el coste estable) y la base de datos es {@link StubDatabase}.
+ * Va en src/test para que no entre en el jar del servidor. Crea
+ * server_files/ y server.log en el directorio actual, como el servidor.
+ *
+ * Uso: {@code mvn test-compile} y luego
+ * {@code java -cp target/classes:target/test-classes:<dependencias> com.mycompany.chatserverproject.ChannelEncryptBenchmark [rondas] [kbAdjunto] [miembros...]}
+ */
+public class ChannelEncryptBenchmark {
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int fileKb = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int[] sizes = {10, 100, 1_000};
+        if (args.length > 2) {
+            sizes = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) sizes[i - 2] = Integer.parseInt(args[i]);
+        }
+        char[] filler = new char[200];
+        Arrays.fill(filler, 'x');
+        String text = new String(filler);
+        byte[] file = new byte[fileKb * 1024];
+        Arrays.fill(file, (byte) 7);
+
+        // sendToChannel escribe cada mensaje por consola: se sigue pagando el println, no el terminal
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        ChatServer server = new ChatServer(0, Integer.MAX_VALUE, new StubDatabase(), null);
+        server.setOutboundQueueSize(16);
+        server.setSlowConsumerPolicy(ClientConnection.SlowConsumerPolicy.DROP_OLDEST);
+        for (int size : sizes) {
+            String channel = "canal" + size;
+            for (int m = 0; m < size; m++) {
+                String user = channel + "_" + m;
+                server.addClient(user, server.newClientConnection());
+                if (m == 0) {
+                    server.createChannel(channel, user);
+                } else {
+                    server.addToChannel(channel, user);
+                }
+            }
+        }
+
+        CryptoService crypto = new CryptoService();
+        String command = "MSG:#canal:usuario1:" + text;
+        double textOnce = measure(() -> WireMessage.text(crypto, command).frame(false), rounds * 10);
+        double fileOnce = measure(() -> WireMessage.file(crypto, "#canal", "usuario1", "foto.png", file).frame(false),
+            Math.max(1, rounds / 2));
+
+        console.printf("Texto de %d caracteres, adjunto de %d KB, %d rondas%n", text.length(), fileKb, rounds);
+        console.printf("%-10s %-10s %18s %18s %16s%n", "Miembros", "Mensaje", "sendToChannel µs", "Un cifrado µs", "En cifrados");
+        for (int size : sizes) {
+            String channel = "canal" + size;
+            double textSend = measure(() -> server.sendToChannel(channel, text, "usuario1", null), rounds);
+            console.printf("%-10d %-10s %18.1f %18.1f %16.1f%n", size, "texto", textSend, textOnce, textSend / textOnce);
+            // Con adjunto cada ronda pesa mucho más: se reparte entre menos
+            double fileSend = measure(() -> server.sendToChannel(channel, text, "usuario1", file), Math.max(1, rounds / 20));
+            console.printf("%-10d %-10s %18.1f %18.1f %16.1f%n", size, "adjunto", fileSend, fileOnce, fileSend / fileOnce);
+        }
+    }
+
+    /** Microsegundos por ejecución, tras un calentamiento. */
+    private static double measure(Runnable task, int rounds) {
+        for (int r = 0; r < Math.max(2, rounds / 4); r++) task.run();
+        long t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) task.run();
+        return (System.nanoTime() - t0) / 1e3 / rounds;
+    }
+}
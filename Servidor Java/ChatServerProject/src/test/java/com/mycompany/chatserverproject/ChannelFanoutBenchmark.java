@@ -0,0 +1,118 @@
+package com.mycompany.chatserverproject;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mide cuántos mensajes por segundo reparte {@link ChatServer#sendToChannel}
+ * según cuántos hilos envían a la vez: tal cual (bloqueo por canal) y
+ * envuelto en {@code synchronized} sobre el servidor, que es como era el
+ * método antes. Cada hilo es un cliente que escribe en canales al azar; los
+ * miembros son conexiones sin socket (nadie vacía sus colas: DROP_OLDEST
+ * mantiene el coste estable) y la base de datos es {@link StubDatabase}.
+ * Por defecto prueba 1, 2, 4... hilos hasta el número de núcleos.
+ *
+ * Va en src/test para que no entre en el jar del servidor. Crea
+ * server_files/ y server.log en el directorio actual, como el servidor.
+ *
+ * Uso: {@code mvn test-compile} y luego
+ * {@code java -cp target/classes:target/test-classes:<dependencias> com.mycompany.chatserverproject.ChannelFanoutBenchmark [canales] [miembros] [mensajesPorHilo] [hilos...]}
+ */
+public class ChannelFanoutBenchmark {
+
+    /** Un envío a un canal, con o sin el monitor global de antes. */
+    private interface Fanout {
+        void send(String channel, String sender, String message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int channelCount = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int members = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int perThread = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // sendToChannel escribe cada mensaje por consola: se sigue pagando el println, no el terminal
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        ChatServer server = new ChatServer(0, Integer.MAX_VALUE, new StubDatabase(), null);
+        server.setOutboundQueueSize(64);
+        server.setSlowConsumerPolicy(ClientConnection.SlowConsumerPolicy.DROP_OLDEST);
+        List<String> channels = new ArrayList<>(channelCount);
+        for (int c = 0; c < channelCount; c++) {
+            String channel = "canal" + c;
+            for (int m = 0; m < members; m++) {
+                String user = channel + "_" + m;
+                server.addClient(user, server.newClientConnection());
+                if (m == 0) {
+                    server.createChannel(channel, user);
+                } else {
+                    server.addToChannel(channel, user);
+                }
+            }
+            channels.add(channel);
+        }
+
+        Fanout global = (channel, sender, message) -> {
+            synchronized (server) {
+                server.sendToChannel(channel, message, sender, null);
+            }
+        };
+        Fanout perChannel = (channel, sender, message) -> server.sendToChannel(channel, message, sender, null);
+
+        List<Integer> threadCounts = new ArrayList<>();
+        if (args.length > 3) {
+            for (int i = 3; i < args.length; i++) threadCounts.add(Integer.parseInt(args[i]));
+        } else {
+            for (int t = 1; t < cores; t *= 2) threadCounts.add(t);
+            threadCounts.add(cores);
+        }
+        int maxThreads = threadCounts.stream().mapToInt(Integer::intValue).max().orElse(cores);
+
+        // Calentamiento
+        run(channels, global, maxThreads, perThread / 4);
+        run(channels, perChannel, maxThreads, perThread / 4);
+
+        console.printf("%d canales x %d miembros, %d mensajes por hilo, %d núcleos%n",
+            channelCount, members, perThread, cores);
+        console.printf("%-8s %20s %20s %10s%n", "Hilos", "Monitor global msg/s", "Por canal msg/s", "Mejora");
+        for (int threads : threadCounts) {
+            double before = run(channels, global, threads, perThread);
+            double after = run(channels, perChannel, threads, perThread);
+            console.printf("%-8d %20.0f %20.0f %9.2fx%n", threads, before, after, after / before);
+        }
+    }
+
+    /** Lanza {@code threads} emisores a la vez y devuelve los mensajes por segundo. */
+    private static double run(List<String> channels, Fanout fanout, int threads, int perThread)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            String sender = "usuario" + t;
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        fanout.send(channels.get(random.nextInt(channels.size())), sender, "mensaje " + i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - t0;
+        return (double) threads * perThread / (elapsed / 1e9);
+    }
+}
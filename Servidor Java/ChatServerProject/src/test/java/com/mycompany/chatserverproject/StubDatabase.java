@@ -0,0 +1,36 @@
+package com.mycompany.chatserverproject;
+
+import com.mycompany.databaseconnectorproject.DatabaseConnection;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * Base de datos vacía para los benchmarks: toda consulta devuelve cero
+ * filas y toda escritura afecta a cero, sin red ni MySQL. Con ella
+ * ChatServer recorre su camino real (canales, diario de mensajes) y solo
+ * se mide lo que hace en memoria.
+ */
+class StubDatabase implements DatabaseConnection {
+
+    @Override
+    public Connection getConnection() {
+        return stub(Connection.class);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /** Implementa la interfaz JDBC: Statement y ResultSet devuelven otro stub; el resto, su valor por defecto. */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            Class<?> result = method.getReturnType();
+            if (result.isInterface() && result.getName().startsWith("java.sql.")) return stub(result);
+            if (result.isArray()) return Array.newInstance(result.getComponentType(), 0);
+            if (result.isPrimitive() && result != void.class) return Array.get(Array.newInstance(result, 1), 0);
+            return null;
+        });
+    }
+}
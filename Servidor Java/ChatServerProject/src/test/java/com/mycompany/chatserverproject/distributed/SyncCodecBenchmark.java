@@ -0,0 +1,161 @@
+package com.mycompany.chatserverproject.distributed;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compara el JSON de Jackson con {@link SyncCodec} en tamaño y velocidad
+ * (codificar + decodificar) sobre los mensajes que más pesan: un volcado de
+ * todo el registro, la instantánea de un servidor en CATCH_UP y los lotes
+ * de un enlace durante una tormenta de reconexiones.
+ *
+ * Uso: {@code mvn test-compile} y luego
+ * {@code java -cp target/classes:target/test-classes:<dependencias> com.mycompany.chatserverproject.distributed.SyncCodecBenchmark [usuarios] [rondas]}
+ */
+public class SyncCodecBenchmark {
+
+    /** Una forma de serializar un mensaje: la ida produce bytes y la vuelta los lee. */
+    private interface Codec {
+        byte[] encode(Object msg) throws Exception;
+        void decode(byte[] bytes) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        ObjectMapper mapper = new ObjectMapper();
+
+        List<UserInfo> allUsers = new ArrayList<>(users);
+        List<FileInfo> allFiles = new ArrayList<>(users / 4);
+        for (int i = 0; i < users; i++) {
+            String server = "servidor-" + (i % 4);
+            allUsers.add(new UserInfo("usuario" + i, server));
+            if (i % 4 == 0) {
+                allFiles.add(new FileInfo("archivo_" + i + ".dat", server, String.format("%064x", (long) i * 2654435761L)));
+            }
+        }
+        FullDump dump = new FullDump(allUsers, allFiles);
+
+        CatchUp snapshot = new CatchUp();
+        snapshot.setOrigin("servidor-0");
+        snapshot.setEpoch(System.currentTimeMillis());
+        snapshot.setLastSeq(12_345);
+        snapshot.setSnapshot(true);
+        List<UserInfo> ownUsers = new ArrayList<>();
+        for (UserInfo u : allUsers) if (u.getServerId().equals("servidor-0")) ownUsers.add(u);
+        List<FileInfo> ownFiles = new ArrayList<>();
+        for (FileInfo f : allFiles) if (f.getServerId().equals("servidor-0")) ownFiles.add(f);
+        snapshot.setUsers(ownUsers);
+        snapshot.setFiles(ownFiles);
+
+        // Tormenta: cada usuario del servidor 0 sale y vuelve a entrar, en lotes de 400
+        List<DiffBatch> storm = new ArrayList<>();
+        List<Diff> current = new ArrayList<>();
+        long seq = 0;
+        for (UserInfo u : ownUsers) {
+            current.add(new Diff(Diff.Type.USER_REMOVED, u));
+            current.add(new Diff(Diff.Type.USER_ADDED, u));
+            if (current.size() >= 400) {
+                seq++;
+                storm.add(new DiffBatch("servidor-0", snapshot.getEpoch(), seq, seq, current));
+                current = new ArrayList<>();
+            }
+        }
+
+        Codec binary = binary(true);
+        Codec binaryPlain = binary(false);
+
+        System.out.printf("%d usuarios, %d archivos, %d rondas%n", allUsers.size(), allFiles.size(), rounds);
+        System.out.printf("%-36s %12s %16s %16s%n", "Mensaje / formato", "Bytes", "Codificar ms", "Decodificar ms");
+        run("Volcado completo, JSON", List.of(dump), json(mapper, FullDump.class), rounds);
+        run("Volcado completo, BIN1", List.of(dump), binaryPlain, rounds);
+        run("Volcado completo, BIN1+deflate", List.of(dump), binary, rounds);
+        run("Instantánea CATCH_UP, JSON", List.of(snapshot), json(mapper, CatchUp.class), rounds);
+        run("Instantánea CATCH_UP, BIN1+deflate", List.of(snapshot), binary, rounds);
+        // En JSON cada lote se serializa por separado; en binario van todos por el mismo flujo
+        run("Lotes de tormenta (" + storm.size() + "), JSON", new ArrayList<>(storm), json(mapper, DiffBatch.class), rounds);
+        run("Lotes de tormenta (" + storm.size() + "), BIN1", List.of(storm), stream(), rounds);
+    }
+
+    private static Codec json(ObjectMapper mapper, Class<?> type) {
+        return new Codec() {
+            public byte[] encode(Object msg) throws Exception {
+                return mapper.writeValueAsBytes(msg);
+            }
+
+            public void decode(byte[] bytes) throws Exception {
+                mapper.readValue(bytes, type);
+            }
+        };
+    }
+
+    /** Un mensaje por conexión (volcados e instantáneas). */
+    private static Codec binary(boolean compress) {
+        return new Codec() {
+            public byte[] encode(Object msg) throws Exception {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                SyncCodec.Writer writer = new SyncCodec.Writer(out, compress);
+                if (msg instanceof FullDump) writer.write((FullDump) msg);
+                else writer.write((CatchUp) msg);
+                return out.toByteArray();
+            }
+
+            public void decode(byte[] bytes) throws Exception {
+                new SyncCodec.Reader(new ByteArrayInputStream(bytes)).read();
+            }
+        };
+    }
+
+    /**
+     * Lotes por un mismo enlace: el primero lleva el id de servidor y el resto
+     * solo su número. Se codifican todos seguidos en un único flujo.
+     */
+    private static Codec stream() {
+        return new Codec() {
+            public byte[] encode(Object msg) throws Exception {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                SyncCodec.Writer writer = new SyncCodec.Writer(out);
+                for (Object batch : (List<?>) msg) writer.write((DiffBatch) batch);
+                return out.toByteArray();
+            }
+
+            public void decode(byte[] bytes) throws Exception {
+                SyncCodec.Reader reader = new SyncCodec.Reader(new ByteArrayInputStream(bytes));
+                while (reader.read() != null) {
+                    // solo se mide la lectura
+                }
+            }
+        };
+    }
+
+    /** Mide {@code rounds} rondas de codificar y decodificar {@code units}; da la media por ronda. */
+    private static void run(String name, List<Object> units, Codec codec, int rounds) throws Exception {
+        List<byte[]> encoded = new ArrayList<>();
+        long bytes = 0;
+        for (Object msg : units) {
+            byte[] b = codec.encode(msg);
+            encoded.add(b);
+            bytes += b.length;
+        }
+        // Calentamiento
+        for (int r = 0; r < Math.max(2, rounds / 4); r++) {
+            for (Object msg : units) codec.encode(msg);
+            for (byte[] b : encoded) codec.decode(b);
+        }
+        long t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (Object msg : units) codec.encode(msg);
+        }
+        long t1 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (byte[] b : encoded) codec.decode(b);
+        }
+        long t2 = System.nanoTime();
+        System.out.printf("%-36s %12d %16.2f %16.2f%n", name, bytes,
+            (t1 - t0) / 1e6 / rounds, (t2 - t1) / 1e6 / rounds);
+    }
+}
@@ -0,0 +1,98 @@
+package com.mycompany.chatserverproject.distributed;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mide el tráfico hacia un peer durante una tormenta de reconexiones: N
+ * usuarios conectados se desconectan y vuelven a entrar, repartidos en unos
+ * segundos. Simula el tiempo (no abre sockets ni duerme) y serializa con el
+ * mismo Jackson que los enlaces, así que el resultado es reproducible.
+ *
+ * Uso: {@code mvn test-compile} y luego
+ * {@code java -cp target/classes:target/test-classes:<dependencias> com.mycompany.chatserverproject.distributed.SyncStormBenchmark [usuarios] [ventanaMs...]}
+ */
+public class SyncStormBenchmark {
+
+    private static final class Event {
+        final long atMillis;
+        final Diff diff;
+
+        Event(long atMillis, Diff diff) {
+            this.atMillis = atMillis;
+            this.diff = diff;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long[] windows = {0, 10, 50, 200};
+        if (args.length > 1) {
+            windows = new long[args.length - 1];
+            for (int i = 1; i < args.length; i++) windows[i - 1] = Long.parseLong(args[i]);
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        List<Event> events = storm(users, 2_000, 500, new Random(42));
+
+        // Antes de los enlaces persistentes: una conexión TCP con SyncRequest + Diff por diff
+        long perConnection = 0;
+        int requestBytes = mapper.writeValueAsBytes(new SyncRequest(SyncRequest.Type.DIFF)).length;
+        for (Event e : events) perConnection += requestBytes + mapper.writeValueAsBytes(e.diff).length;
+
+        System.out.printf("Tormenta: %d usuarios, %d diffs en %.1f s%n", users, events.size(),
+            events.get(events.size() - 1).atMillis / 1000.0);
+        System.out.printf("%-28s %10s %10s %12s%n", "Modo", "Conexiones", "Tramas", "Bytes");
+        System.out.printf("%-28s %10d %10d %12d%n", "Una conexión por diff", events.size(), events.size(), perConnection);
+        for (long window : windows) {
+            long[] r = windowed(events, window, mapper);
+            System.out.printf("%-28s %10d %10d %12d   (%d diffs enviados)%n",
+                "Enlace, ventana " + window + " ms", 1, r[0], r[1], r[2]);
+        }
+    }
+
+    /**
+     * Cada usuario se desconecta en un instante al azar de {@code spreadMillis}
+     * y vuelve a entrar entre 0 y {@code maxGapMillis} después.
+     */
+    private static List<Event> storm(int users, long spreadMillis, long maxGapMillis, Random random) {
+        List<Event> events = new ArrayList<>(users * 2);
+        for (int i = 0; i < users; i++) {
+            UserInfo user = new UserInfo("user" + i, "srv1");
+            long down = (long) (random.nextDouble() * spreadMillis);
+            long up = down + (long) (random.nextDouble() * maxGapMillis);
+            events.add(new Event(down, new Diff(Diff.Type.USER_REMOVED, user)));
+            events.add(new Event(up, new Diff(Diff.Type.USER_ADDED, user)));
+        }
+        events.sort((a, b) -> Long.compare(a.atMillis, b.atMillis));
+        return events;
+    }
+
+    /**
+     * Igual que StateSyncService: la ventana se abre con el primer diff que
+     * llega y al cerrarse sale un DiffBatch con lo coalescido.
+     *
+     * @return {tramas, bytes, diffs enviados}
+     */
+    private static long[] windowed(List<Event> events, long window, ObjectMapper mapper) throws Exception {
+        long frames = 0, bytes = 0, diffs = 0;
+        DiffCoalescer pending = new DiffCoalescer();
+        int i = 0;
+        while (i < events.size()) {
+            long closesAt = events.get(i).atMillis + window;
+            while (i < events.size() && (events.get(i).atMillis <= closesAt)) {
+                pending.add(events.get(i).diff);
+                i++;
+                if (window == 0) break;
+            }
+            List<Diff> batch = pending.drain();
+            if (batch.isEmpty()) continue;
+            frames++;
+            diffs += batch.size();
+            bytes += mapper.writeValueAsBytes(new DiffBatch("srv1", 1, frames, frames, batch)).length;
+        }
+        return new long[] {frames, bytes, diffs};
+    }
+}
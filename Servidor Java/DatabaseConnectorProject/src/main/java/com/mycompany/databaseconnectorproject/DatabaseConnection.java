@@ -15,5 +15,21 @@ import java.sql.SQLException;
 
 public interface DatabaseConnection {
     Connection getConnection() throws SQLException;
+
+    /**
+     * Conexión para consultas de solo lectura (listados, historial, informes).
+     * Puede ir a una réplica, así que lo que se acaba de escribir quizá aún
+     * no se vea; lo que dependa de una escritura reciente debe usar
+     * {@link #getConnection()}.
+     */
+    default Connection getReadConnection() throws SQLException {
+        return getConnection();
+    }
+
     void close();
+
+    /** Estado del pool de conexiones para los informes. */
+    default String getPoolStats() {
+        return "Sin métricas de pool";
+    }
 }
\ No newline at end of file
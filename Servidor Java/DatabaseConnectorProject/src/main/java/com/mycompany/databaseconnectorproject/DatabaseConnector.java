@@ -8,24 +8,74 @@
 package com.mycompany.databaseconnectorproject;
 
 import java.sql.*;
+import java.time.Duration;
 import org.apache.commons.dbcp2.BasicDataSource;
 
 public class DatabaseConnector implements DatabaseConnection {
     private BasicDataSource dataSource;
+    /** Credenciales de la base principal; la réplica las usa si no tiene las suyas. */
+    private final String dbUser;
+    private final String dbPass;
+    private final PoolMetrics metrics = new PoolMetrics();
+    /** Pool de lecturas; null mientras no se configure y entonces se lee del de escrituras. */
+    private volatile BasicDataSource readDataSource;
+    private final PoolMetrics readMetrics = new PoolMetrics();
+    private volatile boolean readReplica;
 
     public DatabaseConnector(String dbUrl, String dbUser, String dbPass) {
-        dataSource = new BasicDataSource();
-        dataSource.setUrl(dbUrl);
-        dataSource.setUsername(dbUser);
-        dataSource.setPassword(dbPass);
-        dataSource.setMinIdle(5);
-        dataSource.setMaxIdle(10);
-        dataSource.setMaxOpenPreparedStatements(100);
+        this(dbUrl, dbUser, dbPass, new PoolSettings());
+    }
+
+    public DatabaseConnector(String dbUrl, String dbUser, String dbPass, PoolSettings pool) {
+        this.dbUser = dbUser;
+        this.dbPass = dbPass;
+        dataSource = createDataSource(dbUrl, dbUser, dbPass, pool);
 
         detectAndRegisterDriver(dbUrl);
         createTablesIfNotExist();
     }
 
+    private static BasicDataSource createDataSource(String dbUrl, String dbUser, String dbPass, PoolSettings pool) {
+        BasicDataSource ds = new BasicDataSource();
+        ds.setUrl(dbUrl);
+        ds.setUsername(dbUser);
+        ds.setPassword(dbPass);
+        ds.setInitialSize(pool.getInitialSize());
+        ds.setMinIdle(pool.getMinIdle());
+        ds.setMaxIdle(pool.getMaxIdle());
+        ds.setMaxTotal(pool.getMaxTotal());
+        ds.setMaxWait(Duration.ofMillis(pool.getMaxWaitMillis()));
+        // Caché de sentencias preparadas por conexión (sin esto maxOpenPreparedStatements no hace nada)
+        ds.setPoolPreparedStatements(pool.isPoolPreparedStatements());
+        ds.setMaxOpenPreparedStatements(pool.getMaxOpenPreparedStatements());
+        ds.setDurationBetweenEvictionRuns(Duration.ofMillis(pool.getEvictionRunMillis()));
+        ds.setMinEvictableIdle(Duration.ofMillis(pool.getMinEvictableIdleMillis()));
+        return ds;
+    }
+
+    /**
+     * Pool aparte para {@link #getReadConnection()}, para que los informes y
+     * los recorridos de historial no quiten conexiones a las inserciones.
+     * Con {@code replicaUrl} vacía se usa la misma base de datos (sirve de
+     * réplica local en pruebas y en instalaciones de un solo servidor).
+     */
+    public void setReadReplica(String replicaUrl, String user, String pass, PoolSettings pool) {
+        boolean replica = replicaUrl != null && !replicaUrl.trim().isEmpty();
+        String url = replica ? replicaUrl.trim() : dataSource.getUrl();
+        if (replica) detectAndRegisterDriver(url);
+        // Sin usuario propio para la réplica se usan las credenciales de la principal
+        boolean ownUser = replica && user != null && !user.trim().isEmpty();
+        BasicDataSource ds = createDataSource(url,
+            ownUser ? user.trim() : dbUser,
+            ownUser ? (pass != null ? pass : "") : dbPass, pool);
+        ds.setDefaultReadOnly(true);
+        BasicDataSource old = readDataSource;
+        readDataSource = ds;
+        readReplica = replica;
+        if (old != null) closeQuietly(old);
+        System.out.println(replica ? "Lecturas dirigidas a la réplica " + url : "Lecturas en un pool aparte de la misma base de datos.");
+    }
+
     private void detectAndRegisterDriver(String dbUrl) {
         try {
             if (dbUrl.contains("mysql")) {
@@ -56,6 +106,9 @@ public class DatabaseConnector implements DatabaseConnection {
             stmt.execute("CREATE TABLE IF NOT EXISTS channel_members (channel_id INT, user_id INT, PRIMARY KEY (channel_id, user_id), FOREIGN KEY (channel_id) REFERENCES channels(id), FOREIGN KEY (user_id) REFERENCES users(id))");
             stmt.execute("CREATE TABLE IF NOT EXISTS channel_requests (channel_id INT, user_id INT, status ENUM('PENDING', 'APPROVED', 'REJECTED') DEFAULT 'PENDING', PRIMARY KEY (channel_id, user_id), FOREIGN KEY (channel_id) REFERENCES channels(id), FOREIGN KEY (user_id) REFERENCES users(id))");
             stmt.execute("CREATE TABLE IF NOT EXISTS messages (id INT AUTO_INCREMENT PRIMARY KEY, sender_id INT, destination VARCHAR(255), message TEXT, file VARCHAR(255), timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP, FOREIGN KEY (sender_id) REFERENCES users(id))");
+            // Última entrada del diario de mensajes ya insertada (MessageJournal)
+            stmt.execute("CREATE TABLE IF NOT EXISTS journal_checkpoint (name VARCHAR(64) PRIMARY KEY, last_seq BIGINT NOT NULL)");
+            SchemaMigrations.migrate(conn);
             System.out.println("Tablas verificadas/creadas en la base de datos del servidor.");
         } catch (SQLException e) {
             throw new RuntimeException("Error al crear las tablas en el servidor", e);
@@ -64,13 +117,67 @@ public class DatabaseConnector implements DatabaseConnection {
 
     @Override
     public Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        long start = System.nanoTime();
+        try {
+            Connection conn = dataSource.getConnection();
+            metrics.recordBorrow(System.nanoTime() - start);
+            return conn;
+        } catch (SQLException e) {
+            metrics.recordFailure();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getReadConnection() throws SQLException {
+        BasicDataSource ds = readDataSource;
+        if (ds == null) return getConnection();
+        long start = System.nanoTime();
+        try {
+            Connection conn = ds.getConnection();
+            readMetrics.recordBorrow(System.nanoTime() - start);
+            return conn;
+        } catch (SQLException e) {
+            readMetrics.recordFailure();
+            throw e;
+        }
+    }
+
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public PoolMetrics getReadMetrics() {
+        return readMetrics;
+    }
+
+    @Override
+    public String getPoolStats() {
+        String stats = poolStats(dataSource, metrics);
+        BasicDataSource ds = readDataSource;
+        if (ds == null) return stats;
+        return "Escrituras: " + stats + String.format("%n")
+            + (readReplica ? "Lecturas (réplica): " : "Lecturas (pool local): ") + poolStats(ds, readMetrics);
+    }
+
+    private static String poolStats(BasicDataSource ds, PoolMetrics m) {
+        return String.format("Activas: %d/%d, Inactivas: %d, Préstamos: %d, Fallidos: %d, Espera media: %.2f ms, Espera máxima: %.2f ms%n"
+                + "Latencia de préstamo: %s",
+            ds.getNumActive(), ds.getMaxTotal(), ds.getNumIdle(),
+            m.getBorrows(), m.getFailures(), m.getMeanWaitMillis(), m.getMaxWaitMillis(),
+            m.histogramText());
     }
 
     @Override
     public void close() {
+        BasicDataSource ds = readDataSource;
+        if (ds != null) closeQuietly(ds);
+        closeQuietly(dataSource);
+    }
+
+    private static void closeQuietly(BasicDataSource ds) {
         try {
-            dataSource.close();
+            ds.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,72 @@
+package com.mycompany.databaseconnectorproject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencia de préstamo de conexiones del pool: cuánto espera quien llama a
+ * {@code getConnection()}, en un histograma de cubetas fijas, más la media,
+ * el máximo y los préstamos fallidos (p. ej. por agotar la espera).
+ */
+public class PoolMetrics {
+    /** Límites superiores de las cubetas en milisegundos; la última cubeta es "más de". */
+    private static final long[] BUCKETS_MS = {1, 5, 10, 50, 100, 500, 1000};
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS_MS.length + 1);
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void recordBorrow(long nanos) {
+        borrows.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        long millis = nanos / 1_000_000;
+        int bucket = 0;
+        while (bucket < BUCKETS_MS.length && millis >= BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        histogram.incrementAndGet(bucket);
+    }
+
+    void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    public long getBorrows() {
+        return borrows.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public double getMeanWaitMillis() {
+        long n = borrows.get();
+        return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /** Préstamos por cubeta: [&lt;1ms, &lt;5ms, &lt;10ms, &lt;50ms, &lt;100ms, &lt;500ms, &lt;1s, &gt;=1s]. */
+    public long[] getHistogram() {
+        long[] copy = new long[histogram.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = histogram.get(i);
+        }
+        return copy;
+    }
+
+    String histogramText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < histogram.length(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(i < BUCKETS_MS.length ? "<" + BUCKETS_MS[i] + "ms" : ">=" + BUCKETS_MS[BUCKETS_MS.length - 1] + "ms")
+              .append(": ").append(histogram.get(i));
+        }
+        return sb.toString();
+    }
+}
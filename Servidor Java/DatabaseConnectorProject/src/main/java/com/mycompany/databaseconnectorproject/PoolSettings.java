@@ -0,0 +1,124 @@
+package com.mycompany.databaseconnectorproject;
+
+import java.util.function.Function;
+
+/**
+ * Ajustes del pool de conexiones y de la caché de sentencias preparadas;
+ * {@link #fromConfig} los toma de las claves {@code db_pool_*} de
+ * config.properties. minIdle, maxIdle y maxOpenPreparedStatements conservan
+ * los valores que fijaba el conector. El resto no coincide con lo que había
+ * (los valores por defecto de dbcp2): maxTotal pasa de 8 a 20, maxWait de
+ * espera ilimitada a 10 s (mejor un error que un hilo colgado para siempre)
+ * y la caché de sentencias queda activada.
+ */
+public class PoolSettings {
+    private int initialSize = 0;
+    private int minIdle = 5;
+    private int maxIdle = 10;
+    private int maxTotal = 20;
+    private long maxWaitMillis = 10_000;
+    private boolean poolPreparedStatements = true;
+    private int maxOpenPreparedStatements = 100;
+    private long evictionRunMillis = 60_000;
+    private long minEvictableIdleMillis = 300_000;
+
+    /** Lee los ajustes con {@code config} (p. ej. {@code ConfigLoader::getProperty}); lo que falte queda por defecto. */
+    public static PoolSettings fromConfig(Function<String, String> config) {
+        PoolSettings s = new PoolSettings();
+        s.initialSize = intValue(config, "db_pool_initial_size", s.initialSize);
+        s.minIdle = intValue(config, "db_pool_min_idle", s.minIdle);
+        s.maxIdle = intValue(config, "db_pool_max_idle", s.maxIdle);
+        s.maxTotal = intValue(config, "db_pool_max_total", s.maxTotal);
+        s.maxWaitMillis = longValue(config, "db_pool_max_wait_ms", s.maxWaitMillis);
+        String pooled = config.apply("db_pool_prepared_statements");
+        if (pooled != null && !pooled.trim().isEmpty()) {
+            s.poolPreparedStatements = Boolean.parseBoolean(pooled.trim());
+        }
+        s.maxOpenPreparedStatements = intValue(config, "db_pool_max_open_statements", s.maxOpenPreparedStatements);
+        s.evictionRunMillis = longValue(config, "db_pool_eviction_run_ms", s.evictionRunMillis);
+        s.minEvictableIdleMillis = longValue(config, "db_pool_min_evictable_idle_ms", s.minEvictableIdleMillis);
+        return s;
+    }
+
+    private static int intValue(Function<String, String> config, String key, int fallback) {
+        String value = config.apply(key);
+        return value == null || value.trim().isEmpty() ? fallback : Integer.parseInt(value.trim());
+    }
+
+    private static long longValue(Function<String, String> config, String key, long fallback) {
+        String value = config.apply(key);
+        return value == null || value.trim().isEmpty() ? fallback : Long.parseLong(value.trim());
+    }
+
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    public void setInitialSize(int initialSize) {
+        this.initialSize = initialSize;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public boolean isPoolPreparedStatements() {
+        return poolPreparedStatements;
+    }
+
+    public void setPoolPreparedStatements(boolean poolPreparedStatements) {
+        this.poolPreparedStatements = poolPreparedStatements;
+    }
+
+    public int getMaxOpenPreparedStatements() {
+        return maxOpenPreparedStatements;
+    }
+
+    public void setMaxOpenPreparedStatements(int maxOpenPreparedStatements) {
+        this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+    }
+
+    public long getEvictionRunMillis() {
+        return evictionRunMillis;
+    }
+
+    public void setEvictionRunMillis(long evictionRunMillis) {
+        this.evictionRunMillis = evictionRunMillis;
+    }
+
+    public long getMinEvictableIdleMillis() {
+        return minEvictableIdleMillis;
+    }
+
+    public void setMinEvictableIdleMillis(long minEvictableIdleMillis) {
+        this.minEvictableIdleMillis = minEvictableIdleMillis;
+    }
+}
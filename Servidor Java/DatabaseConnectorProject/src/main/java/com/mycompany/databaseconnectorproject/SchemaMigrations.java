@@ -0,0 +1,150 @@
+package com.mycompany.databaseconnectorproject;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Migraciones versionadas del esquema. Cada paso se aplica una sola vez y
+ * queda anotado en {@code schema_version}; los pasos comprueban lo que ya
+ * existe, así que un paso interrumpido (el DDL de MySQL no es transaccional)
+ * se puede repetir sin romper nada.
+ *
+ * Versiones 1-99: las del propio conector ({@link #migrate}). A partir de
+ * 100, pasos de la aplicación que necesitan algo más que SQL.
+ */
+public final class SchemaMigrations {
+
+    /** Un paso de migración. */
+    @FunctionalInterface
+    public interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private SchemaMigrations() {
+    }
+
+    /** Migraciones del esquema base, en orden. */
+    static void migrate(Connection conn) throws SQLException {
+        apply(conn, 1, "messages.conversation para el historial de chats privados",
+            SchemaMigrations::addConversationKey);
+        apply(conn, 2, "Índices de historial por canal y por conversación", c -> {
+            createIndex(c, "idx_messages_destination", "messages", "destination, id");
+            createIndex(c, "idx_messages_conversation", "messages", "conversation, id");
+        });
+        apply(conn, 3, "Índice de mensajes por archivo (permisos de DOWNLOAD)",
+            c -> createIndex(c, "idx_messages_file", "messages", "file"));
+    }
+
+    /** Aplica {@code step} si la versión aún no consta como aplicada. */
+    public static void apply(Connection conn, int version, String description, Step step) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (version INT PRIMARY KEY, description VARCHAR(255), "
+                + "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        }
+        try (PreparedStatement check = conn.prepareStatement("SELECT 1 FROM schema_version WHERE version = ?")) {
+            check.setInt(1, version);
+            try (ResultSet rs = check.executeQuery()) {
+                if (rs.next()) return;
+            }
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            step.apply(conn);
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                insert.setInt(1, version);
+                insert.setString(2, description);
+                insert.executeUpdate();
+            }
+            conn.commit();
+            System.out.println("Migración " + version + " aplicada: " + description);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Clave de conversación de un mensaje: el canal ("#nombre") o, en un chat
+     * privado, los dos usuarios ordenados ("ana|luis"). Así el historial de
+     * un chat privado es un único rango del índice en vez de dos pares
+     * (destino, remitente).
+     */
+    public static String conversationKey(String sender, String destination) {
+        if (destination.startsWith("#")) return destination;
+        return sender.compareTo(destination) <= 0
+            ? sender + "|" + destination
+            : destination + "|" + sender;
+    }
+
+    private static void addConversationKey(Connection conn) throws SQLException {
+        if (!columnExists(conn, "messages", "conversation")) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE messages ADD COLUMN conversation VARCHAR(255)");
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE messages SET conversation = destination "
+                + "WHERE conversation IS NULL AND destination LIKE '#%'");
+        }
+        // Los privados se calculan aquí para que el orden sea el mismo que usa el servidor
+        try (PreparedStatement select = conn.prepareStatement(
+                "SELECT m.id, u.username, m.destination FROM messages m JOIN users u ON m.sender_id = u.id "
+                + "WHERE m.conversation IS NULL");
+             PreparedStatement update = conn.prepareStatement(
+                "UPDATE messages SET conversation = ? WHERE id = ?");
+             ResultSet rs = select.executeQuery()) {
+            int pending = 0;
+            while (rs.next()) {
+                String destination = rs.getString(3);
+                if (destination == null) continue;
+                update.setString(1, conversationKey(rs.getString(2), destination));
+                update.setLong(2, rs.getLong(1));
+                update.addBatch();
+                if (++pending == 1000) {
+                    update.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) update.executeBatch();
+        }
+    }
+
+    private static void createIndex(Connection conn, String name, String table, String columns) throws SQLException {
+        if (indexExists(conn, table, name)) return;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX " + name + " ON " + table + " (" + columns + ")");
+        }
+    }
+
+    private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        for (String t : new String[] {table, table.toUpperCase()}) {
+            try (ResultSet rs = meta.getColumns(conn.getCatalog(), null, t, null)) {
+                while (rs.next()) {
+                    if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        for (String t : new String[] {table, table.toUpperCase()}) {
+            try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), null, t, false, true)) {
+                while (rs.next()) {
+                    if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) return true;
+                }
+            }
+        }
+        return false;
+    }
+}